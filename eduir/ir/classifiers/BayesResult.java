@@ -4,7 +4,10 @@ import java.util.*;
 
 /**
  * An object to hold the result of training a NaiveBayes classifier.
- * Stores the class priors and the counts of features in each class.
+ * Stores the class priors and the log probabilities of features in each
+ * class: features are numbered, and the probabilities of a feature in every
+ * class are consecutive in one float array, so a model takes a small
+ * fraction of the memory of a table of arrays and is read without locking.
  *
  * @author       Sugato Basu and Prem Melville
  */
@@ -14,9 +17,12 @@ public class BayesResult
     /** Stores the prior probabilities of each class */
     protected double[] classPriors;
 
-    /** Stores the counts for each feature: an entry in the hashTable stores
-	the array of class counts for a feature */
-    protected Hashtable featureTable;
+    /** Maps each feature to its (Integer) id */
+    protected HashMap featureIds;
+
+    /** Stores the log probability of each feature in each class: the entry for
+	feature id f in class c is at f * (number of classes) + c */
+    protected float[] featureProbs;
 
     /** Sets the class priors */
     public void setClassPriors(double[] priors){
@@ -28,13 +34,29 @@ public class BayesResult
 	return(classPriors);
     }
 
-    /** Sets the feature hash */
-    public void setFeatureTable(Hashtable table){
-		featureTable = table;
+    /** Sets the map from features to ids */
+    public void setFeatureIds(HashMap ids){
+	featureIds = ids;
+    }
+
+    /** Returns the map from features to ids */
+    public HashMap getFeatureIds(){
+	return(featureIds);
+    }
+
+    /** Returns the id of a feature, or -1 if it was not seen in training */
+    public int getFeatureId(String feature){
+	Integer id = (Integer)featureIds.get(feature);
+	return (id == null) ? -1 : id.intValue();
+    }
+
+    /** Sets the log probabilities of the features in each class */
+    public void setFeatureProbs(float[] probs){
+	featureProbs = probs;
     }
-        
-    /** Returns the feature hash */
-    public Hashtable getFeatureTable(){
-		return(featureTable);
+
+    /** Returns the log probabilities of the features in each class */
+    public float[] getFeatureProbs(){
+	return(featureProbs);
     }
 }
@@ -2,11 +2,19 @@ package eduir.ir.classifiers;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import eduir.ir.vsr.*;
 import eduir.ir.utilities.*;
 
 /**
  * Gives learning curves with K-fold cross validation for a classifier.
+ * Each (point, fold) pair is a job that trains and tests the classifier.
+ * Jobs run in order by default, or concurrently on a pool of threads after
+ * setNumThreads, each with its own copy of the classifier (see
+ * Classifier.copy).  Every job seeds its classifier's tie-breaking from
+ * randomSeed and its position, and its output, including what the
+ * classifier prints (see Classifier.setOut), is printed in job order, so
+ * the results and output do not depend on the number of threads.
  *
  * @author       Sugato Basu and Ray Mooney
  */
@@ -57,6 +65,9 @@ public class CVLearningCurve
 
     /** Accuracy results for training data, one PointResults for each point on the curve */
     protected PointResults[] trainResults;
+
+    /** Number of threads running jobs at once; 1 runs them in order on the calling thread */
+    protected int numThreads = 1;
   
     /** Creates a CVLearning curve object
      *
@@ -96,6 +107,16 @@ public class CVLearningCurve
 	this(10, c, examples, DEFAULT_POINTS, 1, false);
     }
 
+    /** Set the number of threads running (point, fold) jobs at once */
+    public void setNumThreads(int n) {
+	numThreads = n;
+    }
+
+    /** Return the number of threads running (point, fold) jobs at once */
+    public int getNumThreads() {
+	return numThreads;
+    }
+
     /** Return classifier */
     public Classifier getClassifier() {
 	return classifier;
@@ -166,31 +187,89 @@ public class CVLearningCurve
     // create foldBins from totalExamples -- effectively creates the
     // training-test splits for each fold
     binExamples();
-    // Gather results for each point (number of examples) to be plotted 
-    // on the learning curve
+    // Initialize PointResults for training and test accuracy for
+    // each point
     for (int i = 0; i < points.length; i++) {
-      double percent = points[i];
-      System.out.println("Train Percentage: " + 100*percent + "%");
-      // Initialize PointResults for training and test accuracy for
-      // this point
       testResults[i] = new PointResults(numFolds);
       trainResults[i] = new PointResults(numFolds);
+    }
+    if (numThreads > 1) {
+      trainAndTestParallel();
+      return;
+    }
+    // Gather results for each point (number of examples) to be plotted 
+    // on the learning curve
+    for (int i = 0; i < points.length; i++) {
+      System.out.println("Train Percentage: " + 100*points[i] + "%");
       // Train and test for each fold for this point
+      for (int fold = 0; fold < numFolds; fold++)
+	trainAndTestJob(classifier, i, fold, System.out);
+    }
+  }
+
+  /**
+   * Run the job for each point and fold on a pool of numThreads threads, each
+   * with a copy of the classifier printing to the job's buffer, printing the
+   * output of each job in order as soon as it and the jobs before it are done.
+   */
+  protected void trainAndTestParallel() {
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    ArrayList futures = new ArrayList();
+    for (int i = 0; i < points.length; i++) {
       for (int fold = 0; fold < numFolds; fold++) {
-	System.out.println("  Calculating results for fold " + fold);
-	// Creates training data for this fold, from the first
-	// percent data in each of the training folds
-	Vector train = getTrainCV(fold, percent);
-	// Creates testing data for this fold
-	Vector test = getTestCV(fold);
-	// Get testing results for this fold and percent setting
-	trainAndTestFold(train, test, fold, testResults[i], trainResults[i]);
-	if (debug) {
-	  System.out.println("Training on:\n" + train);
-	  System.out.println("Testing on:\n" + test);
-	}
+	final int point = i, foldNum = fold;
+	final Classifier copy = classifier.copy();
+	futures.add(executor.submit(new Callable() {
+	    public Object call() {
+	      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	      PrintStream out = new PrintStream(bytes);
+	      copy.setOut(out);
+	      trainAndTestJob(copy, point, foldNum, out);
+	      out.flush();
+	      return bytes.toString();
+	    }
+	  }));
+      }
+    }
+    try {
+      for (int i = 0; i < points.length; i++) {
+	System.out.println("Train Percentage: " + 100*points[i] + "%");
+	for (int fold = 0; fold < numFolds; fold++)
+	  System.out.print((String)((Future)futures.get(i * numFolds + fold)).get());
       }
     }
+    catch (Exception e) {
+      System.out.println("\nCross validation job failed: " + e);
+      System.exit(1);
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Train and test a classifier for one point and fold, seeding its random
+   * tie-breaking from randomSeed and the job's position.
+   *
+   * @param c The classifier to train and test
+   * @param point The index of the point on the curve
+   * @param fold The current fold number
+   * @param out Where to print progress
+   */
+  protected void trainAndTestJob(Classifier c, int point, int fold, PrintStream out) {
+    out.println("  Calculating results for fold " + fold);
+    c.setRandomSeed(randomSeed * 1000003 + point * numFolds + fold);
+    // Creates training data for this fold, from the first
+    // percent data in each of the training folds
+    Vector train = getTrainCV(fold, points[point], out);
+    // Creates testing data for this fold
+    Vector test = getTestCV(fold);
+    // Get testing results for this fold and percent setting
+    trainAndTestFold(c, train, test, fold, testResults[point], trainResults[point], out);
+    if (debug) {
+      out.println("Training on:\n" + train);
+      out.println("Testing on:\n" + test);
+    }
   }
   
   /**
@@ -204,11 +283,20 @@ public class CVLearningCurve
    */
   public void trainAndTestFold(Vector train, Vector test, int fold, 
 			       PointResults testPointResults, PointResults trainPointResults) {
+    trainAndTestFold(classifier, train, test, fold, testPointResults, trainPointResults, System.out);
+  }
+
+  /**
+   * Train and test a classifier on given example sets for the given fold,
+   * printing its accuracy to out.
+   */
+  protected void trainAndTestFold(Classifier c, Vector train, Vector test, int fold, 
+				  PointResults testPointResults, PointResults trainPointResults,
+				  PrintStream out) {
     long startTime = System.currentTimeMillis();
     // train the classifier on train data
-    classifier.train(train);
-    double timeTaken = System.currentTimeMillis() - startTime;
-    trainTime += timeTaken;
+    c.train(train);
+    double trainTaken = System.currentTimeMillis() - startTime;
 
     // Test on test data and measure time and accuracy
     int testCorrect = 0;
@@ -216,12 +304,11 @@ public class CVLearningCurve
     for (int i = 0; i < test.size(); i++) {
       Example example = (Example) test.get(i);
       // classify the test example
-      if(classifier.test(example))
+      if(c.test(example))
 	testCorrect++;
     }
-    timeTaken = System.currentTimeMillis() - startTime;
-    testTime += timeTaken;
-    testTimeNum += test.size();
+    double testTaken = System.currentTimeMillis() - startTime;
+    addTimes(trainTaken, testTaken, test.size());
 
     testPointResults.setPoint(train.size());
     double testAccuracy = 1.0*testCorrect/test.size();
@@ -232,7 +319,7 @@ public class CVLearningCurve
     for (int i = 0; i < train.size(); i++) {
       Example example = (Example) train.get(i);
       // classify the test example
-      if(classifier.test(example))
+      if(c.test(example))
 	trainCorrect++;
     }
     trainPointResults.setPoint(train.size());
@@ -240,8 +327,16 @@ public class CVLearningCurve
     if (train.size() == 0) trainAccuracy = 1.0;
     trainPointResults.addResult(fold, trainAccuracy);
     
-    System.out.println("    Train Accuracy = " + MoreMath.roundTo(100*trainAccuracy,3) + 
-		       "%; Test Accuracy = " + MoreMath.roundTo(100*testAccuracy,3) + "%" );
+    out.println("    Train Accuracy = " + MoreMath.roundTo(100*trainAccuracy,3) + 
+		"%; Test Accuracy = " + MoreMath.roundTo(100*testAccuracy,3) + "%" );
+  }
+
+  /** Add the time taken by a job to the totals, which are summed over all
+   *  jobs even when they run at once */
+  protected synchronized void addTimes(double trainTaken, double testTaken, int numTested) {
+    trainTime += trainTaken;
+    testTime += testTaken;
+    testTimeNum += numTested;
   }
 
     /** Set the fold Bins from the total Examples -- this effectively
@@ -268,6 +363,14 @@ public class CVLearningCurve
      * @return The training data
      */
     public Vector getTrainCV(int foldnum, double percent) {
+	return getTrainCV(foldnum, percent, System.out);
+    }
+
+    /**
+     * Creates the training set for one fold of a cross-validation 
+     * on the dataset, printing its size to out.
+     */
+    protected Vector getTrainCV(int foldnum, double percent, PrintStream out) {
 	Vector train = new Vector();
 	// Compute number of train examples to use
 	int numTrain = (int)Math.round(percent * totalNumTrain);
@@ -300,7 +403,7 @@ public class CVLearningCurve
 		}
 	    }
 	}
-	System.out.println("    Number of training examples: " + train.size());
+	out.println("    Number of training examples: " + train.size());
 	return train;
     }
     
@@ -1,5 +1,6 @@
 package eduir.ir.classifiers;
 
+import java.io.*;
 import java.util.*;
 import eduir.ir.vsr.*;
 
@@ -13,20 +14,34 @@ import eduir.ir.vsr.*;
 public abstract class Classifier {
      
     /** Used for breaking ties in argMax() */
-    protected static Random random;
+    protected Random random = new Random();
 
     /** Array of categories (classes) in the data  */
     protected String[] categories;
 
-    static {
-        random = new Random();
-    }
+    /** Where training and testing print their output, System.out by default */
+    protected PrintStream out = System.out;
 
     /** The name of a classifier 
     * @returns the name of a particular classifier
     */
     public abstract String getName();
     
+    /** Returns a new untrained classifier with the same settings, so that
+     * several can be trained at once (see CVLearningCurve.setNumThreads)
+     */
+    public abstract Classifier copy();
+
+    /** Sets where training and testing print their output */
+    public void setOut(PrintStream out) {
+	this.out = out;
+    }
+
+    /** Seeds the random numbers used to break ties, to make results repeatable */
+    public void setRandomSeed(long seed) {
+	random = new Random(seed);
+    }
+
     /** Retrns the categories (classes) in the data 
     * @returns an array containing strings describing the categories
     */
@@ -0,0 +1,120 @@
+package eduir.ir.classifiers;
+
+import java.util.*;
+import eduir.ir.vsr.*;
+
+/**
+ * Implements a k nearest neighbor classifier.  Training indexes the training
+ * examples in an InvertedIndex, so the neighbors of a test example are its
+ * top k retrievals when used as a query: only training examples sharing a
+ * token with it are scored, rather than computing its cosine similarity to
+ * every training example.  Each neighbor votes for its category with its
+ * similarity, and an example with no neighbors is given the most common
+ * category of the training examples.
+ */
+
+public class KNN extends Classifier
+{
+    /** Name of classifier */
+    public static final String name = "KNN";
+
+    /** The default number of neighbors */
+    public static final int DEFAULT_K = 5;
+
+    /** Number of neighbors that vote on the category */
+    protected int k;
+
+    /** Number of categories */
+    protected int numCategories;
+
+    /** The index of the training examples, set by the train function */
+    protected InvertedIndex index;
+
+    /** The category of each training example, by document id in the index */
+    protected int[] exampleCategories;
+
+    /** The number of training examples in each category */
+    protected double[] categoryCounts;
+
+    /** Flag for debug prints */
+    protected boolean debug = false;
+
+    /** Create a k nearest neighbor classifier with these attributes
+     *
+     * @param categories  The array of Strings containing the category names
+     * @param k  The number of neighbors that vote on the category
+     * @param debug  Flag to turn on detailed output
+     */
+    public KNN(String[] categories, int k, boolean debug) {
+	this.categories = categories;
+	this.k = k;
+	this.debug = debug;
+	numCategories = categories.length;
+    }
+
+    /** Returns a new untrained classifier with the same settings */
+    public Classifier copy() {
+	return new KNN(categories, k, debug);
+    }
+
+    /** Sets the debug flag */
+    public void setDebug(boolean bool) {
+	debug = bool;
+    }
+
+    /** Sets the number of neighbors */
+    public void setK(int k) {
+	this.k = k;
+    }
+
+    /** Returns the number of neighbors */
+    public int getK() {
+	return k;
+    }
+
+    /** Returns the name */
+    public String getName() {
+	return name;
+    }
+
+    /** Trains the classifier by indexing the training examples, whose
+     * document ids in the index are their positions in the list
+     *
+     * @param trainExamples  The list of training examples
+     */
+    public void train(List trainExamples) {
+	index = new InvertedIndex(trainExamples, out);
+	exampleCategories = new int[trainExamples.size()];
+	categoryCounts = new double[numCategories];
+	for(int i = 0; i < exampleCategories.length; i++) {
+	    exampleCategories[i] = ((Example)trainExamples.get(i)).getCategory();
+	    categoryCounts[exampleCategories[i]]++;
+	}
+    }
+
+    /** Categorizes the test example by a vote of its k nearest training
+     * examples, returning true if the predicted category is the actual category
+     *
+     * @param testExample  The test example to be categorized
+     */
+    public boolean test(Example testExample) {
+	Retrieval[] neighbors = index.retrieve(testExample.getHashMapVector(), k);
+	double[] votes;
+	if (neighbors.length == 0)
+	    votes = categoryCounts;
+	else {
+	    votes = new double[numCategories];
+	    for(int i = 0; i < neighbors.length; i++)
+		votes[exampleCategories[neighbors[i].docRef.id]] += neighbors[i].score;
+	}
+	int predictedClass = argMax(votes);
+	if (debug) {
+	    out.print("Document: " + testExample.getName() + "\nVotes: ");
+	    for (int j = 0; j < numCategories; j++)
+		out.print(categories[j] + "(" + votes[j] + ")\t");
+	    out.println("\nCorrect class: " + testExample.getCategory() + ", Predicted class: " +
+			       predictedClass + "\n");
+	}
+	return (predictedClass == testExample.getCategory());
+    }
+}
@@ -50,6 +50,14 @@ public class NaiveBayes extends Classifier
 	numCategories = categories.length;
     }
 
+    /** Returns a new untrained classifier with the same settings */
+    public Classifier copy() {
+	NaiveBayes copy = new NaiveBayes(categories, debug);
+	copy.setLaplace(isLaplace);
+	copy.setEpsilon(EPSILON);
+	return copy;
+    }
+
     /** Sets the debug flag */
     public void setDebug(boolean bool){
 	debug = bool;
@@ -97,9 +105,9 @@ public class NaiveBayes extends Classifier
 	//calculate class priors
 	trainResult.setClassPriors(calculatePriors(trainExamples));
 	//calculate counts of feature for each class
-	trainResult.setFeatureTable(conditionalProbs(trainExamples));
+	conditionalProbs(trainExamples);
 	if(debug) {
-	    displayProbs(trainResult.getClassPriors(),trainResult.getFeatureTable());
+	    displayProbs(trainResult.getClassPriors(),trainResult);
 	}
     }
 
@@ -115,11 +123,11 @@ public class NaiveBayes extends Classifier
 	// predicted class
 	int predictedClass = argMax(posteriorProbs);
 	if (debug) {
-	    System.out.print("Document: " + testExample.name + "\nResults: ");
+	    out.print("Document: " + testExample.name + "\nResults: ");
 	    for (int j=0; j<numCategories; j++) {
-		System.out.print(categories[j] + "(" + posteriorProbs[j] + ")\t");	
+		out.print(categories[j] + "(" + posteriorProbs[j] + ")\t");	
 	    }
-	    System.out.println("\nCorrect class: " + testExample.getCategory() + ", Predicted class: " + predictedClass  + "\n");
+	    out.println("\nCorrect class: " + testExample.getCategory() + ", Predicted class: " + predictedClass  + "\n");
 	}
 	return (predictedClass == testExample.getCategory());
     }
@@ -149,21 +157,23 @@ public class NaiveBayes extends Classifier
 	}
 
 	if(debug) {
-	    System.out.println("\nLog Class Priors:"); 
+	    out.println("\nLog Class Priors:"); 
 	    for (int i=0; i<numCategories; i++) 
-		System.out.print(classCounts[i] + " ");
-	    System.out.println(); 
+		out.print(classCounts[i] + " ");
+	    out.println(); 
 	}
 	
 	return classCounts;
     }
 
-    /** Calculates the conditional probs of each feature in the different categories
+    /** Calculates the conditional probs of each feature in the different categories,
+     *   numbering the features and storing them in trainResult
      *   
      *   @param trainExamples  The training examples from which counts will be estimated
      */
-    protected Hashtable conditionalProbs(List trainExamples){
-	Hashtable featureHash = new Hashtable(); // all counts stored in this hashtable
+    protected void conditionalProbs(List trainExamples){
+	HashMap featureIds = new HashMap(); // maps each feature to its id
+	double[] counts = new double[1024 * numCategories]; // counts of feature id f in category c at f*numCategories+c
 	double[] totalCounts = new double[numCategories]; // stores total count of all features in each category
 
 	for (int i=0; i<numCategories; i++)
@@ -172,8 +182,8 @@ public class NaiveBayes extends Classifier
 	for(int i=0; i<numExamples; i++){ //for each example
 	    Example currentExample = (Example) trainExamples.get(i); //current example
 	    if (debug) {
-		System.out.println("\nExample " + i + ": " + currentExample);
-		System.out.println("Number of tokens: " + currentExample.getHashMapVector().hashMap.size());
+		out.println("\nExample " + i + ": " + currentExample);
+		out.println("Number of tokens: " + currentExample.getHashMapVector().hashMap.size());
 	    }
 	    Iterator mapEntries = currentExample.getHashMapVector().iterator();
 	    while (mapEntries.hasNext()) {
@@ -182,62 +192,67 @@ public class NaiveBayes extends Classifier
 		String token = (String)entry.getKey();
 		// The count for the token is in the value of the Weight
 		int count = (int)((Weight)entry.getValue()).getValue();
-		double[] countArray; // stores counts for current feature
 		if(debug) 
-		    System.out.println("Counts of token: " + token);
+		    out.println("Counts of token: " + token);
 		
-		if(!featureHash.containsKey(token)){
-		    countArray = new double[numCategories]; //create a new array
-		    for(int m=0; m<numCategories; m++) 
-			countArray[m]=0.0; //init to 0
-		    featureHash.put(token,countArray); //add to hashtable
+		Integer id = (Integer)featureIds.get(token);
+		if(id == null){
+		    id = new Integer(featureIds.size()); //number a new feature
+		    featureIds.put(token,id);
+		    if ((id.intValue() + 1) * numCategories > counts.length) {
+			double[] newCounts = new double[2 * counts.length];
+			System.arraycopy(counts, 0, newCounts, 0, counts.length);
+			counts = newCounts;
+		    }
 		}
-		else { 
-		    // retrieve existing array from hashtable
-		    countArray = (double[]) featureHash.get(token); 
-		}
-		
-		countArray[currentExample.getCategory()] += count;
+		int offset = id.intValue() * numCategories;
+		counts[offset + currentExample.getCategory()] += count;
 		totalCounts[currentExample.getCategory()] += count;
 
 		if (debug) {
-		    for (int k=0; k<countArray.length; k++) 
-			System.out.print(countArray[k] + " ");
-		    System.out.println(); 
+		    for (int k=0; k<numCategories; k++) 
+			out.print(counts[offset + k] + " ");
+		    out.println(); 
 		}
 	    }
 	}
 
-	numFeatures = featureHash.size();
+	numFeatures = featureIds.size();
 	
 	//We can now compute the log probabilities
 
-	Iterator iter = featureHash.keySet().iterator();
+	float[] featureProbs = new float[numFeatures * numCategories];
 	if (debug) {
-	    System.out.println("\nLog Probs before multiplying priors...\n");
+	    out.println("\nLog Probs before multiplying priors...\n");
 	}
-	while(iter.hasNext()) { //for each feature
-	    String token = (String) iter.next();
-	    double [] countArray = (double[]) featureHash.get(token);
+	for(int f=0; f<numFeatures; f++) { //for each feature
+	    int offset = f * numCategories;
 	    for(int j=0; j<numCategories; j++){
+		double prob;
 		if(isLaplace) //Laplace smoothing
-		    countArray[j] = (countArray[j]+1)/(totalCounts[j]+numFeatures);
+		    prob = (counts[offset + j]+1)/(totalCounts[j]+numFeatures);
 		else {
-		    if(countArray[j]==0)
-			countArray[j]=EPSILON; // to avoid 0 counts when no Laplace smoothing
+		    if(counts[offset + j]==0)
+			prob=EPSILON; // to avoid 0 counts when no Laplace smoothing
 		    else 
-			countArray[j] = countArray[j]/totalCounts[j];
+			prob = counts[offset + j]/totalCounts[j];
 		}
-		countArray[j] = Math.log(countArray[j]); //take log of probability
+		featureProbs[offset + j] = (float)Math.log(prob); //take log of probability
 	    }
-	    if(debug) {
-		System.out.println("Log probs of " + token);
-		for (int k=0; k< countArray.length; k++) 
-		    System.out.print(countArray[k] + " ");
-		System.out.println(); 
+	}
+	if(debug) {
+	    Iterator iter = featureIds.entrySet().iterator();
+	    while(iter.hasNext()) {
+		Map.Entry entry = (Map.Entry)iter.next();
+		int offset = ((Integer)entry.getValue()).intValue() * numCategories;
+		out.println("Log probs of " + entry.getKey());
+		for (int k=0; k<numCategories; k++) 
+		    out.print(featureProbs[offset + k] + " ");
+		out.println(); 
 	    }
 	}
-	return(featureHash);
+	trainResult.setFeatureIds(featureIds);
+	trainResult.setFeatureProbs(featureProbs);
     }
 
     /** Calculates the prob of the testExample being generated by each category
@@ -249,18 +264,19 @@ public class NaiveBayes extends Classifier
 	//set initial probabilities to the prior probs
 	double[] probs = (double[]) (trainResult.getClassPriors()).clone();
 
-	Hashtable hashTable = trainResult.getFeatureTable();
+	HashMap featureIds = trainResult.getFeatureIds();
+	float[] featureProbs = trainResult.getFeatureProbs();
 	Iterator mapEntries = testExample.getHashMapVector().iterator();
 	while (mapEntries.hasNext()) {
 	    Map.Entry entry = (Map.Entry)mapEntries.next();
 	    // An entry in the HashMap maps a token to a Weight
-	    String token = (String)entry.getKey();
-	    // The count for the token is in the value of the Weight
-	    int count = (int)((Weight)entry.getValue()).getValue();
-	    if(hashTable.containsKey(token)){//ignore unknowns
-		double [] countArray = (double[]) hashTable.get(token); // stores the category array for one token
+	    Integer id = (Integer)featureIds.get(entry.getKey());
+	    if(id != null){//ignore unknowns
+		// The count for the token is in the value of the Weight
+		int count = (int)((Weight)entry.getValue()).getValue();
+		int offset = id.intValue() * numCategories; // the probs of this token in each category
 		for(int k=0; k<numCategories; k++) 
-		    probs[k] += count * countArray[k];//multiplying the probs == adding the logs
+		    probs[k] += count * featureProbs[offset + k];//multiplying the probs == adding the logs
 	    }
 	}
 	return probs;
@@ -269,21 +285,22 @@ public class NaiveBayes extends Classifier
     /** Displays the probs for each feature in the different categories
      *   
      *   @param classPriors  Prior probs
-     *   @param featureHash  Feature hashtable after training
+     *   @param result  Training result holding the feature probs
      */
-    protected void displayProbs(double[] classPriors, Hashtable featureHash){
-	Iterator iter = featureHash.keySet().iterator();
-	System.out.println("\nAfter multiplying priors...");
+    protected void displayProbs(double[] classPriors, BayesResult result){
+	Iterator iter = result.getFeatureIds().entrySet().iterator();
+	float[] probs = result.getFeatureProbs();
+	out.println("\nAfter multiplying priors...");
 	while(iter.hasNext()) {
-	    String token = (String) iter.next();
-	    System.out.print("\nFeature: " + token + ", Probs: ");
-	    double[] probs = (double[]) featureHash.get(token);
-	    for (int num=0; num<probs.length; num++) {
-		//double posterior = classPriors[num]+probs[num];
-		double posterior = Math.pow(Math.E, classPriors[num]+probs[num]);
-		System.out.print(" " + posterior);
+	    Map.Entry entry = (Map.Entry)iter.next();
+	    out.print("\nFeature: " + entry.getKey() + ", Probs: ");
+	    int offset = ((Integer)entry.getValue()).intValue() * numCategories;
+	    for (int num=0; num<numCategories; num++) {
+		//double posterior = classPriors[num]+probs[offset+num];
+		double posterior = Math.pow(Math.E, classPriors[num]+probs[offset+num]);
+		out.print(" " + posterior);
 	    }
 	}
-	System.out.println();
+	out.println();
     }
 }
@@ -0,0 +1,205 @@
+package eduir.ir.classifiers;
+
+import java.util.*;
+import eduir.ir.vsr.*;
+import eduir.ir.utilities.*;
+
+/**
+ * Implements the Rocchio (centroid) classifier.  Training weights the
+ * tokens of each example by TF-IDF, normalizes it to unit length and sums
+ * the examples of each category into a prototype vector, which is also
+ * normalized.  A test example is assigned the category whose prototype has
+ * the largest cosine similarity to it.
+ *
+ * Tokens are numbered when training, and each prototype is stored as the
+ * increasing ids of its tokens with their weights, so testing looks up each
+ * token of the example once and then takes one sparse dot product, a merge
+ * of sorted ids, per category.  The length of the example is the same for
+ * every category, so it is not computed.
+ */
+
+public class Rocchio extends Classifier
+{
+    /** Name of classifier */
+    public static final String name = "Rocchio";
+
+    /** Number of categories */
+    protected int numCategories;
+
+    /** Map from each training token to its (Integer) id */
+    protected HashMap tokenIds;
+
+    /** The IDF of each token, by id */
+    protected float[] idfs;
+
+    /** The ids of the tokens in the prototype of each category, in increasing order */
+    protected int[][] prototypeIds;
+
+    /** The weights of the tokens in the prototype of each category */
+    protected float[][] prototypeWeights;
+
+    /** Flag for debug prints */
+    protected boolean debug = false;
+
+    /** Create a Rocchio classifier with these attributes
+     *
+     * @param categories  The array of Strings containing the category names
+     * @param debug  Flag to turn on detailed output
+     */
+    public Rocchio(String[] categories, boolean debug) {
+	this.categories = categories;
+	this.debug = debug;
+	numCategories = categories.length;
+    }
+
+    /** Returns a new untrained classifier with the same settings */
+    public Classifier copy() {
+	return new Rocchio(categories, debug);
+    }
+
+    /** Sets the debug flag */
+    public void setDebug(boolean bool) {
+	debug = bool;
+    }
+
+    /** Returns the name */
+    public String getName() {
+	return name;
+    }
+
+    /** Trains the classifier by computing the normalized prototype of each category
+     *
+     * @param trainExamples  The list of training examples
+     */
+    public void train(List trainExamples) {
+	// Number the tokens and count the examples containing each
+	tokenIds = new HashMap();
+	int[] df = new int[1024];
+	for(int i = 0; i < trainExamples.size(); i++) {
+	    Iterator tokens = ((Example)trainExamples.get(i)).getHashMapVector().hashMap.keySet().iterator();
+	    while (tokens.hasNext()) {
+		String token = (String)tokens.next();
+		Integer id = (Integer)tokenIds.get(token);
+		if (id == null) {
+		    id = new Integer(tokenIds.size());
+		    tokenIds.put(token, id);
+		    if (id.intValue() == df.length) {
+			int[] newDf = new int[2 * df.length];
+			System.arraycopy(df, 0, newDf, 0, df.length);
+			df = newDf;
+		    }
+		}
+		df[id.intValue()]++;
+	    }
+	}
+	int numFeatures = tokenIds.size();
+	idfs = new float[numFeatures];
+	for(int id = 0; id < numFeatures; id++)
+	    idfs[id] = (float)Math.log((double)trainExamples.size() / df[id]);
+	// Sum the normalized TF-IDF vectors of the examples of each category
+	double[][] sums = new double[numCategories][numFeatures];
+	for(int i = 0; i < trainExamples.size(); i++) {
+	    Example example = (Example)trainExamples.get(i);
+	    long[] vector = weightedIds(example.getHashMapVector());
+	    double length = 0.0;
+	    for(int j = 0; j < vector.length; j++) {
+		double weight = Float.intBitsToFloat((int)vector[j]);
+		length = length + weight * weight;
+	    }
+	    if (length == 0.0)
+		continue;
+	    length = Math.sqrt(length);
+	    double[] sum = sums[example.getCategory()];
+	    for(int j = 0; j < vector.length; j++)
+		sum[(int)(vector[j] >>> 32)] += Float.intBitsToFloat((int)vector[j]) / length;
+	}
+	// Keep the non-zero weights of each normalized prototype
+	prototypeIds = new int[numCategories][];
+	prototypeWeights = new float[numCategories][];
+	for(int c = 0; c < numCategories; c++) {
+	    double[] sum = sums[c];
+	    double length = 0.0;
+	    int numNonZero = 0;
+	    for(int id = 0; id < numFeatures; id++) {
+		if (sum[id] != 0.0) {
+		    length = length + sum[id] * sum[id];
+		    numNonZero++;
+		}
+	    }
+	    length = Math.sqrt(length);
+	    prototypeIds[c] = new int[numNonZero];
+	    prototypeWeights[c] = new float[numNonZero];
+	    for(int id = 0, n = 0; id < numFeatures; id++) {
+		if (sum[id] != 0.0) {
+		    prototypeIds[c][n] = id;
+		    prototypeWeights[c][n++] = (float)(sum[id] / length);
+		}
+	    }
+	    if (debug)
+		out.println("Prototype of " + categories[c] + ": " + numNonZero + " tokens");
+	}
+    }
+
+    /** Return the TF-IDF weights of the training tokens of a vector in
+     * increasing order of id, each as the id in the high 32 bits and the
+     * float bits of the weight in the low 32 bits */
+    protected long[] weightedIds(HashMapVector vector) {
+	long[] weighted = new long[vector.size()];
+	int n = 0;
+	Iterator mapEntries = vector.iterator();
+	while (mapEntries.hasNext()) {
+	    Map.Entry entry = (Map.Entry)mapEntries.next();
+	    Integer id = (Integer)tokenIds.get(entry.getKey());
+	    if (id == null || idfs[id.intValue()] == 0.0f)
+		continue;
+	    float weight = (float)(((Weight)entry.getValue()).getValue() * idfs[id.intValue()]);
+	    weighted[n++] = ((long)id.intValue() << 32) | (Float.floatToIntBits(weight) & 0xffffffffL);
+	}
+	if (n < weighted.length) {
+	    long[] trimmed = new long[n];
+	    System.arraycopy(weighted, 0, trimmed, 0, n);
+	    weighted = trimmed;
+	}
+	Arrays.sort(weighted);
+	return weighted;
+    }
+
+    /** Return the dot product of a vector from weightedIds with the prototype of a category */
+    protected double similarity(long[] vector, int category) {
+	int[] ids = prototypeIds[category];
+	float[] weights = prototypeWeights[category];
+	double dot = 0.0;
+	int i = 0, j = 0;
+	while (i < vector.length && j < ids.length) {
+	    int id = (int)(vector[i] >>> 32);
+	    if (id < ids[j])
+		i++;
+	    else if (id > ids[j])
+		j++;
+	    else
+		dot = dot + Float.intBitsToFloat((int)vector[i++]) * weights[j++];
+	}
+	return dot;
+    }
+
+    /** Categorizes the test example by the most similar prototype, returning
+     * true if the predicted category is the actual category
+     *
+     * @param testExample  The test example to be categorized
+     */
+    public boolean test(Example testExample) {
+	long[] vector = weightedIds(testExample.getHashMapVector());
+	double[] similarities = new double[numCategories];
+	for(int c = 0; c < numCategories; c++)
+	    similarities[c] = similarity(vector, c);
+	int predictedClass = argMax(similarities);
+	if (debug) {
+	    out.print("Document: " + testExample.getName() + "\nSimilarities: ");
+	    for (int j = 0; j < numCategories; j++)
+		out.print(categories[j] + "(" + similarities[j] + ")\t");
+	    out.println("\nCorrect class: " + testExample.getCategory() + ", Predicted class: " +
+			       predictedClass + "\n");
+	}
+	return (predictedClass == testExample.getCategory());
+    }
+}
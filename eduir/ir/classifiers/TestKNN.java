@@ -0,0 +1,45 @@
+package eduir.ir.classifiers;
+
+import java.util.*;
+
+/**
+ * Wrapper class to test the KNN classifier using 10-fold CV.
+ * Running it with -debug option gives very detailed output
+ */
+
+public class TestKNN {
+    /** A driver method for testing the KNN classifier using
+    * 10-fold cross validation.
+    * @param args a list of command-line arguments: "[-debug] [-k K] [-threads N] LANGUAGE".
+    * Specifying "-debug" will provide detailed output, "-k K" sets the
+    * number of neighbors (default 5) and "-threads N" runs the folds on N
+    * threads (default 1)
+    */
+    public static void main(String args[]) throws Exception
+    {
+	String dirName = "/u/mooney/ir-code/corpora/yahoo-science/";
+	String[] categories = {"bio","chem","phys"};
+	String language = args[args.length - 1];
+	boolean debug = false;
+	int k = KNN.DEFAULT_K;
+	int numThreads = 1;
+	for (int i = 0; i < args.length - 1; i++) {
+	    // setting debug flag gives very detailed output, suitable for debugging
+	    if (args[i].equals("-debug"))
+		debug = true;
+	    else if (args[i].equals("-k"))
+		k = Integer.parseInt(args[++i]);
+	    else if (args[i].equals("-threads"))
+		numThreads = Integer.parseInt(args[++i]);
+	}
+	System.out.println("Loading Examples from " + dirName + "...");
+	List examples = new DirectoryExamplesConstructor(dirName, categories, language).getExamples();
+	System.out.println("Initializing KNN classifier...");
+	KNN knn = new KNN(categories, k, debug);
+
+	// Perform 10-fold cross validation to generate learning curve
+	CVLearningCurve cvCurve = new CVLearningCurve(knn, examples);
+	cvCurve.setNumThreads(numThreads);
+	cvCurve.run();
+    }
+}
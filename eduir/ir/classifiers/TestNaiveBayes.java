@@ -12,28 +12,32 @@ import java.util.*;
 public class TestNaiveBayes {
     /** A driver method for testing the NaiveBayes classifier using
     * 10-fold cross validation.  
-    * @param args a list of command-line arguments.  Specifying "-debug"
-    * will provide detailed output
+    * @param args a list of command-line arguments: "[-debug] [-threads N] LANGUAGE".
+    * Specifying "-debug" will provide detailed output and "-threads N" runs
+    * the folds on N threads (default 1)
     */
     public static void main(String args[]) throws Exception
     {
 	String dirName = "/u/mooney/ir-code/corpora/yahoo-science/";
 	String[] categories = {"bio","chem","phys"};
-	String language = args[1];
+	String language = args[args.length - 1];
+	boolean debug = false;
+	int numThreads = 1;
+	for (int i = 0; i < args.length - 1; i++) {
+	    // setting debug flag gives very detailed output, suitable for debugging
+	    if (args[i].equals("-debug"))
+		debug = true;
+	    else if (args[i].equals("-threads"))
+		numThreads = Integer.parseInt(args[++i]);
+	}
 	System.out.println("Loading Examples from " + dirName + "...");
 	List examples = new DirectoryExamplesConstructor(dirName, categories, language).getExamples();
 	System.out.println("Initializing Naive Bayes classifier...");
-	NaiveBayes BC;
-	boolean debug;
-	// setting debug flag gives very detailed output, suitable for debugging
-	if (args.length==2 && args[0].equals("-debug"))
-	    debug = true;
-	else
-	    debug = false;
-	BC = new NaiveBayes(categories, debug);
+	NaiveBayes BC = new NaiveBayes(categories, debug);
 
 	// Perform 10-fold cross validation to generate learning curve
 	CVLearningCurve cvCurve = new CVLearningCurve(BC,examples);
+	cvCurve.setNumThreads(numThreads);
 	cvCurve.run();
     }
 }
@@ -0,0 +1,473 @@
+package eduir.ir.clustering;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import eduir.ir.vsr.*;
+import eduir.ir.utilities.*;
+
+/**
+ * Spherical k-means clustering of documents: documents are TF-IDF vectors
+ * normalized to unit length, each cluster has a unit-length centroid, and
+ * every document is assigned to the centroid with the largest cosine
+ * similarity to it, alternating with recomputing each centroid as the
+ * normalized sum of its documents until no assignment changes.
+ *
+ * Documents are stored together as sparse arrays of token ids and weights,
+ * and centroids as dense arrays, so the similarity of a document to a
+ * centroid costs one array lookup per token of the document.  Since all
+ * vectors have unit length, the distance between a document and a centroid
+ * is sqrt(2 - 2 cos), and Hamerly's bounds avoid most similarity
+ * computations: each document keeps an upper bound on its distance to its
+ * own centroid and a lower bound on its distance to any other, both
+ * corrected by how far centroids moved, and is only compared to every
+ * centroid when the bounds, or half the distance from its centroid to the
+ * nearest other centroid, cannot show that its assignment is unchanged.
+ * Assignment is split among a pool of threads, each handling a range of
+ * documents.
+ */
+
+public class SphericalKMeans {
+
+    /** The default maximum number of iterations */
+    public static final int DEFAULT_MAX_ITERATIONS = 50;
+    /** The default number of clusters */
+    public static final int DEFAULT_K = 10;
+
+    /** The documents clustered */
+    public DocumentReference[] docRefs;
+
+    /** The tokens of the documents, by token id */
+    public String[] tokens;
+
+    /** The offset in termIds and weights of the tokens of each document,
+     * followed by the total number of tokens */
+    protected int[] starts;
+
+    /** The token ids of each document in turn */
+    protected int[] termIds;
+
+    /** The weights of the tokens of each document in turn, normalized so
+     * that each document has unit length */
+    protected float[] weights;
+
+    /** The unit-length centroid of each cluster, indexed by token id */
+    public float[][] centroids;
+
+    /** The ids of the non-zero tokens of each centroid, in increasing order */
+    int[][] supports;
+
+    /** The buffer the next centroids are summed in, holding the centroids
+     * before the current ones, and the ids of their non-zero tokens.  The two
+     * buffers are swapped each iteration and a buffer is cleared only at the
+     * tokens it holds, so no k by vocabulary array is allocated per update. */
+    float[][] next;
+    int[][] nextSupports;
+
+    /** The cluster of each document */
+    public int[] assignments;
+
+    /** The number of iterations of the last call to cluster */
+    public int iterations = 0;
+
+    /** The number of document-centroid similarities computed by the last call
+     * to cluster, and the number a naive implementation would compute */
+    public long similarities = 0, naiveSimilarities = 0;
+
+    /** Upper bound on the distance of each document to its centroid */
+    double[] upper;
+    /** Lower bound on the distance of each document to any other centroid */
+    double[] lower;
+    /** Half the distance from each centroid to the nearest other centroid */
+    double[] halfGap;
+
+    /** Prepare to cluster these documents of an index, getting the vector of
+     * each with InvertedIndex.documentVector (so a ForwardIndex avoids
+     * reading the documents) and weighting its tokens by their IDF. */
+    public SphericalKMeans(InvertedIndex index, List documents) {
+	docRefs = (DocumentReference[])documents.toArray(new DocumentReference[documents.size()]);
+	HashMap tokenIds = new HashMap();
+	ArrayList tokenList = new ArrayList();
+	starts = new int[docRefs.length + 1];
+	termIds = new int[1024];
+	weights = new float[1024];
+	int size = 0;
+	for(int d = 0; d < docRefs.length; d++) {
+	    starts[d] = size;
+	    HashMapVector vector = index.documentVector(docRefs[d]);
+	    double length = 0.0;
+	    Iterator mapEntries = vector.iterator();
+	    while (mapEntries.hasNext()) {
+		Map.Entry entry = (Map.Entry)mapEntries.next();
+		String token = (String)entry.getKey();
+		double weight = index.idf(token) * ((Weight)entry.getValue()).getValue();
+		if (weight == 0.0)
+		    continue;
+		Integer id = (Integer)tokenIds.get(token);
+		if (id == null) {
+		    id = new Integer(tokenList.size());
+		    tokenIds.put(token, id);
+		    tokenList.add(token);
+		}
+		if (size == termIds.length) {
+		    int[] newTermIds = new int[2 * size];
+		    System.arraycopy(termIds, 0, newTermIds, 0, size);
+		    termIds = newTermIds;
+		    float[] newWeights = new float[2 * size];
+		    System.arraycopy(weights, 0, newWeights, 0, size);
+		    weights = newWeights;
+		}
+		termIds[size] = id.intValue();
+		weights[size] = (float)weight;
+		length = length + weight * weight;
+		size++;
+	    }
+	    // Normalize the document to unit length
+	    length = Math.sqrt(length);
+	    for(int p = starts[d]; p < size; p++)
+		weights[p] = (float)(weights[p] / length);
+	}
+	starts[docRefs.length] = size;
+	tokens = (String[])tokenList.toArray(new String[tokenList.size()]);
+    }
+
+    /** Prepare to cluster every document of an index */
+    public SphericalKMeans(InvertedIndex index) {
+	this(index, index.docRefs);
+    }
+
+    /** Return the cosine similarity of a document to a centroid */
+    double similarity(int doc, float[] centroid) {
+	double dot = 0.0;
+	for(int p = starts[doc]; p < starts[doc + 1]; p++)
+	    dot = dot + weights[p] * centroid[termIds[p]];
+	return dot;
+    }
+
+    /** Return the distance between unit vectors with this cosine similarity */
+    static double distance(double similarity) {
+	return Math.sqrt(Math.max(0.0, 2.0 - 2.0 * similarity));
+    }
+
+    /** Cluster the documents, returning the cluster of each document.
+     * @param k The number of clusters.
+     * @param maxIterations The maximum number of iterations.
+     * @param numThreads The number of threads assigning documents.
+     * @param seed The seed of the random choice of initial centroids.
+     */
+    public int[] cluster(int k, int maxIterations, int numThreads, long seed) {
+	int numDocs = docRefs.length;
+	k = Math.min(k, numDocs);
+	initialize(k, seed);
+	assignments = new int[numDocs];
+	upper = new double[numDocs];
+	lower = new double[numDocs];
+	Arrays.fill(upper, Double.POSITIVE_INFINITY);
+	halfGap = new double[k];
+	similarities = 0;
+	naiveSimilarities = 0;
+	ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+	try {
+	    for(iterations = 1; iterations <= maxIterations; iterations++) {
+		int changes = assign(executor, numThreads);
+		naiveSimilarities = naiveSimilarities + (long)numDocs * k;
+		if (changes == 0 && iterations > 1)
+		    break;
+		updateCentroids();
+	    }
+	}
+	finally {
+	    executor.shutdown();
+	}
+	iterations = Math.min(iterations, maxIterations);
+	return assignments;
+    }
+
+    /** Use k distinct documents chosen at random as the initial centroids */
+    void initialize(int k, long seed) {
+	Random random = new Random(seed);
+	centroids = new float[k][tokens.length];
+	int[] order = new int[docRefs.length];
+	for(int d = 0; d < order.length; d++)
+	    order[d] = d;
+	for(int j = 0; j < k; j++) {
+	    // Partial Fisher-Yates shuffle
+	    int pick = j + random.nextInt(order.length - j);
+	    int doc = order[pick];
+	    order[pick] = order[j];
+	    order[j] = doc;
+	    for(int p = starts[doc]; p < starts[doc + 1]; p++)
+		centroids[j][termIds[p]] = weights[p];
+	}
+	supports = new int[k][];
+	next = new float[k][tokens.length];
+	nextSupports = new int[k][];
+	for(int j = 0; j < k; j++) {
+	    supports[j] = support(centroids[j]);
+	    nextSupports[j] = new int[0];
+	}
+    }
+
+    /** Assign every document to its most similar centroid in parallel,
+     * returning the number of documents that changed cluster */
+    int assign(ExecutorService executor, int numThreads) {
+	int numDocs = docRefs.length;
+	ArrayList tasks = new ArrayList();
+	int chunk = (numDocs + numThreads - 1) / numThreads;
+	for(int from = 0; from < numDocs; from = from + chunk) {
+	    final int start = from, end = Math.min(numDocs, from + chunk);
+	    tasks.add(new Callable() {
+		    public Object call() {
+			return assignRange(start, end);
+		    }
+		});
+	}
+	int changes = 0;
+	try {
+	    List results = executor.invokeAll(tasks);
+	    for(int i = 0; i < results.size(); i++) {
+		long[] counts = (long[])((Future)results.get(i)).get();
+		changes = changes + (int)counts[0];
+		similarities = similarities + counts[1];
+	    }
+	}
+	catch (InterruptedException e) {
+	    throw new RuntimeException(e);
+	}
+	catch (ExecutionException e) {
+	    throw new RuntimeException(e.getCause());
+	}
+	return changes;
+    }
+
+    /** Assign the documents from start up to end, returning the number that
+     * changed cluster and the number of similarities computed */
+    long[] assignRange(int start, int end) {
+	long changes = 0, computed = 0;
+	int k = centroids.length;
+	for(int d = start; d < end; d++) {
+	    int assigned = assignments[d];
+	    double bound = Math.max(halfGap[assigned], lower[d]);
+	    if (upper[d] <= bound)
+		continue;
+	    // Tighten the upper bound and check again
+	    upper[d] = distance(similarity(d, centroids[assigned]));
+	    computed++;
+	    if (upper[d] <= bound)
+		continue;
+	    // Compare to every centroid
+	    double best = Double.POSITIVE_INFINITY, second = Double.POSITIVE_INFINITY;
+	    int bestCluster = assigned;
+	    for(int j = 0; j < k; j++) {
+		double distance = (j == assigned) ? upper[d] : distance(similarity(d, centroids[j]));
+		if (j != assigned)
+		    computed++;
+		if (distance < best) {
+		    second = best;
+		    best = distance;
+		    bestCluster = j;
+		}
+		else if (distance < second)
+		    second = distance;
+	    }
+	    if (bestCluster != assigned) {
+		assignments[d] = bestCluster;
+		changes++;
+	    }
+	    upper[d] = best;
+	    lower[d] = second;
+	}
+	return new long[] {changes, computed};
+    }
+
+    /** Recompute each centroid as the normalized sum of its documents, and
+     * correct the bounds of every document for how far centroids moved */
+    void updateCentroids() {
+	int k = centroids.length;
+	float[][] sums = next;
+	// Clear the buffer at the tokens of the centroids it held
+	for(int j = 0; j < k; j++) {
+	    for(int n = 0; n < nextSupports[j].length; n++)
+		sums[j][nextSupports[j][n]] = 0.0f;
+	}
+	for(int d = 0; d < docRefs.length; d++) {
+	    float[] sum = sums[assignments[d]];
+	    for(int p = starts[d]; p < starts[d + 1]; p++)
+		sum[termIds[p]] = sum[termIds[p]] + weights[p];
+	}
+	double[] moved = new double[k];
+	int[][] newSupports = new int[k][];
+	for(int j = 0; j < k; j++) {
+	    float[] sum = sums[j];
+	    double length = 0.0;
+	    int numNonZero = 0;
+	    for(int t = 0; t < sum.length; t++) {
+		if (sum[t] != 0.0f) {
+		    length = length + (double)sum[t] * sum[t];
+		    numNonZero++;
+		}
+	    }
+	    if (length == 0.0) {
+		// Keep the centroid of an empty cluster where it is
+		for(int n = 0; n < supports[j].length; n++)
+		    sum[supports[j][n]] = centroids[j][supports[j][n]];
+		newSupports[j] = supports[j];
+		continue;
+	    }
+	    length = Math.sqrt(length);
+	    int[] support = new int[numNonZero];
+	    double dot = 0.0;
+	    for(int t = 0, n = 0; t < sum.length; t++) {
+		if (sum[t] != 0.0f) {
+		    sum[t] = (float)(sum[t] / length);
+		    dot = dot + sum[t] * centroids[j][t];
+		    support[n++] = t;
+		}
+	    }
+	    newSupports[j] = support;
+	    moved[j] = distance(dot);
+	}
+	// Swap the buffers
+	next = centroids;
+	nextSupports = supports;
+	centroids = sums;
+	supports = newSupports;
+	// Half the distance from each centroid to its nearest neighbor
+	Arrays.fill(halfGap, Double.POSITIVE_INFINITY);
+	for(int j = 0; j < k; j++) {
+	    for(int j2 = j + 1; j2 < k; j2++) {
+		// Iterate over the smaller support
+		int[] support = (supports[j].length <= supports[j2].length) ? supports[j] : supports[j2];
+		float[] a = centroids[j], b = centroids[j2];
+		double dot = 0.0;
+		for(int n = 0; n < support.length; n++)
+		    dot = dot + a[support[n]] * b[support[n]];
+		double half = distance(dot) / 2;
+		halfGap[j] = Math.min(halfGap[j], half);
+		halfGap[j2] = Math.min(halfGap[j2], half);
+	    }
+	}
+	// The farthest and second farthest moving centroids
+	int farthest = 0;
+	for(int j = 1; j < k; j++) {
+	    if (moved[j] > moved[farthest])
+		farthest = j;
+	}
+	double secondMoved = 0.0;
+	for(int j = 0; j < k; j++) {
+	    if (j != farthest)
+		secondMoved = Math.max(secondMoved, moved[j]);
+	}
+	for(int d = 0; d < docRefs.length; d++) {
+	    int assigned = assignments[d];
+	    upper[d] = upper[d] + moved[assigned];
+	    // Another centroid can be closer by at most the farthest any other moved
+	    lower[d] = lower[d] - ((assigned == farthest) ? secondMoved : moved[farthest]);
+	}
+    }
+
+    /** Return the ids of the non-zero elements of a dense vector */
+    static int[] support(float[] vector) {
+	int numNonZero = 0;
+	for(int t = 0; t < vector.length; t++) {
+	    if (vector[t] != 0.0f)
+		numNonZero++;
+	}
+	int[] support = new int[numNonZero];
+	for(int t = 0, n = 0; t < vector.length; t++) {
+	    if (vector[t] != 0.0f)
+		support[n++] = t;
+	}
+	return support;
+    }
+
+    /** Return the average cosine similarity of the documents to their centroids */
+    public double averageSimilarity() {
+	double total = 0.0;
+	for(int d = 0; d < docRefs.length; d++)
+	    total = total + similarity(d, centroids[assignments[d]]);
+	return total / docRefs.length;
+    }
+
+    /** Return the number of documents in each cluster */
+    public int[] clusterSizes() {
+	int[] sizes = new int[centroids.length];
+	for(int d = 0; d < assignments.length; d++)
+	    sizes[assignments[d]]++;
+	return sizes;
+    }
+
+    /** Return the n tokens with the largest weights in a cluster centroid */
+    public String[] topTokens(int cluster, int n) {
+	final float[] centroid = centroids[cluster];
+	int[] support = support(centroid);
+	Integer[] order = new Integer[support.length];
+	for(int i = 0; i < support.length; i++)
+	    order[i] = new Integer(support[i]);
+	Arrays.sort(order, new Comparator() {
+		public int compare(Object o1, Object o2) {
+		    float w1 = centroid[((Integer)o1).intValue()], w2 = centroid[((Integer)o2).intValue()];
+		    return (w1 > w2) ? -1 : ((w1 < w2) ? 1 : 0);
+		}
+	    });
+	String[] top = new String[Math.min(n, order.length)];
+	for(int i = 0; i < top.length; i++)
+	    top[i] = tokens[order[i].intValue()];
+	return top;
+    }
+
+    /** Cluster the documents in a directory and describe the clusters.
+     * Command format: "SphericalKMeans [OPTION]* [DIR] [LANGUAGE]" where
+     * OPTIONs can be "-k K" for the number of clusters (default 10),
+     * "-threads T" for the number of threads (default the number of
+     * processors), "-iterations N" for the maximum number of iterations
+     * (default 50), "-seed S" for the random seed, "-html" for HTML files
+     * and "-stem" to stem tokens.
+     */
+    public static void main(String[] args) {
+	int k = DEFAULT_K, maxIterations = DEFAULT_MAX_ITERATIONS;
+	int numThreads = Runtime.getRuntime().availableProcessors();
+	long seed = 1;
+	short docType = DocumentIterator.TYPE_TEXT;
+	boolean stem = false;
+	for(int i = 0; i < args.length - 2; i++) {
+	    String flag = args[i];
+	    if (flag.equals("-k"))
+		k = Integer.parseInt(args[++i]);
+	    else if (flag.equals("-threads"))
+		numThreads = Integer.parseInt(args[++i]);
+	    else if (flag.equals("-iterations"))
+		maxIterations = Integer.parseInt(args[++i]);
+	    else if (flag.equals("-seed"))
+		seed = Long.parseLong(args[++i]);
+	    else if (flag.equals("-html"))
+		docType = DocumentIterator.TYPE_HTML;
+	    else if (flag.equals("-stem"))
+		stem = true;
+	    else {
+		System.out.println("\nUnknown flag: " + flag);
+		System.exit(1);
+	    }
+	}
+	InvertedIndex index = new InvertedIndex(new File(args[args.length - 2]), docType, stem, false,
+						args[args.length - 1]);
+	// Get document vectors from memory rather than reading the documents again
+	index.enableForwardIndex();
+	SphericalKMeans kMeans = new SphericalKMeans(index);
+	long start = System.currentTimeMillis();
+	kMeans.cluster(k, maxIterations, numThreads, seed);
+	long elapsed = System.currentTimeMillis() - start;
+	System.out.println("Clustered " + kMeans.docRefs.length + " documents into " + kMeans.centroids.length +
+			   " clusters in " + kMeans.iterations + " iterations (" + elapsed + " ms), computing " +
+			   kMeans.similarities + " of " + kMeans.naiveSimilarities + " similarities");
+	System.out.println("Average similarity to centroid: " + MoreMath.roundTo(kMeans.averageSimilarity(), 4));
+	int[] sizes = kMeans.clusterSizes();
+	for(int j = 0; j < sizes.length; j++) {
+	    String[] top = kMeans.topTokens(j, 8);
+	    StringBuffer line = new StringBuffer("Cluster " + j + " (" + sizes[j] + " documents):");
+	    for(int i = 0; i < top.length; i++)
+		line.append(" " + top[i]);
+	    System.out.println(line);
+	}
+    }
+}
@@ -110,39 +110,53 @@
       }	
    
     /* Process each query in the queryFile and store evaluated results
-     * in rpResults 
+     * in rpResults.  All queries are read first and then retrieved as one
+     * batch, so that the postings of tokens shared by several queries are
+     * only traversed once.
      */
               
       void processQueries() throws IOException {
               
          BufferedReader in = new BufferedReader(new FileReader(queryFile));
-         while(processQuery(in));
+      // The text of each query and the ArrayList of its relevant file names
+         ArrayList queries = new ArrayList();
+         ArrayList relevantLists = new ArrayList();
+         while(readQuery(in, queries, relevantLists));
          in.close();
+      // Get the ranked retrievals for all the queries
+         ArrayList queryVectors = new ArrayList();
+         for(int i = 0; i < queries.size(); i++)
+            queryVectors.add(index.queryVector((String)queries.get(i)));
+         Retrieval[][] allRetrievals = index.retrieveBatch(queryVectors, 0);
+         for(int i = 0; i < queries.size(); i++) {
+            System.out.println("\nQuery " + (rpResults.size() + 1) + ": " + queries.get(i));
+            Retrieval[] retrievals = allRetrievals[i];
+            System.out.println("Returned " + retrievals.length + " documents.");
+            ArrayList correctRetrievals = (ArrayList)relevantLists.get(i);
+            System.out.println(correctRetrievals.size() + " truly relevant documents.");
+         // Generate Recall/Precision points and save in rpResults
+            rpResults.add(evalRetrievals(retrievals, correctRetrievals));
+         }
       // System.out.println("\n" + rpResults);
       }
    
-    /* Process the next query read from the query file reader and evaluate
-     * results compared to known relevant docs also read from the query file.
+    /* Read the next query from the query file reader together with its known
+     * relevant docs, adding the query text to queries and the ArrayList of
+     * String's of relevant file names to relevantLists.
      * @return true if query succesfully read, else false if no more queries
      * in query file 
      */
               
-      boolean processQuery(BufferedReader in) throws IOException {
+      boolean readQuery(BufferedReader in, ArrayList queries, ArrayList relevantLists) throws IOException {
               
          String query = in.readLine();   // get the query
          if (query == null) 
             return false;  // return false if end of file
-         System.out.println("\nQuery " + (rpResults.size() + 1) + ": " + query);
-      // Process the query and get the ranked retrievals
-         Retrieval[] retrievals = index.retrieve(query);
-         System.out.println("Returned " + retrievals.length + " documents.");
+         queries.add(query);
       // Read the known relevant docs from query file and parse them
       // into an ArrayList of String's of relevant file names.
          String line = in.readLine();
-         ArrayList correctRetrievals = MoreString.segment(line,' ');
-         System.out.println(correctRetrievals.size() + " truly relevant documents.");
-      // Generate Recall/Precision points and save in rpResults
-         rpResults.add(evalRetrievals(retrievals, correctRetrievals));
+         relevantLists.add(MoreString.segment(line,' '));
       // Read the blank line delimiter between queries in the query file
          line = in.readLine();
          if (! (line == null || line.trim().equals(""))) {
@@ -0,0 +1,72 @@
+package eduir.ir.eval;
+
+import java.io.*;
+import eduir.ir.vsr.*;
+import eduir.ir.utilities.*;
+
+/** Measures the effect of static pruning (see StaticPruner) on the size of
+ * an index and on the quality of retrieval.  Generates recall/precision
+ * curves for a test corpus with the full index and with the pruned index,
+ * and reports the reduction in size and the change in interpolated
+ * precision at each standard recall level.
+ */
+
+public class PruningExperiment {
+
+    /** Evaluate static pruning on a given query test corpus.
+     * Command format: "PruningExperiment [-term K EPSILON | -document FRACTION] [-html] [-stem] [LANGUAGE] [DIR] [QUERIES] [OUTFILE]"
+     * where the pruning criterion and the other arguments are as for
+     * StaticPruner and Experiment.  The curve for the full index is written
+     * to OUTFILE and the curve for the pruned index to OUTFILE.pruned.
+     */
+    public static void main(String[] args) throws IOException {
+	String language = args[args.length - 4];
+	String corpusDir = args[args.length - 3];
+	String queryFile = args[args.length - 2];
+	String outFile = args[args.length - 1];
+	short docType = DocumentIterator.TYPE_TEXT;
+	boolean stem = false;
+	int criterion = -1;
+	for(int i = 0; i < args.length - 4; i++) {
+	    String flag = args[i];
+	    if (flag.equals("-term")) {
+		criterion = i;
+		i = i + 2;
+	    }
+	    else if (flag.equals("-document")) {
+		criterion = i;
+		i = i + 1;
+	    }
+	    else if (flag.equals("-html"))
+		docType = DocumentIterator.TYPE_HTML;
+	    else if (flag.equals("-stem"))
+		stem = true;
+	    else {
+		System.out.println("\nUnknown flag: " + flag);
+		System.exit(1);
+	    }
+	}
+	if (criterion < 0) {
+	    System.out.println("\nGive a pruning criterion: -term K EPSILON or -document FRACTION");
+	    System.exit(1);
+	}
+	InvertedIndex index = new InvertedIndex(new File(corpusDir), docType, stem, true, language);
+	InvertedIndex pruned = StaticPruner.prune(index, args, criterion);
+	Experiment full = new Experiment(index, new File(queryFile), new File(outFile));
+	full.makeRpCurve();
+	Experiment prunedExper = new Experiment(pruned, new File(queryFile), new File(outFile + ".pruned"));
+	prunedExper.makeRpCurve();
+	System.out.println("\nSize of pruned index:");
+	StaticPruner.printSizes(index, pruned);
+	System.out.println("\nInterpolated precision (full -> pruned):");
+	for(int i = 0; i < Experiment.RECALL_LEVELS.length; i++) {
+	    double before = full.averagePrecisions[i], after = prunedExper.averagePrecisions[i];
+	    System.out.println("Recall " + MoreString.padToLeft(Experiment.RECALL_LEVELS[i] + "", 4) + ": " +
+			       MoreMath.roundTo(100*before, 3) + "% -> " + MoreMath.roundTo(100*after, 3) + "% (" +
+			       (after >= before ? "+" : "") + MoreMath.roundTo(100*(after - before), 3) + ")");
+	}
+	double before = MoreMath.roundTo(100*Stats.mean(full.averagePrecisions), 3);
+	double after = MoreMath.roundTo(100*Stats.mean(prunedExper.averagePrecisions), 3);
+	System.out.println("Mean interpolated precision: " + before + "% -> " + after + "%");
+    }
+}
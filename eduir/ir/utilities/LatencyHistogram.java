@@ -0,0 +1,105 @@
+package eduir.ir.utilities;
+
+/** A histogram of latencies with buckets whose bounds grow by powers of 2
+ * from 1 microsecond, so a few dozen buckets cover everything from
+ * microseconds to minutes with a relative error of at most a factor of 2.
+ * Recording a latency takes constant time and memory, so it can be done
+ * for every request.  Safe for use by several threads.
+ */
+
+public class LatencyHistogram {
+
+    /** The number of buckets; the last one holds everything over about a minute */
+    public static final int NUM_BUCKETS = 28;
+
+    /** counts[i] is the number of latencies under 2^i microseconds but not under 2^(i-1) */
+    protected long[] counts = new long[NUM_BUCKETS];
+
+    /** The number of latencies recorded */
+    protected long count = 0;
+
+    /** The sum of the latencies recorded, in microseconds */
+    protected long totalMicros = 0;
+
+    /** The largest latency recorded, in microseconds */
+    protected long maxMicros = 0;
+
+    /** Record a latency given in nanoseconds */
+    public synchronized void record(long nanos) {
+	long micros = nanos / 1000;
+	counts[bucket(micros)]++;
+	count++;
+	totalMicros = totalMicros + micros;
+	if (micros > maxMicros)
+	    maxMicros = micros;
+    }
+
+    /** Return the bucket for a latency in microseconds */
+    static int bucket(long micros) {
+	int bucket = 0;
+	while (bucket < NUM_BUCKETS - 1 && micros >= (1L << bucket))
+	    bucket++;
+	return bucket;
+    }
+
+    /** Return the upper bound of a bucket in microseconds */
+    public static long bucketBound(int bucket) {
+	return 1L << bucket;
+    }
+
+    /** Return the number of latencies recorded */
+    public synchronized long count() {
+	return count;
+    }
+
+    /** Return the mean latency in microseconds */
+    public synchronized double meanMicros() {
+	return (count == 0) ? 0.0 : (double)totalMicros / count;
+    }
+
+    /** Return the largest latency in microseconds */
+    public synchronized long maxMicros() {
+	return maxMicros;
+    }
+
+    /** Return an upper bound on the given percentile (e.g. 99) of the latencies,
+     * in microseconds, or 0 if none have been recorded */
+    public synchronized long percentileMicros(double percentile) {
+	if (count == 0)
+	    return 0;
+	long rank = (long)Math.ceil(percentile / 100.0 * count);
+	long seen = 0;
+	for(int i = 0; i < NUM_BUCKETS; i++) {
+	    seen = seen + counts[i];
+	    if (seen >= rank)
+		return Math.min(bucketBound(i), maxMicros);
+	}
+	return maxMicros;
+    }
+
+    /** Return the histogram as a JSON object giving the count, mean, maximum
+     * and percentiles and the count of each non-empty bucket by its upper bound */
+    public synchronized String toJSON() {
+	StringBuffer json = new StringBuffer();
+	json.append("{\"count\":" + count + ",\"meanMicros\":" + (long)meanMicros() +
+		    ",\"maxMicros\":" + maxMicros + ",\"p50Micros\":" + percentileMicros(50) +
+		    ",\"p90Micros\":" + percentileMicros(90) + ",\"p99Micros\":" + percentileMicros(99) +
+		    ",\"buckets\":{");
+	boolean first = true;
+	for(int i = 0; i < NUM_BUCKETS; i++) {
+	    if (counts[i] == 0)
+		continue;
+	    if (!first)
+		json.append(",");
+	    json.append("\"" + (i == NUM_BUCKETS - 1 ? "inf" : "" + bucketBound(i)) + "\":" + counts[i]);
+	    first = false;
+	}
+	json.append("}}");
+	return json.toString();
+    }
+
+    public String toString() {
+	return "Latency: count=" + count() + " mean=" + (long)meanMicros() + "us p50=" +
+	    percentileMicros(50) + "us p99=" + percentileMicros(99) + "us max=" + maxMicros() + "us";
+    }
+}
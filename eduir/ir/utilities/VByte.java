@@ -0,0 +1,86 @@
+package eduir.ir.utilities;
+
+import java.io.*;
+
+/** Variable-byte compression of non-negative integers.  Each integer
+ * is stored 7 bits at a time, low-order bits first, with the high bit
+ * of a byte set on the last byte of the integer.  Small integers (such
+ * as the gaps between successive document numbers in a postings list)
+ * therefore take only a single byte.
+ */
+
+public class VByte {
+
+    /** Write a non-negative integer to the output stream */
+    public static void write(OutputStream out, int value) throws IOException {
+	while (value >= 128) {
+	    out.write(value & 127);
+	    value = value >>> 7;
+	}
+	// Mark the last byte of the integer with the high bit
+	out.write(value | 128);
+    }
+
+    /** Return the compressed bytes for an array of non-negative integers */
+    public static byte[] encode(int[] values) {
+	ByteArrayOutputStream out = new ByteArrayOutputStream(values.length + 4);
+	try {
+	    for(int i = 0; i < values.length; i++)
+		write(out, values[i]);
+	}
+	catch (IOException e) {
+	    // Cannot happen when writing to a byte array
+	}
+	return out.toByteArray();
+    }
+
+    /** Decode the given number of integers from the start of the compressed bytes */
+    public static int[] decode(byte[] bytes, int numValues) {
+	int[] values = new int[numValues];
+	int pos = 0;
+	for(int i = 0; i < numValues; i++) {
+	    int value = 0;
+	    int shift = 0;
+	    int b = bytes[pos++];
+	    // Accumulate 7 bits at a time until the marked last byte
+	    while ((b & 128) == 0) {
+		value = value | (b << shift);
+		shift = shift + 7;
+		b = bytes[pos++];
+	    }
+	    values[i] = value | ((b & 127) << shift);
+	}
+	return values;
+    }
+
+    /** Return the compressed bytes for an increasing array of integers stored
+     * as the gaps between successive values */
+    public static byte[] encodeGaps(int[] values) {
+	int[] gaps = new int[values.length];
+	int last = 0;
+	for(int i = 0; i < values.length; i++) {
+	    gaps[i] = values[i] - last;
+	    last = values[i];
+	}
+	return encode(gaps);
+    }
+
+    /** Decode an increasing array of integers stored by encodeGaps */
+    public static int[] decodeGaps(byte[] bytes, int numValues) {
+	int[] values = decode(bytes, numValues);
+	for(int i = 1; i < numValues; i++)
+	    values[i] = values[i] + values[i-1];
+	return values;
+    }
+
+    /** Test by encoding and decoding a few numbers */
+    public static void main(String[] args) {
+	int[] values = {0, 1, 127, 128, 16383, 16384, 1000000, Integer.MAX_VALUE};
+	byte[] bytes = encode(values);
+	System.out.println(values.length + " integers in " + bytes.length + " bytes");
+	int[] decoded = decode(bytes, values.length);
+	for(int i = 0; i < decoded.length; i++)
+	    System.out.print(decoded[i] + " ");
+	System.out.println();
+    }
+}
@@ -0,0 +1,398 @@
+package eduir.ir.vsr;
+
+import java.util.*;
+import eduir.ir.utilities.*;
+
+/** A Boolean query evaluated against an InvertedIndex.  Queries combine
+ * tokens with the operators AND, OR and NOT and parentheses, where AND
+ * binds more tightly than OR and tokens written next to each other are
+ * OR'ed together as in an ordinary ranked query.  A token or parenthesized
+ * group can also be marked as required with a "+" prefix or prohibited with
+ * a "-" prefix, which must be followed by a letter or "(" so that words
+ * like "-40" and a dash on its own are not operators; when a group has
+ * required parts, its other parts no longer have to match and only help
+ * ranking.  For example:
+ *   "java AND (compiler OR interpreter) AND NOT coffee"
+ *   "+java +compiler bytecode -coffee"
+ *
+ * Conjunctions are evaluated document-at-a-time starting from the shortest
+ * postings: each document of the rarest part is a candidate and the other
+ * parts skip forward to it using their skip pointers, so a conjunction costs
+ * time proportional to its shortest postings rather than its longest.  The
+ * matching documents are ranked by their cosine similarity to the tokens
+ * that are not negated, computed by skipping through the postings of those
+ * tokens to just the matching documents.
+ */
+
+public class BooleanQuery {
+
+    /** The index to search */
+    protected InvertedIndex index;
+
+    /** The words and operators of the query */
+    protected ArrayList words = new ArrayList();
+
+    /** The position of the next word to parse */
+    protected int position = 0;
+
+    /** A vector of the counts of the tokens that are not negated, used for ranking */
+    protected HashMapVector rankingVector = new HashMapVector();
+
+    /** Create a query for this input
+     * @param index The index to search.
+     * @param input The text of the query.
+     */
+    public BooleanQuery(InvertedIndex index, String input) {
+	this.index = index;
+	// Separate parentheses from the words they are attached to
+	StringTokenizer tokenizer = new StringTokenizer(input, " \t()", true);
+	while (tokenizer.hasMoreTokens()) {
+	    String word = tokenizer.nextToken();
+	    if (!word.trim().equals(""))
+		words.add(word);
+	}
+    }
+
+    /** Return true if the input uses any Boolean operators */
+    public static boolean isBoolean(String input) {
+	StringTokenizer tokenizer = new StringTokenizer(input, " \t");
+	while (tokenizer.hasMoreTokens()) {
+	    String word = tokenizer.nextToken();
+	    if (word.equals("AND") || word.equals("OR") || word.equals("NOT") ||
+		isPrefixed(word) || word.startsWith("("))
+		return true;
+	}
+	return false;
+    }
+
+    /** Return true if a word starts with a "+" or "-" operator, that is one
+     * followed by a letter or "(" */
+    protected static boolean isPrefixed(String word) {
+	return word.length() > 1 && (word.charAt(0) == '+' || word.charAt(0) == '-') &&
+	    (Character.isLetter(word.charAt(1)) || word.charAt(1) == '(');
+    }
+
+    /** Return the ranked retrievals of documents matching the query, or null
+     * if it has an unmatched ")" */
+    public Retrieval[] retrieve() {
+	position = 0;
+	Object result = parseSequence(false);
+	// The top level sequence only stops early at an unmatched ")"
+	if (position < words.size())
+	    return null;
+	if (result == null)
+	    return new Retrieval[0];
+	int[] docIds = toArray(result);
+	return rank(docIds);
+    }
+
+    // Parsing.  Each parse method returns the matching documents as either the
+    // TokenInfo of a single token or an increasing int[] of document ids, or
+    // null if the words did not contain any indexed token constraints.
+
+    /** Parse a sequence of clauses joined by OR (or nothing), stopping at a ")" */
+    protected Object parseSequence(boolean negated) {
+	ArrayList required = new ArrayList();
+	ArrayList optional = new ArrayList();
+	ArrayList prohibited = new ArrayList();
+	boolean onlyProhibited = true;
+	while (position < words.size() && !words.get(position).equals(")")) {
+	    if (words.get(position).equals("OR")) {
+		position++;
+		continue;
+	    }
+	    String word = (String)words.get(position);
+	    char prefix = word.charAt(0);
+	    if (isPrefixed(word)) {
+		// Strip the prefix from the word and parse the rest as a clause
+		words.set(position, word.substring(1));
+		Object clause = parseConjunction(negated || prefix == '-');
+		if (clause != null) {
+		    if (prefix == '+') {
+			required.add(clause);
+			onlyProhibited = false;
+		    }
+		    else
+			prohibited.add(clause);
+		}
+	    }
+	    else if ((prefix == '+' || prefix == '-') && word.length() == 1 &&
+		     position + 1 < words.size() && words.get(position + 1).equals("(")) {
+		// A prefix separated from a parenthesized group
+		position++;
+		Object clause = parseConjunction(negated || prefix == '-');
+		if (clause != null) {
+		    if (prefix == '+') {
+			required.add(clause);
+			onlyProhibited = false;
+		    }
+		    else
+			prohibited.add(clause);
+		}
+	    }
+	    else {
+		Object clause = parseConjunction(negated);
+		if (clause != null) {
+		    optional.add(clause);
+		    onlyProhibited = false;
+		}
+	    }
+	}
+	Object result;
+	if (!required.isEmpty())
+	    result = intersect(required, prohibited);
+	else if (!optional.isEmpty())
+	    result = subtract(union(optional), prohibited);
+	else if (onlyProhibited && !prohibited.isEmpty())
+	    result = subtract(allDocuments(), prohibited);
+	else
+	    result = null;
+	return result;
+    }
+
+    /** Parse factors joined by AND */
+    protected Object parseConjunction(boolean negated) {
+	ArrayList positive = new ArrayList();
+	ArrayList negative = new ArrayList();
+	parseFactor(negated, positive, negative);
+	while (position < words.size() && words.get(position).equals("AND")) {
+	    position++;
+	    parseFactor(negated, positive, negative);
+	}
+	if (positive.isEmpty() && negative.isEmpty())
+	    return null;
+	if (positive.isEmpty())
+	    return subtract(allDocuments(), negative);
+	return intersect(positive, negative);
+    }
+
+    /** Parse a token, a NOT, or a parenthesized sequence, adding its documents
+     * to the positive or negative list */
+    protected void parseFactor(boolean negated, ArrayList positive, ArrayList negative) {
+	if (position >= words.size())
+	    return;
+	String word = (String)words.get(position++);
+	if (word.equals("NOT")) {
+	    ArrayList subPositive = new ArrayList();
+	    ArrayList subNegative = new ArrayList();
+	    parseFactor(!negated, subPositive, subNegative);
+	    // NOT x puts x on the negative side, and NOT NOT x on the positive side
+	    negative.addAll(subPositive);
+	    positive.addAll(subNegative);
+	}
+	else if (word.equals("(")) {
+	    Object group = parseSequence(negated);
+	    if (position < words.size() && words.get(position).equals(")"))
+		position++;
+	    if (group != null)
+		positive.add(group);
+	}
+	else if (word.equals(")")) {
+	    // An unmatched ")", leave it for the enclosing sequence
+	    position--;
+	}
+	else {
+	    Document doc = new TextStringDocument(word, index.stem, index.language);
+	    // Stopwords produce no tokens and impose no constraint
+	    while (doc.hasMoreTokens()) {
+		String token = doc.nextToken();
+		TokenInfo tokenInfo = index.getTokenInfo(token);
+		if (!negated)
+		    rankingVector.increment(token);
+		// A token that is not indexed matches no documents
+		positive.add(tokenInfo == null ? (Object)new int[0] : tokenInfo);
+	    }
+	}
+    }
+
+    // Set operations on TokenInfo's and increasing int[]'s of document ids
+
+    /** Return the number of documents in a set */
+    protected static int size(Object set) {
+	if (set instanceof TokenInfo)
+	    return ((TokenInfo)set).occList.size();
+	return ((int[])set).length;
+    }
+
+    /** Return the ith document id in a set */
+    protected static int docId(Object set, int i) {
+	if (set instanceof TokenInfo)
+	    return ((TokenOccurrence)((TokenInfo)set).occList.get(i)).docRef.id;
+	return ((int[])set)[i];
+    }
+
+    /** Return the index of the first document id at or after start that is at
+     * least docId, using skip pointers for postings and galloping for arrays */
+    protected static int skipTo(Object set, int start, int docId) {
+	if (set instanceof TokenInfo)
+	    return ((TokenInfo)set).skipTo(start, docId);
+	int[] ids = (int[])set;
+	// Gallop forward by doubling steps, then binary search the last step
+	int step = 1;
+	int low = start;
+	int high = start;
+	while (high < ids.length && ids[high] < docId) {
+	    low = high + 1;
+	    high = high + step;
+	    step = step * 2;
+	}
+	if (high > ids.length)
+	    high = ids.length;
+	while (low < high) {
+	    int middle = (low + high) / 2;
+	    if (ids[middle] < docId)
+		low = middle + 1;
+	    else
+		high = middle;
+	}
+	return low;
+    }
+
+    /** Return the document ids of a set as an increasing int[] */
+    protected static int[] toArray(Object set) {
+	if (set instanceof int[])
+	    return (int[])set;
+	int[] ids = new int[size(set)];
+	for(int i = 0; i < ids.length; i++)
+	    ids[i] = docId(set, i);
+	return ids;
+    }
+
+    /** Return all the documents in the index */
+    protected int[] allDocuments() {
+	int[] ids = new int[index.docRefs.size()];
+	for(int i = 0; i < ids.length; i++)
+	    ids[i] = i;
+	return ids;
+    }
+
+    /** Return the documents in every one of the sets in positive and none of the
+     * sets in negative.  Candidates come from the smallest positive set and every
+     * other set skips forward to them, from the next smallest set up. */
+    protected static int[] intersect(ArrayList positive, ArrayList negative) {
+	Object[] sets = positive.toArray();
+	Arrays.sort(sets, new Comparator() {
+		public int compare(Object o1, Object o2) {
+		    return size(o1) - size(o2);
+		}
+	    });
+	Object[] excluded = negative.toArray();
+	int[] cursors = new int[sets.length];
+	int[] excludedCursors = new int[excluded.length];
+	int[] result = new int[size(sets[0])];
+	int numResults = 0;
+	while (cursors[0] < size(sets[0])) {
+	    int candidate = docId(sets[0], cursors[0]);
+	    int next = candidate;
+	    for(int i = 1; i < sets.length && next == candidate; i++) {
+		cursors[i] = skipTo(sets[i], cursors[i], candidate);
+		// Once any set is exhausted no more documents can match
+		if (cursors[i] >= size(sets[i]))
+		    return trim(result, numResults);
+		next = docId(sets[i], cursors[i]);
+	    }
+	    if (next != candidate) {
+		// Skip the smallest set forward past documents missing from another set
+		cursors[0] = skipTo(sets[0], cursors[0], next);
+		continue;
+	    }
+	    boolean isExcluded = false;
+	    for(int i = 0; i < excluded.length && !isExcluded; i++) {
+		excludedCursors[i] = skipTo(excluded[i], excludedCursors[i], candidate);
+		isExcluded = excludedCursors[i] < size(excluded[i]) &&
+		    docId(excluded[i], excludedCursors[i]) == candidate;
+	    }
+	    if (!isExcluded)
+		result[numResults++] = candidate;
+	    cursors[0]++;
+	}
+	return trim(result, numResults);
+    }
+
+    /** Return the documents in any of the sets */
+    protected static int[] union(ArrayList sets) {
+	if (sets.size() == 1)
+	    return toArray(sets.get(0));
+	// Merge the sets through a priority queue of {docId, set number, position}
+	PriorityQueue queue = new PriorityQueue(sets.size(), new Comparator() {
+		public int compare(Object o1, Object o2) {
+		    return ((int[])o1)[0] - ((int[])o2)[0];
+		}
+	    });
+	int total = 0;
+	for(int i = 0; i < sets.size(); i++) {
+	    total = total + size(sets.get(i));
+	    if (size(sets.get(i)) > 0)
+		queue.add(new int[] {docId(sets.get(i), 0), i, 0});
+	}
+	int[] result = new int[total];
+	int numResults = 0;
+	while (!queue.isEmpty()) {
+	    int[] head = (int[])queue.poll();
+	    if (numResults == 0 || result[numResults - 1] != head[0])
+		result[numResults++] = head[0];
+	    Object set = sets.get(head[1]);
+	    if (++head[2] < size(set)) {
+		head[0] = docId(set, head[2]);
+		queue.add(head);
+	    }
+	}
+	return trim(result, numResults);
+    }
+
+    /** Return the documents in the set but in none of the excluded sets */
+    protected static int[] subtract(Object set, ArrayList excluded) {
+	ArrayList positive = new ArrayList();
+	positive.add(set);
+	return intersect(positive, excluded);
+    }
+
+    /** Return the first length elements of the array */
+    protected static int[] trim(int[] array, int length) {
+	if (array.length == length)
+	    return array;
+	int[] trimmed = new int[length];
+	System.arraycopy(array, 0, trimmed, 0, length);
+	return trimmed;
+    }
+
+    /** Rank the matching documents by their cosine similarity to the tokens
+     * of the query that are not negated */
+    protected Retrieval[] rank(int[] docIds) {
+	// Accumulate the dot product of each matching document with the query
+	double[] scores = new double[docIds.length];
+	double queryLength = 0.0;
+	Iterator mapEntries = rankingVector.iterator();
+	while (mapEntries.hasNext()) {
+	    Map.Entry entry = (Map.Entry)mapEntries.next();
+	    TokenInfo tokenInfo = index.getTokenInfo((String)entry.getKey());
+	    if (tokenInfo == null) {
+		queryLength = queryLength + index.missingTokenWeight((String)entry.getKey(),
+								     ((Weight)entry.getValue()).getValue());
+		continue;
+	    }
+	    double weight = tokenInfo.idf * ((Weight)entry.getValue()).getValue();
+	    queryLength = queryLength + weight * weight;
+	    // Skip through the postings to just the matching documents
+	    int cursor = 0;
+	    for(int i = 0; i < docIds.length; i++) {
+		cursor = tokenInfo.skipTo(cursor, docIds[i]);
+		if (cursor >= tokenInfo.occList.size())
+		    break;
+		TokenOccurrence occ = (TokenOccurrence)tokenInfo.occList.get(cursor);
+		if (occ.docRef.id == docIds[i])
+		    scores[i] = scores[i] + weight * tokenInfo.idf * occ.count;
+	    }
+	}
+	queryLength = Math.sqrt(queryLength);
+	Retrieval[] retrievals = new Retrieval[docIds.length];
+	for(int i = 0; i < docIds.length; i++) {
+	    DocumentReference docRef = (DocumentReference)index.docRefs.get(docIds[i]);
+	    // Documents matched only through negation have no similarity
+	    double score = (scores[i] == 0.0) ? 0.0 : scores[i] / (queryLength * docRef.length);
+	    retrievals[i] = new Retrieval(docRef, score);
+	}
+	Arrays.sort(retrievals);
+	return index.collapseDuplicates(retrievals);
+    }
+}
@@ -0,0 +1,442 @@
+package eduir.ir.vsr;
+
+import java.io.*;
+import java.util.*;
+import eduir.ir.utilities.*;
+
+/**
+ * An inverted index whose postings stay on disk and are read and decoded
+ * only for the tokens of a query.  Only the list of documents and the
+ * dictionary of tokens (with their IDF weights and the location of their
+ * postings) are kept in memory, the tokens in a compact TermDictionary.  Decoded postings of frequently queried
+ * tokens are kept in a PostingsCache.
+ *
+ * An index directory contains four files:
+ * "docs": the docType, stemming and language of the index followed by the
+ *   file name and vector length of each document,
+ * "terms": each token in sorted order with its IDF, document frequency and
+ *   the offset and number of bytes of its postings,
+ * "postings": for each token, the variable-byte compressed gaps between the
+ *   numbers of successive documents it occurs in and its count in each.
+ * "forward": the term vector of each document (see ForwardIndex), read
+ *   only if enableForwardIndex is called.
+ */
+
+public class DiskInvertedIndex extends InvertedIndex {
+
+    /** Name of the file with the document list */
+    public static final String DOCS_FILE = "docs";
+    /** Name of the file with the token dictionary */
+    public static final String TERMS_FILE = "terms";
+    /** Name of the file with the compressed postings */
+    public static final String POSTINGS_FILE = "postings";
+    /** Name of the file with the document vectors */
+    public static final String FORWARD_FILE = "forward";
+
+    /** The directory with the index files */
+    public File indexDir = null;
+
+    /** The sorted dictionary of indexed tokens */
+    protected TermDictionary dictionary = null;
+
+    /** The TermEntry of each token, indexed by its id in the dictionary */
+    protected TermEntry[] entries = null;
+
+    /** The file of compressed postings */
+    protected RandomAccessFile postingsFile = null;
+
+    /** The cache of decoded postings, or null if postings are always read from disk */
+    public PostingsCache postingsCache = null;
+
+    /** The location and statistics of the postings of one token */
+    static class TermEntry {
+	double idf;
+	int df;
+	long offset;
+	int numBytes;
+
+	TermEntry(double idf, int df, long offset, int numBytes) {
+	    this.idf = idf;
+	    this.df = df;
+	    this.offset = offset;
+	    this.numBytes = numBytes;
+	}
+    }
+
+    /** Open the index stored in this directory.
+     * @param indexDir The directory written by write().
+     * @param cacheBytes The memory budget for cached postings in bytes, or 0 for no cache.
+     */
+    public DiskInvertedIndex(File indexDir, long cacheBytes) throws IOException {
+	super();
+	this.indexDir = indexDir;
+	readDocuments(new File(indexDir, DOCS_FILE));
+	readDictionary(new File(indexDir, TERMS_FILE));
+	postingsFile = new RandomAccessFile(new File(indexDir, POSTINGS_FILE), "r");
+	if (cacheBytes > 0)
+	    postingsCache = new PostingsCache(cacheBytes);
+	System.out.println("Opened index in " + indexDir + " with " + docRefs.size() +
+			   " documents and " + size() + " unique terms.");
+    }
+
+    /** Read the document list and index settings */
+    protected void readDocuments(File file) throws IOException {
+	DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+	docType = in.readShort();
+	stem = in.readBoolean();
+	language = in.readUTF();
+	int numDocs = in.readInt();
+	for(int i = 0; i < numDocs; i++) {
+	    DocumentReference docRef = new DocumentReference(new File(in.readUTF()), in.readDouble());
+	    docRef.id = i;
+	    docRefs.add(docRef);
+	}
+	in.close();
+    }
+
+    /** Read the token dictionary, whose tokens must be in sorted order */
+    protected void readDictionary(File file) throws IOException {
+	DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+	int numTerms = in.readInt();
+	String[] tokens = new String[numTerms];
+	entries = new TermEntry[numTerms];
+	for(int i = 0; i < numTerms; i++) {
+	    tokens[i] = in.readUTF();
+	    entries[i] = new TermEntry(in.readDouble(), in.readInt(), in.readLong(), in.readInt());
+	    if (i > 0 && tokens[i - 1].compareTo(tokens[i]) >= 0) {
+		in.close();
+		throw new IOException("Tokens in " + file + " are not in sorted order");
+	    }
+	}
+	in.close();
+	dictionary = new TermDictionary(tokens);
+    }
+
+    /** Return the sorted dictionary of indexed tokens */
+    public TermDictionary termDictionary() {
+	return dictionary;
+    }
+
+    /** Return the postings for this token from the cache or else from disk */
+    protected TokenInfo getTokenInfo(String token) {
+	int id = dictionary.find(token);
+	if (id < 0)
+	    return null;
+	TermEntry entry = entries[id];
+	if (postingsCache != null) {
+	    TokenInfo tokenInfo = postingsCache.get(token);
+	    if (tokenInfo != null)
+		return tokenInfo;
+	}
+	TokenInfo tokenInfo = readPostings(entry);
+	if (postingsCache != null)
+	    postingsCache.put(token, tokenInfo, entry.numBytes);
+	return tokenInfo;
+    }
+
+    /** Read and decode the postings described by this dictionary entry,
+     * throwing a RuntimeException wrapping the IOException if they cannot
+     * be read, since this is called while answering a query */
+    protected TokenInfo readPostings(TermEntry entry) {
+	byte[] bytes = new byte[entry.numBytes];
+	try {
+	    synchronized(postingsFile) {
+		postingsFile.seek(entry.offset);
+		postingsFile.readFully(bytes);
+	    }
+	}
+	catch (IOException e) {
+	    throw new RuntimeException("Could not read postings file in " + indexDir, e);
+	}
+	// Postings alternate document number gaps and counts
+	int[] values = VByte.decode(bytes, 2 * entry.df);
+	TokenInfo tokenInfo = new TokenInfo();
+	tokenInfo.idf = entry.idf;
+	tokenInfo.occList.ensureCapacity(entry.df);
+	int docId = 0;
+	for(int i = 0; i < entry.df; i++) {
+	    docId = docId + values[2*i];
+	    tokenInfo.occList.add(new TokenOccurrence((DocumentReference)docRefs.get(docId), values[2*i + 1]));
+	}
+	tokenInfo.buildSkips();
+	return tokenInfo;
+    }
+
+    /** Score the query as usual, counting it for the postings cache metrics */
+    protected Retrieval[] rankRetrievals(HashMapVector vector, int k) {
+	if (postingsCache != null)
+	    postingsCache.recordQuery();
+	return super.rankRetrievals(vector, k);
+    }
+
+    /** Score the query within the budget, counting it for the postings cache metrics */
+    public SearchResult retrieve(HashMapVector vector, int k, QueryBudget budget) {
+	if (postingsCache != null)
+	    postingsCache.recordQuery();
+	return super.retrieve(vector, k, budget);
+    }
+
+    /** Score a batch of queries as usual, counting them for the postings cache metrics */
+    public Retrieval[][] retrieveBatch(List queryVectors, int k) {
+	if (postingsCache != null) {
+	    for(int i = 0; i < queryVectors.size(); i++)
+		postingsCache.recordQuery();
+	}
+	return super.retrieveBatch(queryVectors, k);
+    }
+
+    /** Return the IDF weight of a token from the dictionary, without reading its postings */
+    public double idf(String token) {
+	int id = dictionary.find(token);
+	return (id < 0) ? 0.0 : entries[id].idf;
+    }
+
+    /** Return the number of documents and the document frequency of each token
+     * from the dictionary, without reading any postings */
+    public TermStatistics termStatistics() {
+	TermStatistics statistics = new TermStatistics();
+	statistics.numDocs = docRefs.size();
+	String[] tokens = dictionary.terms(0, dictionary.size());
+	for(int i = 0; i < tokens.length; i++)
+	    statistics.addDf(tokens[i], entries[i].df);
+	return statistics;
+    }
+
+    /** Weight tokens by the IDF given by the statistics of a whole collection,
+     * reading each postings list once to recompute document lengths.  The
+     * postings on disk are unchanged; call writeDictionary() to save the new
+     * weights. */
+    public void applyStatistics(TermStatistics statistics) {
+	version++;
+	globalStatistics = statistics;
+	// Cached postings have the old IDF weights
+	if (postingsCache != null)
+	    postingsCache.clear();
+	for(int i = 0; i < docRefs.size(); i++)
+	    ((DocumentReference)docRefs.get(i)).length = 0.0;
+	String[] tokens = dictionary.terms(0, dictionary.size());
+	for(int t = 0; t < tokens.length; t++) {
+	    TermEntry termEntry = entries[t];
+	    termEntry.idf = statistics.idf(tokens[t]);
+	    if (termEntry.idf == 0.0)
+		continue;
+	    TokenInfo tokenInfo = readPostings(termEntry);
+	    for(int i = 0; i < tokenInfo.occList.size(); i++) {
+		TokenOccurrence occ = (TokenOccurrence)tokenInfo.occList.get(i);
+		occ.docRef.length = occ.docRef.length + Math.pow(termEntry.idf*occ.count, 2);
+	    }
+	}
+	for(int i = 0; i < docRefs.size(); i++) {
+	    DocumentReference docRef = (DocumentReference)docRefs.get(i);
+	    docRef.length = Math.sqrt(docRef.length);
+	}
+    }
+
+    /** Rewrite the document list and dictionary files with the current document
+     * lengths and IDF weights, leaving the postings file as it is */
+    public void writeDictionary() throws IOException {
+	DataOutputStream docsOut = new DataOutputStream(new BufferedOutputStream(
+	    new FileOutputStream(new File(indexDir, DOCS_FILE))));
+	docsOut.writeShort(docType);
+	docsOut.writeBoolean(stem);
+	docsOut.writeUTF(language);
+	docsOut.writeInt(docRefs.size());
+	for(int i = 0; i < docRefs.size(); i++) {
+	    DocumentReference docRef = (DocumentReference)docRefs.get(i);
+	    docsOut.writeUTF(docRef.file.getPath());
+	    docsOut.writeDouble(docRef.length);
+	}
+	docsOut.close();
+	DataOutputStream termsOut = new DataOutputStream(new BufferedOutputStream(
+	    new FileOutputStream(new File(indexDir, TERMS_FILE))));
+	String[] tokens = dictionary.terms(0, dictionary.size());
+	termsOut.writeInt(tokens.length);
+	for(int i = 0; i < tokens.length; i++) {
+	    TermEntry termEntry = entries[i];
+	    termsOut.writeUTF(tokens[i]);
+	    termsOut.writeDouble(termEntry.idf);
+	    termsOut.writeInt(termEntry.df);
+	    termsOut.writeLong(termEntry.offset);
+	    termsOut.writeInt(termEntry.numBytes);
+	}
+	termsOut.close();
+    }
+
+    /** Return the number of tokens indexed. */
+    public int size() {
+	return dictionary.size();
+    }
+
+    /** Answer queries interactively and then report the cache metrics */
+    public void processQueries() {
+	super.processQueries();
+	if (postingsCache != null)
+	    System.out.println(postingsCache);
+    }
+
+    /** Close the postings file */
+    public void close() throws IOException {
+	postingsFile.close();
+    }
+
+    /** Write an in-memory inverted index to this directory in the format
+     * read by DiskInvertedIndex. */
+    public static void write(InvertedIndex index, File indexDir) throws IOException {
+	indexDir.mkdirs();
+	// Write the document list with the settings needed to process queries
+	DataOutputStream docsOut = new DataOutputStream(new BufferedOutputStream(
+	    new FileOutputStream(new File(indexDir, DOCS_FILE))));
+	docsOut.writeShort(index.docType);
+	docsOut.writeBoolean(index.stem);
+	docsOut.writeUTF(index.language);
+	docsOut.writeInt(index.docRefs.size());
+	for(int i = 0; i < index.docRefs.size(); i++) {
+	    DocumentReference docRef = (DocumentReference)index.docRefs.get(i);
+	    docsOut.writeUTF(docRef.file.getPath());
+	    docsOut.writeDouble(docRef.length);
+	}
+	docsOut.close();
+	// Write the postings of each token, recording where they are in the dictionary
+	DataOutputStream termsOut = new DataOutputStream(new BufferedOutputStream(
+	    new FileOutputStream(new File(indexDir, TERMS_FILE))));
+	BufferedOutputStream postingsOut = new BufferedOutputStream(
+	    new FileOutputStream(new File(indexDir, POSTINGS_FILE)));
+	// Tokens are written in sorted order for the TermDictionary
+	String[] tokens = (String[])index.tokenHash.keySet().toArray(new String[index.tokenHash.size()]);
+	Arrays.sort(tokens);
+	termsOut.writeInt(tokens.length);
+	long offset = 0;
+	for(int i = 0; i < tokens.length; i++) {
+	    TokenInfo tokenInfo = (TokenInfo)index.tokenHash.get(tokens[i]);
+	    byte[] bytes = encodePostings(tokenInfo.occList);
+	    postingsOut.write(bytes);
+	    termsOut.writeUTF(tokens[i]);
+	    termsOut.writeDouble(tokenInfo.idf);
+	    termsOut.writeInt(tokenInfo.occList.size());
+	    termsOut.writeLong(offset);
+	    termsOut.writeInt(bytes.length);
+	    offset = offset + bytes.length;
+	}
+	termsOut.close();
+	postingsOut.close();
+	(new ForwardIndex(index)).write(new File(indexDir, FORWARD_FILE));
+    }
+
+    /** Read the document vectors of the index into memory for relevance
+     * feedback, if the index has them */
+    public void enableForwardIndex() {
+	File file = new File(indexDir, FORWARD_FILE);
+	if (!file.exists()) {
+	    System.out.println("No document vectors in " + indexDir + "; feedback will read documents");
+	    return;
+	}
+	try {
+	    forwardIndex = ForwardIndex.read(file, dictionary);
+	}
+	catch (IOException e) {
+	    System.out.println("Could not read document vectors: " + e);
+	}
+    }
+
+    /** Return the document vectors read by enableForwardIndex, or null */
+    public synchronized ForwardIndex forwardIndex() {
+	return forwardIndex;
+    }
+
+    /** Compress a list of TokenOccurrence's, which must be in increasing
+     * order of document id, as alternating document gaps and counts */
+    public static byte[] encodePostings(ArrayList occList) {
+	int[] values = new int[2 * occList.size()];
+	int lastId = 0;
+	for(int i = 0; i < occList.size(); i++) {
+	    TokenOccurrence occ = (TokenOccurrence)occList.get(i);
+	    values[2*i] = occ.docRef.id - lastId;
+	    values[2*i + 1] = occ.count;
+	    lastId = occ.docRef.id;
+	}
+	return VByte.encode(values);
+    }
+
+    /** Build or query an on-disk index.
+     * Command format: "DiskInvertedIndex -build [-html] [-stem] [DIR] [LANGUAGE] [INDEXDIR]"
+     * indexes the files in DIR and writes the index to INDEXDIR.
+     * Command format: "DiskInvertedIndex [-cache BYTES] [-feedback] [-forward] [-fuzzy] [-statistics FILE] [INDEXDIR]"
+     * interactively answers queries from the index in INDEXDIR, caching
+     * decoded postings in at most BYTES bytes of memory (default 32MB, 0 for none).
+     * If the index is part of a collection, FILE gives the TermStatistics that
+     * were applied to it, so scores match those of a single index.  With
+     * -fuzzy, query words that are not indexed match the tokens within a
+     * small edit distance of them (see InvertedIndex.queryVector).  With
+     * -forward, feedback uses the stored document vectors instead of
+     * reading documents.
+     */
+    public static void main(String[] args) {
+	try {
+	    run(args);
+	}
+	catch (IOException e) {
+	    System.out.println("\nCould not access index: " + e);
+	    System.exit(1);
+	}
+	catch (RuntimeException e) {
+	    System.out.println("\n" + e.getMessage() + ": " + e.getCause());
+	    System.exit(1);
+	}
+    }
+
+    /** Carry out the command of main() */
+    static void run(String[] args) throws IOException {
+	if (args[0].equals("-build")) {
+	    String dirName = args[args.length - 3];
+	    String language = args[args.length - 2];
+	    String indexDirName = args[args.length - 1];
+	    short docType = DocumentIterator.TYPE_TEXT;
+	    boolean stem = false;
+	    for(int i = 1; i < args.length - 3; i++) {
+		String flag = args[i];
+		if (flag.equals("-html"))
+		    docType = DocumentIterator.TYPE_HTML;
+		else if (flag.equals("-stem"))
+		    stem = true;
+		else {
+		    System.out.println("\nUnknown flag: " + flag);
+		    System.exit(1);
+		}
+	    }
+	    InvertedIndex index = new InvertedIndex(new File(dirName), docType, stem, false, language);
+	    write(index, new File(indexDirName));
+	    System.out.println("Wrote index to " + indexDirName);
+	    return;
+	}
+	String indexDirName = args[args.length - 1];
+	long cacheBytes = PostingsCache.DEFAULT_MAX_BYTES;
+	boolean feedback = false, fuzzy = false, forward = false;
+	String statisticsName = null;
+	for(int i = 0; i < args.length - 1; i++) {
+	    String flag = args[i];
+	    if (flag.equals("-cache"))
+		cacheBytes = Long.parseLong(args[++i]);
+	    else if (flag.equals("-statistics"))
+		statisticsName = args[++i];
+	    else if (flag.equals("-feedback"))
+		feedback = true;
+	    else if (flag.equals("-fuzzy"))
+		fuzzy = true;
+	    else if (flag.equals("-forward"))
+		forward = true;
+	    else {
+		System.out.println("\nUnknown flag: " + flag);
+		System.exit(1);
+	    }
+	}
+	DiskInvertedIndex index = new DiskInvertedIndex(new File(indexDirName), cacheBytes);
+	index.feedback = feedback;
+	index.fuzzy = fuzzy;
+	if (forward)
+	    index.enableForwardIndex();
+	if (statisticsName != null)
+	    index.globalStatistics = TermStatistics.read(new File(statisticsName));
+	index.processQueries();
+	index.close();
+    }
+}
@@ -33,8 +33,9 @@
     /** The number of stopwords in this file */
       protected static int numStopWords = 0;  
    
-    /** The hashtable where stopwords are indexed */
-      protected static HashSet stopWords = null;
+    /** The hashtable where stopwords are indexed, set only once it is filled
+     * so that documents created on several threads never see it partly loaded */
+      protected static volatile HashSet stopWords = null;
        
     /** The next token in the document */
       protected String nextToken = null;
@@ -98,13 +99,24 @@
          if (stopWords == null) {
          
             if (configuration.searchStopList(language)) {
-               stopWordsFile = configuration.getDirStopLists()+"/"+language+".stop";
-               countWords();
-               loadStopWords();
+               initStopWords(language);
             }
          }
       }
    
+    /** Load the stopwords for this language unless another thread already has. */
+   
+              
+      protected static synchronized void initStopWords(String language) {
+              
+      
+         if (stopWords == null) {
+            stopWordsFile = configuration.getDirStopLists()+"/"+language+".stop";
+            countWords();
+            loadStopWords();
+         }
+      }
+   
     /** Returns true if the document contains more tokens */
    
               
@@ -238,7 +250,7 @@
       // stopwords in the file and a default 75% load factor with
       // 10 extra slots for spare room.
          int HashMapSize = (int)(numStopWords/0.75 + 10);
-         stopWords = new HashSet(HashMapSize);
+         HashSet words = new HashSet(HashMapSize);
          String line;
          try {
          // Open stopword file for reading
@@ -247,9 +259,11 @@
             while ((line = in.readLine()) != null) {
             // Index word into the hashtable with 
             // the default empty string as a "dummy" value.
-               stopWords.add(line.toLowerCase());
+               words.add(line.toLowerCase());
             }
             in.close();
+         // Only publish the set once it is complete
+            stopWords = words;
          }
          
                     
@@ -282,6 +296,44 @@
          return vector;
       }
    
+    /** Returns a hashmap from each token in this document to an int[] of the
+     * positions at which it occurs, in increasing order.  Positions count the
+     * tokens remaining after stop-word removal, starting at 0, so the vector
+     * of token counts is given by the lengths of these arrays.
+     */
+   
+              
+      public HashMap positionMap () {
+              
+      
+         if (numTokens != 0)
+            return null;
+      // First collect an ArrayList of Integer positions for each token
+         HashMap positionLists = new HashMap();
+         int position = 0;
+         while (hasMoreTokens()) {
+            String token = nextToken();
+            ArrayList positions = (ArrayList)positionLists.get(token);
+            if (positions == null) {
+               positions = new ArrayList();
+               positionLists.put(token, positions);
+            }
+            positions.add(new Integer(position++));
+         }
+      // Then convert the lists to compact int arrays
+         HashMap positionMap = new HashMap();
+         Iterator mapEntries = positionLists.entrySet().iterator();
+         while (mapEntries.hasNext()) {
+            Map.Entry entry = (Map.Entry)mapEntries.next();
+            ArrayList positions = (ArrayList)entry.getValue();
+            int[] positionArray = new int[positions.size()];
+            for(int i = 0; i < positionArray.length; i++)
+               positionArray[i] = ((Integer)positions.get(i)).intValue();
+            positionMap.put(entry.getKey(), positionArray);
+         }
+         return positionMap;
+      }
+   
     /** Compute and print out (one line per term) the term-vector (bag of words) 
      * for this document 
      */
@@ -15,6 +15,8 @@ public class DocumentReference {
     public File file = null;
     /** The length of the corresponding Document vector. */
     public double length = 0.0;
+    /** The position of this document in the list of indexed documents, or -1 if not indexed. */
+    public int id = -1;
 
     public DocumentReference(File file, double length) {
 	this.file = file;
@@ -21,6 +21,12 @@ public class Feedback {
     public static double BETA = 1;
     /** A Rochio/Ide algorithm parameter */
     public static double GAMMA = 1;
+    /** The most tokens a revised query may have beyond those of the original
+     * query, or a negative number for no limit.  Every token of a query costs
+     * a pass over its postings, so only the added tokens with the largest
+     * weights times IDF are kept, to make a revised query about as fast as
+     * the original: common tokens have the longest postings and add least. */
+    public static int MAX_EXPANSION_TERMS = 10;
 
     /** The original query vector for this query */
     public HashMapVector queryVector;
@@ -82,7 +88,9 @@ public class Feedback {
 	    return false;
     }
 
-    /** Use the Ide_regular algorithm to compute a new revised query.
+    /** Use the Ide_regular algorithm to compute a new revised query.  Tokens
+     * whose weight is no longer positive are dropped, and at most
+     * MAX_EXPANSION_TERMS tokens not in the original query are added (see prune).
      * @return The revised query vector.
      */
     public HashMapVector newQuery() {
@@ -93,9 +101,7 @@ public class Feedback {
 	// Add in the vector for each of the positively rated documents
 	for(int i = 0; i < goodDocRefs.size(); i++) {
 	    // Get the document vector for this positive document
-	    Document doc = ((DocumentReference)goodDocRefs.get(i)).getDocument(invertedIndex.docType,
-									       invertedIndex.stem, invertedIndex.language);
-	    HashMapVector vector = doc.hashMapVector();
+	    HashMapVector vector = invertedIndex.documentVector((DocumentReference)goodDocRefs.get(i));
 	    // Multiply positive docs by beta and normalize by max token frequency
 	    vector.multiply(BETA/vector.maxWeight());
 	    // Add it to the new query vector
@@ -104,16 +110,55 @@ public class Feedback {
 	// Subtract the vector for each of the negatively rated documents
 	for(int i = 0; i < badDocRefs.size(); i++) {
 	    // Get the document vector for this negative document
-	    Document doc = ((DocumentReference)badDocRefs.get(i)).getDocument(invertedIndex.docType,
-									       invertedIndex.stem, invertedIndex.language);
-	    HashMapVector vector = doc.hashMapVector();
+	    HashMapVector vector = invertedIndex.documentVector((DocumentReference)badDocRefs.get(i));
 	    // Multiply negative docs by beta and normalize by max token frequency
 	    vector.multiply(GAMMA/vector.maxWeight());
 	    // Subtract it from the new query vector
 	    newQuery.subtract(vector);
 	}
+	prune(newQuery);
 	return newQuery;
     }
+
+    /** Destructively remove from a revised query every token whose weight is
+     * not positive, every added token with no IDF weight, and all but the
+     * MAX_EXPANSION_TERMS added tokens with the largest weight times IDF
+     * (breaking ties by token).  Positively weighted tokens of the original
+     * query are always kept. */
+    protected void prune(HashMapVector newQuery) {
+	ArrayList added = new ArrayList();
+	final HashMap scores = new HashMap();
+	Iterator mapEntries = newQuery.iterator();
+	while (mapEntries.hasNext()) {
+	    Map.Entry entry = (Map.Entry)mapEntries.next();
+	    String token = (String)entry.getKey();
+	    double weight = ((Weight)entry.getValue()).getValue();
+	    if (weight <= 0.0)
+		mapEntries.remove();
+	    else if (queryVector.getWeight(token) == 0.0) {
+		double idf = invertedIndex.idf(token);
+		if (idf == 0.0)
+		    mapEntries.remove();
+		else {
+		    added.add(token);
+		    scores.put(token, new Double(weight * idf));
+		}
+	    }
+	}
+	if (MAX_EXPANSION_TERMS < 0 || added.size() <= MAX_EXPANSION_TERMS)
+	    return;
+	Collections.sort(added, new Comparator() {
+		public int compare(Object o1, Object o2) {
+		    double s1 = ((Double)scores.get(o1)).doubleValue();
+		    double s2 = ((Double)scores.get(o2)).doubleValue();
+		    if (s1 != s2)
+			return (s1 > s2) ? -1 : 1;
+		    return ((String)o1).compareTo((String)o2);
+		}
+	    });
+	for(int i = MAX_EXPANSION_TERMS; i < added.size(); i++)
+	    newQuery.hashMap.remove(added.get(i));
+    }
 		
 
 }
@@ -0,0 +1,300 @@
+package eduir.ir.vsr;
+
+import java.io.*;
+import java.util.*;
+import eduir.ir.utilities.*;
+
+/**
+ * An inverted index of HTML documents that indexes the title, headings,
+ * anchor text and body of each page as separate fields.  Each field has
+ * its own postings, IDF factors and document vector lengths, and the
+ * score of a document is the weighted average of the cosine similarities
+ * of the query to each of its fields.  Queries can restrict a token to
+ * one field by prefixing it with the name of the field, as in
+ * "title:retrieval".  Each page is tokenized only once, producing the
+ * vectors of all its fields in the same pass.
+ *
+ * The postings of the whole page are also indexed as usual, so phrase,
+ * Boolean and relevance feedback queries work on the page as a whole.
+ */
+
+public class FieldedInvertedIndex extends InvertedIndex {
+
+    /** The default weight of each field when combining field scores, indexed
+     * by field number (see HTMLFileDocument.FIELD_TITLE etc.) */
+    public static final double[] DEFAULT_FIELD_WEIGHTS = {3.0, 2.0, 1.5, 1.0};
+
+    /** The weight of each field when combining field scores */
+    public double[] fieldWeights = (double[])DEFAULT_FIELD_WEIGHTS.clone();
+
+    /** For each field, a HashMap mapping each token in that field to its TokenInfo */
+    protected HashMap[] fieldHashes = new HashMap[HTMLFileDocument.NUM_FIELDS];
+
+    /** For each indexed document (by id), a double[] of the lengths of its field vectors */
+    protected ArrayList fieldLengths = new ArrayList();
+
+    /** Create a fielded inverted index of the HTML documents in a directory.
+     * @param dirFile The directory of files to index.
+     * @param stem Whether tokens should be stemmed with Porter stemmer.
+     * @param feedback Whether relevance feedback should be used.
+     */
+    public FieldedInvertedIndex(File dirFile, boolean stem, boolean feedback, String language) {
+	super();
+	this.dirFile = dirFile;
+	this.docType = DocumentIterator.TYPE_HTML;
+	this.stem = stem;
+	this.feedback = feedback;
+	this.language = language;
+	for(int f = 0; f < fieldHashes.length; f++)
+	    fieldHashes[f] = new HashMap();
+	indexFieldedDocuments();
+    }
+
+    /** Return the number of a field given its name, or -1 if there is no such field */
+    public static int fieldNumber(String name) {
+	for(int f = 0; f < HTMLFileDocument.NUM_FIELDS; f++) {
+	    if (HTMLFileDocument.FIELD_NAMES[f].equals(name))
+		return f;
+	}
+	return -1;
+    }
+
+    /** Index the HTML documents in dirFile, field by field */
+    protected void indexFieldedDocuments() {
+	DocumentIterator docIter = new DocumentIterator(dirFile, docType, stem, language);
+	System.out.println("Indexing fields of documents in " + dirFile);
+	while (docIter.hasMoreDocuments()) {
+	    HTMLFileDocument doc = (HTMLFileDocument)docIter.nextDocument();
+	    // Tokenize the page once, getting a vector for each field
+	    HashMapVector[] vectors = doc.fieldVectors();
+	    // Index the whole page under the sum of its field vectors
+	    HashMapVector vector = new HashMapVector();
+	    for(int f = 0; f < vectors.length; f++)
+		vector.add(vectors[f]);
+	    indexDocument(doc, vector);
+	    DocumentReference docRef = (DocumentReference)docRefs.get(docRefs.size() - 1);
+	    // Then index the tokens of each field in the postings for that field
+	    for(int f = 0; f < vectors.length; f++) {
+		Iterator mapEntries = vectors[f].iterator();
+		while (mapEntries.hasNext()) {
+		    Map.Entry entry = (Map.Entry)mapEntries.next();
+		    String token = (String)entry.getKey();
+		    int count = (int)((Weight)entry.getValue()).getValue();
+		    TokenInfo tokenInfo = (TokenInfo)fieldHashes[f].get(token);
+		    if (tokenInfo == null) {
+			tokenInfo = new TokenInfo();
+			fieldHashes[f].put(token, tokenInfo);
+		    }
+		    tokenInfo.occList.add(new TokenOccurrence(docRef, count));
+		}
+	    }
+	    fieldLengths.add(new double[HTMLFileDocument.NUM_FIELDS]);
+	}
+	computeIDFandDocumentLengths();
+	computeFieldIDFandLengths();
+	System.out.println("Indexed " +  docRefs.size() + " documents with " + size() + " unique terms.");
+	for(int f = 0; f < fieldHashes.length; f++)
+	    System.out.println("  " + HTMLFileDocument.FIELD_NAMES[f] + ": " + fieldHashes[f].size() + " unique terms");
+    }
+
+    /** Compute the IDF factor of every token in each field, based on the number
+     * of documents with that token in that field, and the length of each field
+     * vector of every document. */
+    protected void computeFieldIDFandLengths() {
+	double N = docRefs.size();
+	for(int f = 0; f < fieldHashes.length; f++) {
+	    Iterator mapEntries = fieldHashes[f].values().iterator();
+	    while (mapEntries.hasNext()) {
+		TokenInfo tokenInfo = (TokenInfo)mapEntries.next();
+		tokenInfo.idf = Math.log(N/tokenInfo.occList.size());
+		tokenInfo.buildSkips();
+		// Sum the squared weights of each document's field vector
+		for(int i = 0; i < tokenInfo.occList.size(); i++) {
+		    TokenOccurrence occ = (TokenOccurrence)tokenInfo.occList.get(i);
+		    double[] lengths = (double[])fieldLengths.get(occ.docRef.id);
+		    lengths[f] = lengths[f] + Math.pow(tokenInfo.idf*occ.count, 2);
+		}
+	    }
+	}
+	for(int i = 0; i < fieldLengths.size(); i++) {
+	    double[] lengths = (double[])fieldLengths.get(i);
+	    for(int f = 0; f < lengths.length; f++)
+		lengths[f] = Math.sqrt(lengths[f]);
+	}
+    }
+
+    /** Set the weight of a field used when combining field scores */
+    public void setFieldWeight(int field, double weight) {
+	fieldWeights[field] = weight;
+	// Cached results were computed with the old weights
+	version++;
+    }
+
+    /** Rank documents by the weighted average of the similarities of the query
+     * vector to each of their fields */
+    protected Retrieval[] rankRetrievals(HashMapVector vector, int k) {
+	HashMapVector[] fieldQueries = new HashMapVector[HTMLFileDocument.NUM_FIELDS];
+	for(int f = 0; f < fieldQueries.length; f++)
+	    fieldQueries[f] = vector;
+	return rankFields(fieldQueries, k);
+    }
+
+    /** Perform ranked retrieval on a batch of query vectors, one query at a time
+     * since each query is scored against every field */
+    public Retrieval[][] retrieveBatch(List queryVectors, int k) {
+	Retrieval[][] results = new Retrieval[queryVectors.size()][];
+	for(int q = 0; q < results.length; q++)
+	    results[q] = retrieve((HashMapVector)queryVectors.get(q), k);
+	return results;
+    }
+
+    /** Retrieve documents using only the given field */
+    public Retrieval[] retrieveField(String input, int field) {
+	HashMapVector[] fieldQueries = new HashMapVector[HTMLFileDocument.NUM_FIELDS];
+	fieldQueries[field] = queryVector(input);
+	return rankFields(fieldQueries, 0);
+    }
+
+    /** Retrieve documents for a query in which a token can be restricted to
+     * a field by prefixing it with the name of the field and a colon, as in
+     * "title:retrieval".  Other tokens are matched against every field. */
+    public Retrieval[] retrieveFielded(String input) {
+	HashMapVector[] fieldQueries = new HashMapVector[HTMLFileDocument.NUM_FIELDS];
+	HashMapVector anyField = new HashMapVector();
+	StringTokenizer tokenizer = new StringTokenizer(input);
+	while (tokenizer.hasMoreTokens()) {
+	    String word = tokenizer.nextToken();
+	    int colon = word.indexOf(':');
+	    int field = (colon > 0) ? fieldNumber(word.substring(0, colon).toLowerCase()) : -1;
+	    if (field < 0) {
+		anyField.add(queryVector(word));
+		continue;
+	    }
+	    if (fieldQueries[field] == null)
+		fieldQueries[field] = new HashMapVector();
+	    fieldQueries[field].add(queryVector(word.substring(colon + 1)));
+	}
+	// Tokens for any field are added to the query of every field
+	for(int f = 0; f < fieldQueries.length; f++) {
+	    if (anyField.size() > 0) {
+		if (fieldQueries[f] == null)
+		    fieldQueries[f] = new HashMapVector();
+		fieldQueries[f].add(anyField);
+	    }
+	}
+	return rankFields(fieldQueries, 0);
+    }
+
+    /** Score documents against a query vector for each field (or null to
+     * ignore a field), combining the cosine similarity for each field by the
+     * weighted average over the fields that have a query.
+     * @return The top k retrievals, or all of them if k is not positive.
+     */
+    protected Retrieval[] rankFields(HashMapVector[] fieldQueries, int k) {
+	// Map each retrieved DocumentReference to a double[] of its dot product with each field query
+	HashMap fieldScores = new HashMap();
+	double[] queryLengths = new double[fieldQueries.length];
+	double totalWeight = 0.0;
+	for(int f = 0; f < fieldQueries.length; f++) {
+	    if (fieldQueries[f] == null)
+		continue;
+	    totalWeight = totalWeight + fieldWeights[f];
+	    Iterator mapEntries = fieldQueries[f].iterator();
+	    while (mapEntries.hasNext()) {
+		Map.Entry entry = (Map.Entry)mapEntries.next();
+		TokenInfo tokenInfo = (TokenInfo)fieldHashes[f].get(entry.getKey());
+		if (tokenInfo == null || tokenInfo.idf == 0.0)
+		    continue;
+		double weight = tokenInfo.idf * ((Weight)entry.getValue()).getValue();
+		queryLengths[f] = queryLengths[f] + weight * weight;
+		for(int i = 0; i < tokenInfo.occList.size(); i++) {
+		    TokenOccurrence occ = (TokenOccurrence)tokenInfo.occList.get(i);
+		    double[] scores = (double[])fieldScores.get(occ.docRef);
+		    if (scores == null) {
+			scores = new double[fieldQueries.length];
+			fieldScores.put(occ.docRef, scores);
+		    }
+		    scores[f] = scores[f] + weight * tokenInfo.idf * occ.count;
+		}
+	    }
+	}
+	// Combine the normalized field similarities of each document into one score
+	HashMap retrievalHash = new HashMap();
+	Iterator mapEntries = fieldScores.entrySet().iterator();
+	while (mapEntries.hasNext()) {
+	    Map.Entry entry = (Map.Entry)mapEntries.next();
+	    DocumentReference docRef = (DocumentReference)entry.getKey();
+	    double[] scores = (double[])entry.getValue();
+	    double[] lengths = (double[])fieldLengths.get(docRef.id);
+	    double score = 0.0;
+	    for(int f = 0; f < scores.length; f++) {
+		if (scores[f] != 0.0)
+		    score = score + fieldWeights[f] * scores[f] / (Math.sqrt(queryLengths[f]) * lengths[f]);
+	    }
+	    retrievalHash.put(docRef, new DoubleValue(score / totalWeight));
+	}
+	// The combined scores are already normalized
+	return topRetrievals(retrievalHash, 1.0, k);
+    }
+
+    /** Queries restricting tokens to fields are not ordinary ranked queries */
+    protected boolean isRankedQuery(String query) {
+	return super.isRankedQuery(query) && !hasFieldSyntax(query);
+    }
+
+    /** Perform ranked retrieval over all fields.  Field scores are not
+     * accumulated token by token, so the query is always scored in full
+     * and the budget is not applied. */
+    public SearchResult retrieve(HashMapVector vector, int k, QueryBudget budget) {
+	return new SearchResult(retrieve(vector, k), false, 0);
+    }
+
+    /** Return true if some token of the query has a "field:" prefix */
+    protected static boolean hasFieldSyntax(String query) {
+	StringTokenizer tokenizer = new StringTokenizer(query);
+	while (tokenizer.hasMoreTokens()) {
+	    String word = tokenizer.nextToken();
+	    int colon = word.indexOf(':');
+	    if (colon > 0 && fieldNumber(word.substring(0, colon).toLowerCase()) >= 0)
+		return true;
+	}
+	return false;
+    }
+
+    /** Use field-restricted retrieval for queries with a "field:" prefix */
+    protected Retrieval[] retrieveQuery(String query, HashMapVector queryVector) {
+	if (hasFieldSyntax(query))
+	    return retrieveFielded(query);
+	return super.retrieveQuery(query, queryVector);
+    }
+
+    /** Index a directory of HTML files by field and then interactively accept
+     * retrieval queries, where a token can be restricted to a field as in
+     * "title:retrieval".
+     * Command format: "FieldedInvertedIndex [OPTION]* [DIR] [LANGUAGE]" where
+     * OPTIONs can be "-stem" to stem tokens, "-feedback" to allow relevance
+     * feedback, and "-FIELD WEIGHT" (e.g. "-title 4") to set the weight of a field.
+     */
+    public static void main(String[] args) {
+	String dirName = args[args.length - 2];
+	String language = args[args.length - 1];
+	boolean stem = false, feedback = false;
+	double[] weights = (double[])DEFAULT_FIELD_WEIGHTS.clone();
+	for(int i = 0; i < args.length - 2; i++) {
+	    String flag = args[i];
+	    if (flag.equals("-stem"))
+		stem = true;
+	    else if (flag.equals("-feedback"))
+		feedback = true;
+	    else if (flag.startsWith("-") && fieldNumber(flag.substring(1)) >= 0)
+		weights[fieldNumber(flag.substring(1))] = Double.parseDouble(args[++i]);
+	    else {
+		System.out.println("\nUnknown flag: " + flag);
+		System.exit(1);
+	    }
+	}
+	FieldedInvertedIndex index = new FieldedInvertedIndex(new File(dirName), stem, feedback, language);
+	index.fieldWeights = weights;
+	index.processQueries();
+    }
+}
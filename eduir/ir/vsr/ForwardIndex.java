@@ -0,0 +1,169 @@
+package eduir.ir.vsr;
+
+import java.io.*;
+import java.util.*;
+import eduir.ir.utilities.*;
+
+/**
+ * A forward index: the term vector of every indexed document, so that
+ * relevance feedback can get the vector of a rated document without
+ * reading, tokenizing and stemming its file again (see
+ * InvertedIndex.documentVector).  It is built by inverting the postings
+ * of an InvertedIndex, so the vectors are exactly those that were indexed.
+ *
+ * Each document is stored as the variable-byte compressed gaps between the
+ * ids of its tokens in a TermDictionary, in increasing order, alternating
+ * with their counts, all in one byte array with the offset of each
+ * document.  Tokens are only decoded from the dictionary when a vector is
+ * requested, so the index takes little more memory than its postings.
+ */
+
+public class ForwardIndex {
+
+    /** The dictionary giving the id of each token */
+    protected TermDictionary dictionary;
+
+    /** The compressed term vectors of the documents */
+    protected byte[] data;
+
+    /** The offset in data of the vector of each document, by document id,
+     * followed by the length of data */
+    protected int[] offsets;
+
+    /** Build the forward index of the documents of an in-memory index */
+    public ForwardIndex(InvertedIndex index) {
+	this(index.termDictionary(), index.docRefs.size(), new InvertedIndex[] {index});
+    }
+
+    /** Build the forward index of documents split among several in-memory
+     * indexes, such as the shards of a ShardedIndex, whose ids run from 0 to
+     * numDocs-1 across all of them
+     * @param dictionary The dictionary of the tokens of every index.
+     * @param numDocs The number of documents in all the indexes.
+     * @param indexes The indexes holding the postings.
+     */
+    public ForwardIndex(TermDictionary dictionary, int numDocs, InvertedIndex[] indexes) {
+	this.dictionary = dictionary;
+	String[] tokens = dictionary.terms(0, dictionary.size());
+	// Count the tokens of each document to lay out their ids and counts
+	int[] starts = new int[numDocs + 1];
+	for(int id = 0; id < tokens.length; id++) {
+	    for(int x = 0; x < indexes.length; x++) {
+		// A token need not occur in every index
+		TokenInfo tokenInfo = (TokenInfo)indexes[x].tokenHash.get(tokens[id]);
+		if (tokenInfo == null)
+		    continue;
+		for(int i = 0; i < tokenInfo.occList.size(); i++)
+		    starts[((TokenOccurrence)tokenInfo.occList.get(i)).docRef.id + 1]++;
+	    }
+	}
+	for(int d = 0; d < numDocs; d++)
+	    starts[d + 1] = starts[d + 1] + starts[d];
+	int[] ids = new int[starts[numDocs]];
+	int[] counts = new int[starts[numDocs]];
+	int[] filled = new int[numDocs];
+	// Visiting tokens in order of id leaves the ids of each document sorted
+	for(int id = 0; id < tokens.length; id++) {
+	    for(int x = 0; x < indexes.length; x++) {
+		// A token need not occur in every index
+		TokenInfo tokenInfo = (TokenInfo)indexes[x].tokenHash.get(tokens[id]);
+		if (tokenInfo == null)
+		    continue;
+		for(int i = 0; i < tokenInfo.occList.size(); i++) {
+		    TokenOccurrence occ = (TokenOccurrence)tokenInfo.occList.get(i);
+		    int pos = starts[occ.docRef.id] + filled[occ.docRef.id]++;
+		    ids[pos] = id;
+		    counts[pos] = occ.count;
+		}
+	    }
+	}
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	offsets = new int[numDocs + 1];
+	try {
+	    for(int d = 0; d < numDocs; d++) {
+		offsets[d] = out.size();
+		int lastId = 0;
+		for(int pos = starts[d]; pos < starts[d + 1]; pos++) {
+		    VByte.write(out, ids[pos] - lastId);
+		    VByte.write(out, counts[pos]);
+		    lastId = ids[pos];
+		}
+	    }
+	}
+	catch (IOException e) {
+	    // Cannot happen when writing to a byte array
+	}
+	offsets[numDocs] = out.size();
+	data = out.toByteArray();
+    }
+
+    /** Create a forward index from its parts */
+    ForwardIndex(TermDictionary dictionary, byte[] data, int[] offsets) {
+	this.dictionary = dictionary;
+	this.data = data;
+	this.offsets = offsets;
+    }
+
+    /** Return the number of documents */
+    public int numDocs() {
+	return offsets.length - 1;
+    }
+
+    /** Return the number of bytes taken by the compressed vectors */
+    public long bytes() {
+	return data.length + 4L * offsets.length;
+    }
+
+    /** Return a new vector of the counts of the tokens of a document */
+    public HashMapVector vector(int docId) {
+	int end = offsets[docId + 1];
+	// A document has at most half as many tokens as bytes
+	int[] ids = new int[(end - offsets[docId]) / 2];
+	int[] counts = new int[ids.length];
+	int n = 0, id = 0, pos = offsets[docId];
+	while (pos < end) {
+	    for(int part = 0; part < 2; part++) {
+		int value = 0, shift = 0;
+		int b = data[pos++];
+		while ((b & 128) == 0) {
+		    value = value | (b << shift);
+		    shift = shift + 7;
+		    b = data[pos++];
+		}
+		value = value | ((b & 127) << shift);
+		if (part == 0)
+		    id = id + value;
+		else
+		    counts[n] = value;
+	    }
+	    ids[n++] = id;
+	}
+	String[] tokens = dictionary.terms(ids, n);
+	HashMapVector vector = new HashMapVector();
+	for(int i = 0; i < n; i++)
+	    vector.increment(tokens[i], counts[i]);
+	return vector;
+    }
+
+    /** Write the compressed vectors to a file */
+    public void write(File file) throws IOException {
+	DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+	out.writeInt(numDocs());
+	for(int d = 0; d < offsets.length; d++)
+	    out.writeInt(offsets[d]);
+	out.write(data);
+	out.close();
+    }
+
+    /** Read the vectors written by write(), whose token ids are those of this dictionary */
+    public static ForwardIndex read(File file, TermDictionary dictionary) throws IOException {
+	DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+	int[] offsets = new int[in.readInt() + 1];
+	for(int d = 0; d < offsets.length; d++)
+	    offsets[d] = in.readInt();
+	byte[] data = new byte[offsets[offsets.length - 1]];
+	in.readFully(data);
+	in.close();
+	return new ForwardIndex(dictionary, data, offsets);
+    }
+}
@@ -6,6 +6,9 @@
 /** An HTML file document where HTML commands are removed
  * from the token stream.  To include HTML tokens, just
  * create a TextFileDocument from the HTML file.
+ * While tokenizing, it also keeps track of which field of the page
+ * (title, heading, anchor text or body) each token comes from, so
+ * that fieldVectors() can build a vector per field in a single pass.
  *
  * @author Ray Mooney
  */
@@ -20,6 +23,25 @@
     /** The tokenizer for lines read from this document. */
       protected StringTokenizer tokenizer = null;
    
+    /** Field number for tokens in the TITLE of the page */
+      public static final int FIELD_TITLE = 0;
+    /** Field number for tokens in H1-H6 headings */
+      public static final int FIELD_HEADING = 1;
+    /** Field number for the anchor text of links */
+      public static final int FIELD_ANCHOR = 2;
+    /** Field number for all other tokens */
+      public static final int FIELD_BODY = 3;
+    /** The number of fields */
+      public static final int NUM_FIELDS = 4;
+    /** The names of the fields, indexed by field number */
+      public static final String[] FIELD_NAMES = {"title", "heading", "anchor", "body"};
+   
+    /** The number of currently open TITLE, heading and anchor tags */
+      protected int titleDepth = 0, headingDepth = 0, anchorDepth = 0;
+   
+    /** The field of the precomputed next token */
+      protected int nextTokenField = FIELD_BODY;
+   
     /** Create a new HTML document for the given file. */
               
       public HTMLFileDocument(File file, boolean stem, String language) {
@@ -62,6 +84,9 @@
       // The following flag is set to true when inside an HTML command, i.e.
       // between a "<" and a ">"
          boolean inTag = false;  
+      // The name of the current tag and whether it is a closing tag
+         String tagName = null;
+         boolean closingTag = false;
          try {
          // Loop until a non-HTML-command token is found
             while (candidateToken == null) {
@@ -83,15 +108,24 @@
             // Get the next token in the current line
                candidateToken = tokenizer.nextToken();
                if (inTag) {
-                  if (candidateToken.equals(">"))
+                  if (candidateToken.equals(">")) {
                   // Exiting the HTML tag
                      inTag = false;
+                     updateField(tagName, closingTag);
+                  }
+                  else if (tagName == null && candidateToken.equals("/"))
+                     closingTag = true;
+                  else if (tagName == null && tokenizerDelim.indexOf(candidateToken) < 0)
+                  // The first word in the tag is its name
+                     tagName = candidateToken.toLowerCase();
                // Don't include tokens within an HTML tag
                   candidateToken = null;
                }
                else if (candidateToken.equals("<")) {
                // Entering an HTML tag, discard such tokens
                   inTag = true;
+                  tagName = null;
+                  closingTag = false;
                   candidateToken = null;
                }
                else if (tokenizerDelim.indexOf(candidateToken) >= 0) {
@@ -110,6 +144,61 @@
          return candidateToken;
       }
    
+    /** Update the counts of open title, heading and anchor tags for this tag.
+     * Since digits separate tokens, a heading tag such as H1 has the name "h". */
+              
+      protected void updateField(String tagName, boolean closingTag) {
+              
+         if (tagName == null)
+            return;
+         int change = closingTag ? -1 : 1;
+         if (tagName.equals("title"))
+            titleDepth = Math.max(0, titleDepth + change);
+         else if (tagName.equals("h"))
+            headingDepth = Math.max(0, headingDepth + change);
+         else if (tagName.equals("a"))
+            anchorDepth = Math.max(0, anchorDepth + change);
+      }
+   
+    /** Return the field of the page that the tags read so far are in */
+              
+      protected int currentField() {
+              
+         if (titleDepth > 0)
+            return FIELD_TITLE;
+         if (headingDepth > 0)
+            return FIELD_HEADING;
+         if (anchorDepth > 0)
+            return FIELD_ANCHOR;
+         return FIELD_BODY;
+      }
+   
+    /** Precompute the next token and remember the field it came from */
+              
+      protected void prepareNextToken() {
+              
+         super.prepareNextToken();
+         nextTokenField = currentField();
+      }
+   
+    /** Returns an array of term vectors for this document, one for each field
+     * (indexed by FIELD_TITLE etc.), built in a single pass over the file. */
+              
+      public HashMapVector[] fieldVectors() {
+              
+         if (numTokens != 0)
+            return null;
+         HashMapVector[] vectors = new HashMapVector[NUM_FIELDS];
+         for(int i = 0; i < NUM_FIELDS; i++)
+            vectors[i] = new HashMapVector();
+         while (hasMoreTokens()) {
+         // Get the field of the next token before reading it prepares the one after
+            int field = nextTokenField;
+            vectors[field].increment(nextToken());
+         }
+         return vectors;
+      }
+   
     /** For testing, print the bag-of-words vector for a given HTML file */
               
       public static void main(String[] args) throws IOException {
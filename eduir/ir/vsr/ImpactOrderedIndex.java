@@ -0,0 +1,364 @@
+package eduir.ir.vsr;
+
+import java.io.*;
+import java.util.*;
+import eduir.ir.utilities.*;
+
+/**
+ * An inverted index that also keeps the postings of each token ordered by
+ * impact, so that ranked queries for the top k documents can be answered
+ * score-at-a-time and stop early.  The impact of a token on a document is
+ * its normalized weight in the document vector (IDF * count / length),
+ * which is its contribution to the cosine similarity of the document to a
+ * query for that token alone.  Impacts are quantized to a small number of
+ * levels and the postings of each token are grouped into segments of
+ * equal impact, in decreasing order of impact.
+ *
+ * A query processes the segment with the largest contribution of all its
+ * tokens next, so the documents that matter most are scored first.  The
+ * most any document could still gain is the sum over tokens of the
+ * contribution of their next segment; once the k-th best score exceeds
+ * the next best by at least this much, no other document can enter the
+ * top k and scoring stops.  A QueryBudget can stop scoring sooner, giving
+ * the best top k found in the time allowed.  Scores are computed from the
+ * quantized impacts, so they approximate the cosine similarity.
+ *
+ * The usual postings are kept as well, for phrase, Boolean and feedback
+ * queries and for queries for all retrievals.
+ */
+
+public class ImpactOrderedIndex extends InvertedIndex {
+
+    /** The default number of bits for quantized impacts */
+    public static final int DEFAULT_BITS = 8;
+
+    /** The number of impact levels, with 1 the smallest non-zero impact */
+    protected int levels;
+
+    /** The impact of one level, so that an impact is about its level times this */
+    protected double levelImpact;
+
+    /** A HashMap mapping each token to its ImpactPostings */
+    protected HashMap impactHash = new HashMap();
+
+    /** The number of retrievals for queries entered in processQueries, or 0 for all */
+    public int topK = 0;
+
+    /** The score of each document by id for queries on each thread, reused
+     * by every query and cleared at the documents it scored, so a query takes
+     * time in the number of documents it scores rather than in the corpus size */
+    protected ThreadLocal accumulators = new ThreadLocal();
+
+    /** The postings of a token grouped into segments of decreasing impact */
+    protected static class ImpactPostings {
+	/** The IDF of the token */
+	double idf;
+	/** The impact level of each segment, in decreasing order */
+	int[] segmentLevels;
+	/** The start of each segment in docIds, followed by the number of postings */
+	int[] segmentStarts;
+	/** The ids of the documents of each segment in turn, in increasing order within a segment */
+	int[] docIds;
+    }
+
+    /** The state of processing the segments of one query token */
+    protected static class SegmentCursor {
+	ImpactPostings postings;
+	/** The normalized weight of the token in the query */
+	double queryWeight;
+	/** The next segment to process */
+	int segment = 0;
+
+	/** The contribution to a document's score of a posting in the next segment */
+	double nextContribution() {
+	    return queryWeight * postings.segmentLevels[segment];
+	}
+    }
+
+    /** Create an impact-ordered index of the documents in a directory.
+     * @param dirFile The directory of files to index.
+     * @param docType The type of documents to index (See docType in DocumentIterator)
+     * @param stem Whether tokens should be stemmed with Porter stemmer.
+     * @param feedback Whether relevance feedback should be used.
+     * @param bits The number of bits of quantized impacts.
+     */
+    public ImpactOrderedIndex(File dirFile, short docType, boolean stem, boolean feedback, String language,
+			      int bits) {
+	super(dirFile, docType, stem, feedback, language);
+	levels = (1 << bits) - 1;
+	buildImpacts();
+    }
+
+    /** Quantize the impact of every posting and build the impact-ordered
+     * postings of every token */
+    protected void buildImpacts() {
+	// Quantize relative to the largest impact of any posting
+	double maxImpact = 0.0;
+	Iterator mapEntries = tokenHash.values().iterator();
+	while (mapEntries.hasNext()) {
+	    TokenInfo tokenInfo = (TokenInfo)mapEntries.next();
+	    for(int i = 0; i < tokenInfo.occList.size(); i++) {
+		TokenOccurrence occ = (TokenOccurrence)tokenInfo.occList.get(i);
+		if (occ.docRef.length > 0)
+		    maxImpact = Math.max(maxImpact, tokenInfo.idf * occ.count / occ.docRef.length);
+	    }
+	}
+	levelImpact = (maxImpact > 0) ? maxImpact / levels : 1.0;
+	impactHash.clear();
+	mapEntries = tokenHash.entrySet().iterator();
+	while (mapEntries.hasNext()) {
+	    Map.Entry entry = (Map.Entry)mapEntries.next();
+	    TokenInfo tokenInfo = (TokenInfo)entry.getValue();
+	    if (tokenInfo.idf == 0.0)
+		continue;
+	    impactHash.put(entry.getKey(), impactPostings(tokenInfo));
+	}
+    }
+
+    /** Return the impact-ordered postings of a token */
+    protected ImpactPostings impactPostings(TokenInfo tokenInfo) {
+	int size = tokenInfo.occList.size();
+	// Sort the postings by level, largest first, and then by document
+	final int[] postingLevels = new int[size];
+	Integer[] order = new Integer[size];
+	for(int i = 0; i < size; i++) {
+	    TokenOccurrence occ = (TokenOccurrence)tokenInfo.occList.get(i);
+	    double impact = tokenInfo.idf * occ.count / occ.docRef.length;
+	    // Round up so every posting keeps a non-zero impact
+	    postingLevels[i] = Math.max(1, Math.min(levels, (int)Math.ceil(impact / levelImpact - 1e-9)));
+	    order[i] = new Integer(i);
+	}
+	Arrays.sort(order, new Comparator() {
+		public int compare(Object o1, Object o2) {
+		    int i1 = ((Integer)o1).intValue();
+		    int i2 = ((Integer)o2).intValue();
+		    if (postingLevels[i1] != postingLevels[i2])
+			return postingLevels[i2] - postingLevels[i1];
+		    return i1 - i2;
+		}
+	    });
+	ImpactPostings postings = new ImpactPostings();
+	postings.idf = tokenInfo.idf;
+	postings.docIds = new int[size];
+	int numSegments = 0;
+	for(int i = 0; i < size; i++) {
+	    if (i == 0 || postingLevels[order[i].intValue()] != postingLevels[order[i - 1].intValue()])
+		numSegments++;
+	}
+	postings.segmentLevels = new int[numSegments];
+	postings.segmentStarts = new int[numSegments + 1];
+	int segment = -1;
+	for(int i = 0; i < size; i++) {
+	    int j = order[i].intValue();
+	    if (i == 0 || postingLevels[j] != postings.segmentLevels[segment]) {
+		segment++;
+		postings.segmentLevels[segment] = postingLevels[j];
+		postings.segmentStarts[segment] = i;
+	    }
+	    postings.docIds[i] = ((TokenOccurrence)tokenInfo.occList.get(j)).docRef.id;
+	}
+	postings.segmentStarts[numSegments] = size;
+	return postings;
+    }
+
+    /** Recompute impacts after IDF weights change */
+    public void applyStatistics(TermStatistics statistics) {
+	super.applyStatistics(statistics);
+	buildImpacts();
+    }
+
+    /** Return the top k retrievals score-at-a-time, or all retrievals as
+     * usual if k is not positive */
+    protected Retrieval[] rankRetrievals(HashMapVector vector, int k) {
+	if (k <= 0)
+	    return super.rankRetrievals(vector, k);
+	return scoreAtATime(vector, k, null).retrievals;
+    }
+
+    /** Return the top k retrievals score-at-a-time within the budget, or all
+     * retrievals as usual if k is not positive */
+    public SearchResult retrieve(HashMapVector vector, int k, QueryBudget budget) {
+	if (k <= 0)
+	    return super.retrieve(vector, k, budget);
+	return scoreAtATime(vector, k, budget);
+    }
+
+    /** Perform ranked retrieval on a batch of query vectors, answering each
+     * score-at-a-time if only the top k are needed */
+    public Retrieval[][] retrieveBatch(List queryVectors, int k) {
+	if (k <= 0)
+	    return super.retrieveBatch(queryVectors, k);
+	Retrieval[][] results = new Retrieval[queryVectors.size()][];
+	for(int q = 0; q < results.length; q++)
+	    results[q] = retrieve((HashMapVector)queryVectors.get(q), k);
+	return results;
+    }
+
+    /** Score the documents for a query one segment at a time, in decreasing
+     * order of contribution, until the top k cannot change or the budget
+     * (if not null) runs out.
+     */
+    protected SearchResult scoreAtATime(HashMapVector vector, int k, QueryBudget budget) {
+	long start = System.nanoTime();
+	// Order the tokens' cursors by the contribution of their next segment
+	PriorityQueue cursors = new PriorityQueue(Math.max(1, vector.size()), new Comparator() {
+		public int compare(Object o1, Object o2) {
+		    return Double.compare(((SegmentCursor)o2).nextContribution(),
+					  ((SegmentCursor)o1).nextContribution());
+		}
+	    });
+	ArrayList tokenCursors = new ArrayList();
+	double queryLength = 0.0;
+	Iterator mapEntries = vector.iterator();
+	while (mapEntries.hasNext()) {
+	    Map.Entry entry = (Map.Entry)mapEntries.next();
+	    String token = (String)entry.getKey();
+	    double count = ((Weight)entry.getValue()).getValue();
+	    ImpactPostings postings = (ImpactPostings)impactHash.get(token);
+	    if (postings == null) {
+		queryLength = queryLength + missingTokenWeight(token, count);
+		continue;
+	    }
+	    SegmentCursor cursor = new SegmentCursor();
+	    cursor.postings = postings;
+	    cursor.queryWeight = postings.idf * count;
+	    queryLength = queryLength + cursor.queryWeight * cursor.queryWeight;
+	    tokenCursors.add(cursor);
+	}
+	queryLength = Math.sqrt(queryLength);
+	// The most any document could still gain, in units of levelImpact
+	double remaining = 0.0;
+	for(int i = 0; i < tokenCursors.size(); i++) {
+	    SegmentCursor cursor = (SegmentCursor)tokenCursors.get(i);
+	    cursor.queryWeight = cursor.queryWeight / queryLength;
+	    remaining = remaining + cursor.nextContribution();
+	    cursors.add(cursor);
+	}
+	// Accumulated scores by document id, and the ids of the documents scored
+	double[] scores = (double[])accumulators.get();
+	if (scores == null || scores.length < docRefs.size()) {
+	    scores = new double[docRefs.size()];
+	    accumulators.set(scores);
+	}
+	int[] scored = new int[16];
+	int numScored = 0;
+	long postings = 0, postingsSinceCheck = 0;
+	boolean truncated = false;
+	while (!cursors.isEmpty()) {
+	    SegmentCursor cursor = (SegmentCursor)cursors.poll();
+	    ImpactPostings impactPostings = cursor.postings;
+	    double contribution = cursor.nextContribution();
+	    int end = impactPostings.segmentStarts[cursor.segment + 1];
+	    for(int i = impactPostings.segmentStarts[cursor.segment]; i < end; i++) {
+		if (budget != null && budget.exceeded(start, postings)) {
+		    truncated = true;
+		    break;
+		}
+		int docId = impactPostings.docIds[i];
+		if (scores[docId] == 0.0) {
+		    if (numScored == scored.length) {
+			int[] newScored = new int[2 * scored.length];
+			System.arraycopy(scored, 0, newScored, 0, numScored);
+			scored = newScored;
+		    }
+		    scored[numScored++] = docId;
+		}
+		scores[docId] = scores[docId] + contribution;
+		postings++;
+	    }
+	    if (truncated)
+		break;
+	    postingsSinceCheck = postingsSinceCheck + (end - impactPostings.segmentStarts[cursor.segment]);
+	    remaining = remaining - contribution;
+	    cursor.segment++;
+	    if (cursor.segment < impactPostings.segmentLevels.length) {
+		remaining = remaining + cursor.nextContribution();
+		cursors.add(cursor);
+	    }
+	    // Checking scans every scored document, so only check once enough
+	    // postings have been scored to pay for it
+	    if (numScored >= k && (cursors.isEmpty() || postingsSinceCheck * 4 >= numScored)) {
+		postingsSinceCheck = 0;
+		double[] best = topScores(scores, scored, numScored, k + 1);
+		if (best[k - 1] - best[k] >= remaining)
+		    break;
+	    }
+	}
+	// Rank the scored documents
+	Retrieval[] retrievals = new Retrieval[numScored];
+	for(int i = 0; i < numScored; i++)
+	    retrievals[i] = new Retrieval((DocumentReference)docRefs.get(scored[i]), scores[scored[i]] * levelImpact);
+	// Leave the accumulator all zero for the next query
+	for(int i = 0; i < numScored; i++)
+	    scores[scored[i]] = 0.0;
+	Arrays.sort(retrievals);
+	if (k < retrievals.length) {
+	    Retrieval[] topK = new Retrieval[k];
+	    System.arraycopy(retrievals, 0, topK, 0, k);
+	    retrievals = topK;
+	}
+	return new SearchResult(retrievals, truncated, postings);
+    }
+
+    /** Return the n largest scores of the scored documents in decreasing
+     * order, padded with 0's if fewer were scored */
+    static double[] topScores(double[] scores, int[] scored, int numScored, int n) {
+	double[] best = new double[n];
+	for(int i = 0; i < numScored; i++) {
+	    double score = scores[scored[i]];
+	    if (score <= best[n - 1])
+		continue;
+	    // Insert the score in order, dropping the smallest
+	    int j = n - 1;
+	    while (j > 0 && best[j - 1] < score) {
+		best[j] = best[j - 1];
+		j--;
+	    }
+	    best[j] = score;
+	}
+	return best;
+    }
+
+    /** Answer ranked queries entered by the user for the top topK documents */
+    protected Retrieval[] retrieveQuery(String query, HashMapVector queryVector) {
+	if (isRankedQuery(query))
+	    return retrieve(queryVector, topK);
+	return super.retrieveQuery(query, queryVector);
+    }
+
+    /** Index a directory of files with impact-ordered postings and then
+     * interactively accept retrieval queries.
+     * Command format: "ImpactOrderedIndex [OPTION]* [DIR] [LANGUAGE]" where OPTIONs can be
+     * "-bits B" for the number of bits of quantized impacts (default 8),
+     * "-k K" to retrieve only the top K documents score-at-a-time (default 10),
+     * "-html" for HTML files, "-stem" to stem tokens and "-feedback" to allow
+     * relevance feedback.
+     */
+    public static void main(String[] args) {
+	String dirName = args[args.length - 2];
+	String language = args[args.length - 1];
+	short docType = DocumentIterator.TYPE_TEXT;
+	boolean stem = false, feedback = false;
+	int bits = DEFAULT_BITS, k = MAX_RETRIEVALS;
+	for(int i = 0; i < args.length - 2; i++) {
+	    String flag = args[i];
+	    if (flag.equals("-bits"))
+		bits = Integer.parseInt(args[++i]);
+	    else if (flag.equals("-k"))
+		k = Integer.parseInt(args[++i]);
+	    else if (flag.equals("-html"))
+		docType = DocumentIterator.TYPE_HTML;
+	    else if (flag.equals("-stem"))
+		stem = true;
+	    else if (flag.equals("-feedback"))
+		feedback = true;
+	    else {
+		System.out.println("\nUnknown flag: " + flag);
+		System.exit(1);
+	    }
+	}
+	ImpactOrderedIndex index = new ImpactOrderedIndex(new File(dirName), docType, stem, feedback, language, bits);
+	index.topK = k;
+	index.processQueries();
+    }
+}
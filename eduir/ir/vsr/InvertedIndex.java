@@ -42,9 +42,55 @@
     /** Whether relevance feedback using the Ide_regular algorithm is used */
       public boolean feedback = false;
    
+    /** Whether the positions of tokens in documents are indexed to support
+     * phrase and proximity queries */
+      public boolean positional = false;
+   
    /** The language of the Document. It can be several languages */
       String language = "";
    
+    /** The version of the indexed contents, incremented whenever documents are added
+     * or removed so that results cached for an older version can be discarded. */
+      public long version = 0;
+   
+    /** A cache of the ranked retrievals of recent queries, or null if results
+     * are not cached. */
+      public QueryCache queryCache = null;
+   
+    /** Statistics of a whole collection that this index is part of, whose
+     * document frequencies determine IDF weights, or null if IDF weights
+     * come from this index alone.  See applyStatistics. */
+      public TermStatistics globalStatistics = null;
+   
+    /** A sorted dictionary of the indexed tokens for expanding wildcard
+     * queries, built when first needed, and the version it was built for */
+      protected TermDictionary termDictionary = null;
+      protected long termDictionaryVersion = -1;
+   
+    /** Whether query tokens that are not indexed are replaced by the indexed
+     * tokens within a small edit distance of them (see KGramIndex.autoDistance) */
+      public boolean fuzzy = false;
+   
+    /** An index of the k-grams of the indexed tokens for expanding fuzzy
+     * queries, built when first needed from the term dictionary it indexes */
+      protected KGramIndex kGramIndex = null;
+      protected TermDictionary kGramDictionary = null;
+   
+    /** Type-ahead suggestions of the indexed tokens, built when first needed,
+     * and the version it was built for */
+      protected Suggester suggester = null;
+      protected long suggesterVersion = -1;
+   
+    /** The term vector of every document, for relevance feedback without
+     * reading documents again, or null if not enabled (see enableForwardIndex),
+     * and the version it was built for */
+      protected ForwardIndex forwardIndex = null;
+      protected long forwardIndexVersion = -1;
+   
+    /** Finds documents that nearly duplicate ones already indexed, which
+     * are skipped or clustered, or null if duplicates are indexed as usual */
+      public NearDuplicateDetector duplicates = null;
+   
     /** Create an inverted index of the documents in a directory.
      * @param dirFile The directory of files to index.
      * @param docType The type of documents to index (See docType in DocumentIterator) 
@@ -54,25 +100,76 @@
               
       public InvertedIndex(File dirFile, short docType, boolean stem, boolean feedback, String language) {
               
+         this(dirFile, docType, stem, feedback, language, false);
+      }
+   
+    /** Create an inverted index of the documents in a directory.
+     * @param dirFile The directory of files to index.
+     * @param docType The type of documents to index (See docType in DocumentIterator) 
+     * @param stem Whether tokens should be stemmed with Porter stemmer.
+     * @param feedback Whether relevance feedback should be used.
+     * @param positional Whether token positions should be indexed for phrase queries.
+     */
+              
+      public InvertedIndex(File dirFile, short docType, boolean stem, boolean feedback, String language,
+                          boolean positional) {
+              
+         this(dirFile, docType, stem, feedback, language, positional, null);
+      }
+   
+    /** Create an inverted index of the documents in a directory.
+     * @param dirFile The directory of files to index.
+     * @param docType The type of documents to index (See docType in DocumentIterator) 
+     * @param stem Whether tokens should be stemmed with Porter stemmer.
+     * @param feedback Whether relevance feedback should be used.
+     * @param positional Whether token positions should be indexed for phrase queries.
+     * @param duplicates The detector of near-duplicate documents to skip or
+     *   cluster, or null to index every document as usual.
+     */
+              
+      public InvertedIndex(File dirFile, short docType, boolean stem, boolean feedback, String language,
+                          boolean positional, NearDuplicateDetector duplicates) {
+              
          this.dirFile = dirFile;
          this.docType = docType;
          this.stem = stem;
          this.language = language;
          this.feedback = feedback;
+         this.positional = positional;
+         this.duplicates = duplicates;
          tokenHash = new HashMap();
          docRefs = new ArrayList();
          indexDocuments(language);
       }
    
+    /** Create an empty inverted index for subclasses that fill in the
+     * index themselves. */
+              
+      protected InvertedIndex() {
+              
+         tokenHash = new HashMap();
+         docRefs = new ArrayList();
+      }
+   
     /** Create an inverted index of the documents in a directory.
      * @param examples A List containing the Example objects for text categorization to index
      */
               
       public InvertedIndex(List examples) {
               
+         this(examples, System.out);
+      }
+   
+    /** Create an inverted index of a List of Examples, printing its size to out.
+     * @param examples A List containing the Example objects for text categorization to index
+     * @param out Where to print the size of the index
+     */
+              
+      public InvertedIndex(List examples, PrintStream out) {
+              
          tokenHash = new HashMap();
          docRefs = new ArrayList();
-         indexDocuments(examples);
+         indexDocuments(examples, out);
       }
    
    
@@ -92,6 +189,18 @@
       // Loop, processing each of the documents
          while (docIter.hasMoreDocuments()) {
             FileDocument doc = docIter.nextDocument();
+            if (positional) {
+            // Get the positions of each token and count them for the document vector
+               HashMap positionMap = doc.positionMap();
+               HashMapVector vector = new HashMapVector();
+               Iterator mapEntries = positionMap.entrySet().iterator();
+               while (mapEntries.hasNext()) {
+                  Map.Entry entry = (Map.Entry)mapEntries.next();
+                  vector.increment((String)entry.getKey(), ((int[])entry.getValue()).length);
+               }
+               indexDocument(doc, vector, positionMap);
+               continue;
+            }
          // Create a document vector for this document
             HashMapVector vector = doc.hashMapVector();
             indexDocument(doc, vector);
@@ -100,6 +209,8 @@
       // all tokens and the resulting lengths of all weighted document vectors.
          computeIDFandDocumentLengths();
          System.out.println("Indexed " +  docRefs.size() + " documents with " + size() + " unique terms.");
+         if (duplicates != null)
+            System.out.println(duplicates);
       }
    
    
@@ -107,6 +218,14 @@
               
       public void indexDocuments(List examples) {
               
+         indexDocuments(examples, System.out);
+      }
+   
+    /** Index the documents in the List of Examples for text categorization,
+     * printing the size of the index to out. */
+              
+      public void indexDocuments(List examples, PrintStream out) {
+              
          if (!tokenHash.isEmpty() || !docRefs.isEmpty()) {
          // Currently can only index one set of documents when an index is created
             System.out.println("\nCannot indexDocuments more than once in the same InvertedIndex");
@@ -124,17 +243,42 @@
       // Now that all documents have been processed, we can calculate the IDF weights for
       // all tokens and the resulting lengths of all weighted document vectors.
          computeIDFandDocumentLengths();
-         System.out.println("Indexed " +  docRefs.size() + " documents with " + size() + " unique terms.");
+         out.println("Indexed " +  docRefs.size() + " documents with " + size() + " unique terms.");
       }
    
     /** Index the given document using its corresponding vector */
               
       protected void indexDocument(FileDocument doc, HashMapVector vector) {
               
+         indexDocument(doc, vector, null);
+      }
+   
+    /** Index the given document using its corresponding vector and, if not
+     * null, the map from each of its tokens to an int[] of their positions.
+     * If duplicates is not null, a near-duplicate of a document already
+     * indexed is skipped or put in the cluster of that document. */
+              
+      protected void indexDocument(FileDocument doc, HashMapVector vector, HashMap positionMap) {
+              
+         int[] signature = null;
+         int original = -1;
+         if (duplicates != null) {
+            signature = NearDuplicateDetector.minHash(vector);
+            original = duplicates.findDuplicate(signature);
+            if (original >= 0 && duplicates.skip) {
+               duplicates.skippedFiles.add(doc.file);
+               return;
+            }
+         }
+      // Adding a document changes the results of any query
+         version++;
       // Create a reference to this document
          DocumentReference docRef = new DocumentReference(doc);
       // Add this document to the list of documents indexed
+         docRef.id = docRefs.size();
          docRefs.add(docRef);
+         if (duplicates != null)
+            duplicates.add(signature, original);
       // Iterate through each of the tokens in the document
          Iterator mapEntries = vector.iterator();
          while (mapEntries.hasNext()) {
@@ -144,7 +288,9 @@
          // The count for the token is in the value of the Weight
             int count = (int)((Weight)entry.getValue()).getValue();
          // Add an occurence of this token to the inverted index pointing to this document
-            indexToken(token, count, docRef);
+            TokenInfo tokenInfo = indexToken(token, count, docRef);
+            if (positionMap != null)
+               tokenInfo.addPositions((int[])positionMap.get(token));
          }
       }
    
@@ -152,9 +298,10 @@
      * @param token The token to index.
      * @param count The number of times it occurs in the document.
      * @param docRef A reference to the Document it occurs in.
+     * @return The TokenInfo for the token.
      */
               
-      protected void indexToken(String token, int count, DocumentReference docRef) {
+      protected TokenInfo indexToken(String token, int count, DocumentReference docRef) {
               
       // Find this token in the index
          TokenInfo tokenInfo = (TokenInfo)tokenHash.get(token);
@@ -165,6 +312,7 @@
          }
       // Add a new occurrence for this token to its info
          tokenInfo.occList.add(new TokenOccurrence(docRef, count));
+         return tokenInfo;
       }
    
     /** Compute the IDF factor for every token in the index and the length
@@ -172,6 +320,8 @@
               
       protected void computeIDFandDocumentLengths() {
               
+      // New IDF weights change the scores of previously cached queries
+         version++;
       // Let N be the total number of documents indexed
          double N = docRefs.size();
       // Iterate through each of the tokens in the index 
@@ -186,11 +336,12 @@
          // Calculate the IDF factor for this token
             double idf = Math.log(N/numDocRefs);
          //  System.out.println(token + " occurs in " + Math.round(numDocRefs) + " docs so IDF=" + idf);
-            if (idf == 0.0) 
-            // If IDF is 0, then just remove this inconsequential token from the index
-               mapEntries.remove();
-            else {
-               tokenInfo.idf = idf;
+         // Build skip pointers for intersecting the postings of this token
+            tokenInfo.buildSkips();
+         // A token with an IDF of 0 adds nothing to any score, but is kept
+         // since phrase queries still need its postings
+            tokenInfo.idf = idf;
+            if (idf != 0.0) {
             // In order to compute document vector lengths,  sum the
             // square of the weights (IDF * occurrence count) across
             // every token occurrence for each document.
@@ -209,6 +360,77 @@
          }
       }
    
+    /** Return the number of documents and the document frequency of each token
+     * in this index, for combining with the statistics of other indexes. */
+              
+      public TermStatistics termStatistics() {
+              
+         TermStatistics statistics = new TermStatistics();
+         statistics.numDocs = docRefs.size();
+         Iterator mapEntries = tokenHash.entrySet().iterator();
+         while (mapEntries.hasNext()) {
+            Map.Entry entry = (Map.Entry)mapEntries.next();
+            statistics.addDf((String)entry.getKey(), ((TokenInfo)entry.getValue()).occList.size());
+         }
+         return statistics;
+      }
+   
+    /** Weight tokens by the IDF given by the statistics of a whole collection
+     * that this index is part of, and recompute the lengths of the document
+     * vectors accordingly.  Postings are left unchanged.  Tokens of the
+     * collection that are not in this index still count in the length of a
+     * query, so scores are the same as for a single index of the collection.
+     */
+              
+      public void applyStatistics(TermStatistics statistics) {
+              
+      // New IDF weights change the scores of previously cached queries
+         version++;
+         globalStatistics = statistics;
+         for(int i = 0; i < docRefs.size(); i++)
+            ((DocumentReference)docRefs.get(i)).length = 0.0;
+         Iterator mapEntries = tokenHash.entrySet().iterator();
+         while (mapEntries.hasNext()) {
+            Map.Entry entry = (Map.Entry)mapEntries.next();
+            TokenInfo tokenInfo = (TokenInfo)entry.getValue();
+            tokenInfo.idf = statistics.idf((String)entry.getKey());
+         // Build skip pointers in case IDF was never computed locally
+            tokenInfo.buildSkips();
+            if (tokenInfo.idf != 0.0) {
+               for(int i = 0; i < tokenInfo.occList.size(); i++) {
+                  TokenOccurrence occ = (TokenOccurrence)tokenInfo.occList.get(i);
+                  occ.docRef.length = occ.docRef.length + Math.pow(tokenInfo.idf*occ.count, 2);
+               }
+            }
+         }
+         for(int i = 0; i < docRefs.size(); i++) {
+            DocumentReference docRef = (DocumentReference)docRefs.get(i);
+            docRef.length = Math.sqrt(docRef.length);
+         }
+      }
+   
+    /** Return the squared weight in a query of a token that is not in this
+     * index, which is only non-zero if the token occurs elsewhere in a
+     * collection whose globalStatistics have been applied.
+     * @param token The token in the query.
+     * @param count The count of this token in the query.
+     */
+              
+      protected double missingTokenWeight(String token, double count) {
+              
+         if (globalStatistics == null)
+            return 0.0;
+         return Math.pow(globalStatistics.idf(token) * count, 2);
+      }
+   
+    /** Return the IDF weight of an indexed token, or 0 if it is not indexed */
+              
+      public double idf(String token) {
+              
+         TokenInfo tokenInfo = (TokenInfo)tokenHash.get(token);
+         return (tokenInfo == null) ? 0.0 : tokenInfo.idf;
+      }
+   
     /** Print out an inverted index by listing each token and the documents it occurs in.
      * Include info on IDF factors, occurrence counts, and document vector lengths. */
               
@@ -246,6 +468,53 @@
               
          docRefs.clear();
          tokenHash.clear();
+      // The detector knows documents by their ids, which are reused
+         if (duplicates != null)
+            duplicates = new NearDuplicateDetector(duplicates.minSimilarity, duplicates.skip);
+         version++;
+      }
+   
+    /** Cache the ranked retrievals of recent queries in a cache with these bounds.
+     * @param maxEntries The maximum number of queries to cache.
+     * @param maxBytes The maximum estimated number of bytes of cached results.
+     */
+              
+      public void enableQueryCache(int maxEntries, long maxBytes) {
+              
+         queryCache = new QueryCache(maxEntries, maxBytes);
+      }
+   
+    /** Keep the term vector of every document in a ForwardIndex, so that
+     * relevance feedback does not read, tokenize and stem rated documents
+     * again. */
+              
+      public void enableForwardIndex() {
+              
+         forwardIndex = new ForwardIndex(this);
+         forwardIndexVersion = version;
+      }
+   
+    /** Return the forward index, rebuilding it if the index has changed since
+     * it was built, or null if it is not enabled. */
+              
+      public synchronized ForwardIndex forwardIndex() {
+              
+         if (forwardIndex != null && forwardIndexVersion != version) {
+            forwardIndex = new ForwardIndex(this);
+            forwardIndexVersion = version;
+         }
+         return forwardIndex;
+      }
+   
+    /** Return a new vector of the token counts of an indexed document, from
+     * the forward index if it is enabled and otherwise by reading the document. */
+              
+      public HashMapVector documentVector(DocumentReference docRef) {
+              
+         ForwardIndex forward = forwardIndex();
+         if (forward != null)
+            return forward.vector(docRef.id);
+         return docRef.getDocument(docType, stem, language).hashMapVector();
       }
    
     /** Perform ranked retrieval on this input query. */
@@ -255,6 +524,142 @@
          return retrieve(new TextStringDocument(input,stem, language));
       }
    
+    /** Return the vector for this input query, tokenized the same way as
+     * the indexed documents.  A word containing "*", or "?" before its last
+     * character, is a wildcard pattern (see TermDictionary.isWildcard and
+     * expandWildcard) and is replaced by every indexed
+     * token it matches.  A word ending in "~" or "~N" is fuzzy and is replaced
+     * by every indexed token within an edit distance of N (at most
+     * KGramIndex.MAX_DISTANCE, by default KGramIndex.autoDistance, and less for
+     * very short words, see KGramIndex.expandFuzzy) of it, weighted
+     * by 1/(1+distance).  If fuzzy is set, so is every word that is not indexed. */
+              
+      public HashMapVector queryVector(String input) {
+              
+         if (input.indexOf('*') < 0 && input.indexOf('?') < 0 && input.indexOf('~') < 0 && !fuzzy)
+            return (new TextStringDocument(input, stem, language)).hashMapVector();
+      // Tokenize the ordinary words and then add the expansion of each pattern
+         StringBuffer words = new StringBuffer();
+         ArrayList patterns = new ArrayList();
+         HashMapVector vector = new HashMapVector();
+         StringTokenizer tokenizer = new StringTokenizer(input);
+         while (tokenizer.hasMoreTokens()) {
+            String word = tokenizer.nextToken();
+            int tilde = word.lastIndexOf('~');
+            if (TermDictionary.isWildcard(word))
+               patterns.add(word.toLowerCase());
+            else if (tilde > 0 && word.indexOf('"') < 0) {
+               int distance = -1;
+               if (tilde < word.length() - 1) {
+                  try {
+                     distance = Math.min(Integer.parseInt(word.substring(tilde + 1)), KGramIndex.MAX_DISTANCE);
+                  }
+                  catch (NumberFormatException e) {
+                     words.append(word + " ");
+                     continue;
+                  }
+               }
+               HashMapVector fuzzyTokens = (new TextStringDocument(word.substring(0, tilde), stem, language)).hashMapVector();
+               addFuzzy(vector, fuzzyTokens, distance);
+            }
+            else
+               words.append(word + " ");
+         }
+         HashMapVector plain = (new TextStringDocument(words.toString(), stem, language)).hashMapVector();
+         if (fuzzy) {
+         // Expand only the tokens that are not indexed
+            HashMapVector unknown = new HashMapVector();
+            Iterator mapEntries = plain.iterator();
+            while (mapEntries.hasNext()) {
+               Map.Entry entry = (Map.Entry)mapEntries.next();
+               String token = (String)entry.getKey();
+               double count = ((Weight)entry.getValue()).getValue();
+               if (termDictionary().find(token) < 0)
+                  unknown.increment(token, count);
+               else
+                  vector.increment(token, count);
+            }
+            addFuzzy(vector, unknown, -1);
+         }
+         else
+            vector.add(plain);
+         for(int i = 0; i < patterns.size(); i++) {
+            String[] tokens = termDictionary().expandWildcard((String)patterns.get(i));
+            for(int j = 0; j < tokens.length; j++)
+               vector.increment(tokens[j]);
+         }
+         return vector;
+      }
+   
+    /** Add to the vector the indexed tokens within maxDistance of each of
+     * the tokens, or within KGramIndex.autoDistance if maxDistance is negative,
+     * weighting each by the count of the token it is close to divided by
+     * 1 plus its edit distance. */
+              
+      protected void addFuzzy(HashMapVector vector, HashMapVector tokens, int maxDistance) {
+              
+         Iterator mapEntries = tokens.iterator();
+         while (mapEntries.hasNext()) {
+            Map.Entry entry = (Map.Entry)mapEntries.next();
+            String token = (String)entry.getKey();
+            double count = ((Weight)entry.getValue()).getValue();
+            int distance = (maxDistance < 0) ? KGramIndex.autoDistance(token) : maxDistance;
+            Iterator matches = kGramIndex().expandFuzzy(token, distance).entrySet().iterator();
+            while (matches.hasNext()) {
+               Map.Entry match = (Map.Entry)matches.next();
+               vector.increment((String)match.getKey(), count / (1 + ((Integer)match.getValue()).intValue()));
+            }
+         }
+      }
+   
+    /** Return an index of the k-grams of the tokens in the term dictionary,
+     * rebuilding it if the dictionary has been rebuilt. */
+              
+      public synchronized KGramIndex kGramIndex() {
+              
+         TermDictionary dictionary = termDictionary();
+         if (kGramIndex == null || kGramDictionary != dictionary) {
+            kGramIndex = new KGramIndex(dictionary, KGramIndex.DEFAULT_K);
+            kGramDictionary = dictionary;
+         }
+         return kGramIndex;
+      }
+   
+    /** Return a sorted dictionary of the indexed tokens, rebuilding it if the
+     * index has changed since it was last built. */
+              
+      public synchronized TermDictionary termDictionary() {
+              
+         if (termDictionary == null || termDictionaryVersion != version) {
+            String[] tokens = (String[])tokenHash.keySet().toArray(new String[tokenHash.size()]);
+            Arrays.sort(tokens);
+            termDictionary = new TermDictionary(tokens);
+            termDictionaryVersion = version;
+         }
+         return termDictionary;
+      }
+   
+    /** Return at most n indexed tokens starting with this prefix, in order
+     * of decreasing document frequency, for completing a query as it is
+     * typed.  If tokens are stemmed, the suggestions are stems. */
+              
+      public String[] suggest(String prefix, int n) {
+              
+         return suggester().suggest(prefix.toLowerCase(), n);
+      }
+   
+    /** Return the type-ahead suggestions of the indexed tokens, rebuilding
+     * them if the index has changed since they were last built. */
+              
+      public synchronized Suggester suggester() {
+              
+         if (suggester == null || suggesterVersion != version) {
+            suggester = new Suggester(termStatistics(), Suggester.DEFAULT_K);
+            suggesterVersion = version;
+         }
+         return suggester;
+      }
+   
     /** Perform ranked retrieval on this input query Document. */
               
       public Retrieval[] retrieve(Document doc) {
@@ -266,6 +671,32 @@
               
       public Retrieval[] retrieve(HashMapVector vector) {
               
+         return retrieve(vector, 0);
+      }
+   
+    /** Perform ranked retrieval on this input query Document vector, returning
+     * only the top k retrievals (or all of them if k is not positive).
+     * Results are taken from the queryCache when possible. */
+              
+      public Retrieval[] retrieve(HashMapVector vector, int k) {
+              
+         if (queryCache == null)
+            return rankRetrievals(vector, k);
+      // Equivalent queries for the same number of retrievals share a cache entry
+         String key = QueryCache.makeKey(vector, k);
+         Retrieval[] retrievals = queryCache.get(key, version);
+         if (retrievals == null) {
+            retrievals = rankRetrievals(vector, k);
+            queryCache.put(key, version, retrievals);
+         }
+         return retrievals;
+      }
+   
+    /** Score every document indexed under the tokens of this query vector and
+     * return the top k in ranked order (or all of them if k is not positive). */
+              
+      protected Retrieval[] rankRetrievals(HashMapVector vector, int k) {
+              
       // Create a hashtable to store the retrieved documents.  Keys
       // are docRefs and values are DoubleValues which indicate the
       // partial score accumulated for this document so far.
@@ -290,8 +721,69 @@
       // Finalize the length of the query vector by taking the square-root of the
       // final sum of squares of its token wieghts.
          queryLength = Math.sqrt(queryLength);
-      // Make an array to store the final ranked Retrievals.
-         Retrieval[] retrievals = new Retrieval[retrievalHash.size()];
+         return topRetrievals(retrievalHash, queryLength, k);
+      }
+   
+    /** Normalize the accumulated scores in the retrievalHash into cosine similarities
+     * and return the top k Retrievals in ranked order.
+     * @param retrievalHash The hashtable of retrieved DocumentReferences and their
+     *   accumulated dot products with the query.
+     * @param queryLength The length of the query vector.
+     * @param k The number of retrievals to return, or all of them if not positive.
+     */
+              
+      protected Retrieval[] topRetrievals(HashMap retrievalHash, double queryLength, int k) {
+              
+         int size = k;
+         while (true) {
+            Retrieval[] retrievals = bestRetrievals(retrievalHash, queryLength, size);
+         // Show only the best ranked document of each cluster of near-duplicates
+            if (duplicates != null && !duplicates.skip) {
+               Retrieval[] collapsed = collapseDuplicates(retrievals);
+            // Collapsing can leave fewer than k, so rank more unless all were ranked
+               if (k > 0 && collapsed.length < k && retrievals.length < retrievalHash.size()) {
+                  size = 2 * size;
+                  continue;
+               }
+               retrievals = collapsed;
+            }
+            if (k > 0 && k < retrievals.length) {
+            // Only the top k were requested
+               Retrieval[] topK = new Retrieval[k];
+               System.arraycopy(retrievals, 0, topK, 0, k);
+               return topK;
+            }
+            return retrievals;
+         }
+      }
+   
+    /** Return the ranked retrievals with only the best ranked document of each
+     * cluster of near-duplicates, if near-duplicates are clustered rather than
+     * skipped, and otherwise the retrievals themselves. */
+              
+      protected Retrieval[] collapseDuplicates(Retrieval[] retrievals) {
+              
+         if (duplicates != null && !duplicates.skip)
+            return duplicates.collapse(retrievals);
+         return retrievals;
+      }
+   
+    /** Normalize the accumulated scores in the retrievalHash into cosine similarities
+     * and return the best size of them in ranked order, or all of them if size is
+     * not positive.  Only the best size are kept while scanning, in a heap whose
+     * head is the worst of them, so only they are sorted.
+     * @param retrievalHash The hashtable of retrieved DocumentReferences and their
+     *   accumulated dot products with the query.
+     * @param queryLength The length of the query vector.
+     * @param size The number of retrievals to rank.
+     */
+              
+      protected Retrieval[] bestRetrievals(HashMap retrievalHash, double queryLength, int size) {
+              
+         boolean all = size <= 0 || size >= retrievalHash.size();
+      // Make an array to store the final ranked Retrievals, or a heap of the best so far.
+         Retrieval[] retrievals = all ? new Retrieval[retrievalHash.size()] : null;
+         PriorityQueue heap = all ? null : new PriorityQueue(size, Collections.reverseOrder());
       // Iterate through each of the retreived docuements stored in
       // the final retrievalHash.
          Iterator rmapEntries = retrievalHash.entrySet().iterator();
@@ -304,14 +796,157 @@
          // Normalize score for the lengths of the two document vectors
             score = score / (queryLength * docRef.length);  
          // Add a Retrieval for this document to the result array
-            retrievals[retrievalCount++] = new Retrieval(docRef, score);
+            if (all)
+               retrievals[retrievalCount++] = new Retrieval(docRef, score);
+            else if (heap.size() < size)
+               heap.add(new Retrieval(docRef, score));
+            else if (score > ((Retrieval)heap.peek()).score) {
+            // Replace the worst of the best so far
+               heap.poll();
+               heap.add(new Retrieval(docRef, score));
+            }
          }
+         if (!all)
+            retrievals = (Retrieval[])heap.toArray(new Retrieval[heap.size()]);
       // Sort the retrievals to produce a final ranked list using the
       // Comparator for retrievals that produces a best to worst ordering.
          Arrays.sort(retrievals);
          return retrievals;
       }
    
+    /** Return the TokenInfo with the postings for this token, or null if it is
+     * not indexed. */
+              
+      protected TokenInfo getTokenInfo(String token) {
+              
+         return (TokenInfo)tokenHash.get(token);
+      }
+   
+    /** Retrieve the documents containing this exact phrase, in order of their
+     * similarity to the tokens of the phrase.  Requires a positional index,
+     * returning null otherwise. */
+              
+      public Retrieval[] retrievePhrase(String input) {
+              
+         return (new PhraseQuery(this, input, 0)).retrieve();
+      }
+   
+    /** Retrieve the documents containing all the tokens of the input within a
+     * window of the given number of positions, in order of their similarity
+     * to the tokens of the input.  Requires a positional index, returning
+     * null otherwise. */
+              
+      public Retrieval[] retrieveNear(String input, int window) {
+              
+         return (new PhraseQuery(this, input, window)).retrieve();
+      }
+   
+    /** Retrieve the documents matching this Boolean query, using the operators
+     * AND, OR, NOT, parentheses and "+" (required) and "-" (prohibited)
+     * prefixes, in order of their similarity to the tokens that are not
+     * negated, or null if it has an unmatched ")".  See BooleanQuery. */
+              
+      public Retrieval[] retrieveBoolean(String input) {
+              
+         return (new BooleanQuery(this, input)).retrieve();
+      }
+   
+    /** Perform ranked retrieval on a batch of query vectors at once, returning
+     * the top k retrievals (or all of them if k is not positive) for each.
+     * Queries are grouped by token so that the postings of a token shared by
+     * several queries are traversed only once, updating a separate
+     * accumulator for each of those queries.
+     * @param queryVectors A List of HashMapVector's for the queries.
+     * @param k The number of retrievals to return for each query.
+     * @return The ranked retrievals for each query, in the order of queryVectors.
+     */
+              
+      public Retrieval[][] retrieveBatch(List queryVectors, int k) {
+              
+         int numQueries = queryVectors.size();
+         Retrieval[][] results = new Retrieval[numQueries][];
+      // Cache keys for each query, if results are cached
+         String[] keys = new String[numQueries];
+      // One accumulator of document scores and one sum of squared token
+      // weights for each query
+         HashMap[] retrievalHashes = new HashMap[numQueries];
+         double[] queryLengths = new double[numQueries];
+      // Map each token to the list of (Integer) numbers of the queries it occurs in
+         HashMap tokenQueries = new HashMap();
+         for(int q = 0; q < numQueries; q++) {
+            HashMapVector vector = (HashMapVector)queryVectors.get(q);
+            if (queryCache != null) {
+               keys[q] = QueryCache.makeKey(vector, k);
+               results[q] = queryCache.get(keys[q], version);
+               if (results[q] != null)
+                  continue;
+            }
+            retrievalHashes[q] = new HashMap();
+            Iterator mapEntries = vector.iterator();
+            while (mapEntries.hasNext()) {
+               String token = (String)((Map.Entry)mapEntries.next()).getKey();
+               ArrayList queries = (ArrayList)tokenQueries.get(token);
+               if (queries == null) {
+                  queries = new ArrayList();
+                  tokenQueries.put(token, queries);
+               }
+               queries.add(new Integer(q));
+            }
+         }
+      // Traverse the postings of each token once for all the queries containing it
+         Iterator tokenEntries = tokenQueries.entrySet().iterator();
+         while (tokenEntries.hasNext()) {
+            Map.Entry entry = (Map.Entry)tokenEntries.next();
+            String token = (String)entry.getKey();
+            TokenInfo tokenInfo = getTokenInfo(token);
+            ArrayList queries = (ArrayList)entry.getValue();
+            if (tokenInfo == null) {
+            // A token that is not in the index may still count in the length of each query
+               for(int i = 0; i < queries.size(); i++) {
+                  int q = ((Integer)queries.get(i)).intValue();
+                  queryLengths[q] = queryLengths[q] +
+                     missingTokenWeight(token, ((HashMapVector)queryVectors.get(q)).getWeight(token));
+               }
+               continue;
+            }
+         // If token occurs in every document, it adds nothing to any query
+            if (tokenInfo.idf == 0.0)
+               continue;
+            int numTokenQueries = queries.size();
+            int[] queryNums = new int[numTokenQueries];
+            double[] weights = new double[numTokenQueries];
+            for(int i = 0; i < numTokenQueries; i++) {
+               queryNums[i] = ((Integer)queries.get(i)).intValue();
+            // The weight of a token in a query is its IDF times its count in the query
+               weights[i] = tokenInfo.idf * ((HashMapVector)queryVectors.get(queryNums[i])).getWeight(token);
+               queryLengths[queryNums[i]] = queryLengths[queryNums[i]] + weights[i] * weights[i];
+            }
+            for(int j = 0; j < tokenInfo.occList.size(); j++) {
+               TokenOccurrence occ = (TokenOccurrence)tokenInfo.occList.get(j);
+            // The weight of the token in this document (IDF * occurrence count)
+               double docWeight = tokenInfo.idf * occ.count;
+               for(int i = 0; i < numTokenQueries; i++) {
+                  HashMap retrievalHash = retrievalHashes[queryNums[i]];
+                  DoubleValue val = (DoubleValue)retrievalHash.get(occ.docRef);
+                  if (val == null) {
+                     val = new DoubleValue(0.0);
+                     retrievalHash.put(occ.docRef, val);
+                  }
+                  val.value = val.value + weights[i] * docWeight;
+               }
+            }
+         }
+      // Rank the retrievals of each query that was not already cached
+         for(int q = 0; q < numQueries; q++) {
+            if (results[q] != null)
+               continue;
+            results[q] = topRetrievals(retrievalHashes[q], Math.sqrt(queryLengths[q]), k);
+            if (queryCache != null)
+               queryCache.put(keys[q], version, results[q]);
+         }
+         return results;
+      }
+   
     /** Retrieve the documents indexed by this token in the inverted index,
      * add it to the retrievalHash if needed, and update its running total score.
      * @param token The token in the query to incorporate.
@@ -324,9 +959,13 @@
               
       public double incorporateToken(String token, double count, HashMap retrievalHash) {
               
-         TokenInfo tokenInfo = (TokenInfo)tokenHash.get(token);
-      // If token is not in the index, it adds nothing and its squared weight is 0
-         if (tokenInfo == null) 
+         TokenInfo tokenInfo = getTokenInfo(token);
+      // If token is not in the index it adds nothing, but may still have a
+      // weight in the query if it occurs elsewhere in the collection
+         if (tokenInfo == null)
+            return missingTokenWeight(token, count);
+      // If token occurs in every document, it adds nothing and its squared weight is 0
+         if (tokenInfo.idf == 0.0) 
             return 0.0;
       // The weight of a token in the query is is IDF factor times the number
       // of times it occurs in the query.
@@ -369,11 +1008,189 @@
             if (query.equals(""))
                break;
          // Get the ranked retrievals for this query string and present them
-            HashMapVector queryVector = (new TextStringDocument(query,stem, language)).hashMapVector();
-            Retrieval[] retrievals = retrieve(queryVector);
+            HashMapVector queryVector = queryVector(query);
+            Retrieval[] retrievals = retrieveQuery(query, queryVector);
+            if (retrievals == null) {
+               if (query.startsWith("\""))
+                  System.out.println("Phrase queries need an index with positions, and a proximity must be a number of positions, as in \"new york\"~3");
+               else
+                  System.out.println("Unmatched \")\" in query");
+               continue;
+            }
             presentRetrievals(queryVector,retrievals);
          }
          while(true);
+         if (queryCache != null)
+            System.out.println(queryCache);
+      }
+   
+    /** Return the ranked retrievals for a query entered by the user, or null
+     * if the query is not well formed.  Handles phrase, proximity and Boolean
+     * query syntax as well as ordinary ranked queries.
+     * @param query The text of the query.
+     * @param queryVector The vector of the tokens in the query.
+     */
+              
+      protected Retrieval[] retrieveQuery(String query, HashMapVector queryVector) {
+              
+         int endQuote = query.lastIndexOf('"');
+         if (positional && query.startsWith("\"") && endQuote > 0) {
+         // A query in double quotes is a phrase, or a proximity query if followed by ~N
+            String phrase = query.substring(1, endQuote);
+            String window = query.substring(endQuote + 1).trim();
+            if (window.startsWith("~")) {
+               try {
+                  return retrieveNear(phrase, Integer.parseInt(window.substring(1)));
+               }
+                          
+                  catch (NumberFormatException e) {
+                          
+                  // Not a number of positions
+                     return null;
+                  }
+            }
+            return retrievePhrase(phrase);
+         }
+         if (BooleanQuery.isBoolean(query))
+            return retrieveBoolean(query);
+         return retrieve(queryVector);
+      }
+   
+    /** Return true if a query entered by the user is an ordinary ranked query,
+     * rather than using phrase, proximity or Boolean syntax. */
+              
+      protected boolean isRankedQuery(String query) {
+              
+         if (positional && query.startsWith("\"") && query.lastIndexOf('"') > 0)
+            return false;
+         return !BooleanQuery.isBoolean(query);
+      }
+   
+    /** Return the top k results (or all of them if k is not positive) for a
+     * query entered by the user, or null if the query is not well formed.
+     * Ordinary ranked queries are scored within the budget and only their top
+     * k are ranked; queries with other syntax are answered in full and cut to k.
+     * @param query The text of the query.
+     * @param queryVector The vector of the tokens in the query.
+     * @param k The number of retrievals to return.
+     * @param budget The limits on scoring the query, or null for none.
+     */
+              
+      protected SearchResult retrieveQuery(String query, HashMapVector queryVector, int k, QueryBudget budget) {
+              
+         if (isRankedQuery(query))
+            return retrieve(queryVector, k, budget);
+         Retrieval[] retrievals = retrieveQuery(query, queryVector);
+         if (retrievals == null)
+            return null;
+         if (k > 0 && k < retrievals.length) {
+            Retrieval[] topK = new Retrieval[k];
+            System.arraycopy(retrievals, 0, topK, 0, k);
+            retrievals = topK;
+         }
+         return new SearchResult(retrievals, false, 0);
+      }
+   
+    /** Perform ranked retrieval on this query vector within a budget, returning
+     * the top k retrievals (or all of them if k is not positive).  Tokens are
+     * scored in order of increasing document frequency, so if the budget runs
+     * out it is the least discriminating tokens that are not fully scored.
+     * Only complete results are cached.
+     */
+              
+      public SearchResult retrieve(HashMapVector vector, int k, QueryBudget budget) {
+              
+         long start = System.nanoTime();
+         String key = null;
+         if (queryCache != null) {
+            key = QueryCache.makeKey(vector, k);
+            Retrieval[] cached = queryCache.get(key, version);
+            if (cached != null)
+               return new SearchResult(cached, false, 0);
+         }
+         HashMap retrievalHash = new HashMap();
+         SearchResult result = new SearchResult(null, false, 0);
+         double queryLength = accumulate(vector, retrievalHash, budget, start, result);
+         result.retrievals = topRetrievals(retrievalHash, Math.sqrt(queryLength), k);
+         if (queryCache != null && !result.truncated)
+            queryCache.put(key, version, result.retrievals);
+         return result;
+      }
+   
+    /** Add to the scores in the retrievalHash the dot product of each document
+     * with this query vector, scoring tokens in order of increasing document
+     * frequency until the budget runs out.  The postings scored are added to
+     * those of the result, so several calls can share one budget.
+     * @param vector The query vector.
+     * @param retrievalHash The hashtable of retrieved DocumentReferences and their
+     *   accumulated dot products, which may already hold scores.
+     * @param budget The limits on scoring, or null for none.
+     * @param start The time scoring started, from System.nanoTime().
+     * @param result Counts the postings scored and is marked truncated if
+     *   the budget runs out.
+     * @return The sum of the squares of the weights of the query tokens,
+     *   including those not fully scored, for the length of the query vector.
+     */
+              
+      protected double accumulate(HashMapVector vector, HashMap retrievalHash, QueryBudget budget,
+                                  long start, SearchResult result) {
+              
+      // Get the postings and query weight of each token, and the length of
+      // the whole query so scores stay comparable if scoring stops early
+         TokenInfo[] tokenInfos = new TokenInfo[vector.size()];
+         double[] weights = new double[vector.size()];
+         int numTokens = 0;
+         double queryLength = 0.0;
+         Iterator mapEntries = vector.iterator();
+         while (mapEntries.hasNext()) {
+            Map.Entry entry = (Map.Entry)mapEntries.next();
+            String token = (String)entry.getKey();
+            double count = ((Weight)entry.getValue()).getValue();
+            TokenInfo tokenInfo = getTokenInfo(token);
+            if (tokenInfo == null) {
+               queryLength = queryLength + missingTokenWeight(token, count);
+               continue;
+            }
+            if (tokenInfo.idf == 0.0)
+               continue;
+            tokenInfos[numTokens] = tokenInfo;
+            weights[numTokens] = tokenInfo.idf * count;
+            queryLength = queryLength + weights[numTokens] * weights[numTokens];
+            numTokens++;
+         }
+      // Score the rarest tokens first
+         Integer[] order = new Integer[numTokens];
+         for(int i = 0; i < numTokens; i++)
+            order[i] = new Integer(i);
+         final TokenInfo[] infos = tokenInfos;
+         Arrays.sort(order, 
+                        new Comparator() {
+                           public int compare(Object o1, Object o2) {
+                              return infos[((Integer)o1).intValue()].occList.size() -
+                                 infos[((Integer)o2).intValue()].occList.size();
+                           }
+                        });
+         long postings = result.postingsScored;
+         for(int j = 0; j < numTokens && !result.truncated; j++) {
+            TokenInfo tokenInfo = tokenInfos[order[j].intValue()];
+            double weight = weights[order[j].intValue()];
+            for(int i = 0; i < tokenInfo.occList.size(); i++) {
+               if (budget != null && budget.exceeded(start, postings)) {
+                  result.truncated = true;
+                  break;
+               }
+               TokenOccurrence occ = (TokenOccurrence)tokenInfo.occList.get(i);
+               DoubleValue val = (DoubleValue)retrievalHash.get(occ.docRef);
+               if (val == null) {
+                  val = new DoubleValue(0.0);
+                  retrievalHash.put(occ.docRef, val);
+               }
+               val.value = val.value + weight * tokenInfo.idf * occ.count;
+               postings++;
+            }
+         }
+         result.postingsScored = postings;
+         return queryLength;
       }
    
     /** Print out a ranked set of retrievals. Show the file name and score for
@@ -499,6 +1316,14 @@
      * "-html" to specify HTML files whose HTML tags should be removed.
      * "-stem" to specify tokens should be stemmed with Porter stemmer.
      * "-feedback" to allow relevance feedback from the user.
+     * "-cache" to cache the retrievals of repeated queries.
+     * "-positional" to index token positions for phrase queries ("new york")
+     * and proximity queries ("new york"~3).
+     * "-fuzzy" to match query words that are not indexed to the indexed
+     * tokens within a small edit distance of them.
+     * "-forward" to keep document vectors in memory for relevance feedback.
+     * "-duplicates skip" or "-duplicates collapse" to leave out near-duplicate
+     * documents, or to index them and show only the best of each group.
      */
               
       public static void main(String[] args) {
@@ -507,7 +1332,8 @@
          String dirName = args[args.length - 2];
          String language = args[args.length - 1];
          short docType = DocumentIterator.TYPE_TEXT;
-         boolean stem = false, feedback = false;
+         boolean stem = false, feedback = false, cache = false, positional = false, fuzzy = false, forward = false;
+         NearDuplicateDetector duplicates = null;
          for(int i = 0; i < args.length - 1; i++) {	
             String flag = args[i];
             if (flag.equals("-html"))
@@ -519,6 +1345,23 @@
             else if (flag.equals("-feedback"))
             // Use relevance feedback
                feedback = true;
+            else if (flag.equals("-cache"))
+            // Cache retrievals of repeated queries
+               cache = true;
+            else if (flag.equals("-positional"))
+            // Index token positions
+               positional = true;
+            else if (flag.equals("-fuzzy"))
+            // Expand misspelled query words
+               fuzzy = true;
+            else if (flag.equals("-forward"))
+            // Keep a forward index of document vectors
+               forward = true;
+            else if (flag.equals("-duplicates")) {
+            // Skip or collapse near-duplicate documents
+               duplicates = new NearDuplicateDetector(NearDuplicateDetector.DEFAULT_MIN_SIMILARITY,
+                                                      args[++i].equals("skip"));
+            }
             else {
                System.out.println("\nUnknown flag: " + flag);
                System.exit(1);
@@ -526,7 +1369,13 @@
          }
       // Create an inverted index for the files in the given directory.
       
-         InvertedIndex index = new InvertedIndex(new File(dirName), docType, stem, feedback, language);
+         InvertedIndex index = new InvertedIndex(new File(dirName), docType, stem, feedback, language, positional,
+                                                 duplicates);
+         index.fuzzy = fuzzy;
+         if (forward)
+            index.enableForwardIndex();
+         if (cache)
+            index.enableQueryCache(QueryCache.DEFAULT_MAX_ENTRIES, QueryCache.DEFAULT_MAX_BYTES);
       // index.print();
       // Interactively process queries to this index.
          index.processQueries();
@@ -0,0 +1,257 @@
+package eduir.ir.vsr;
+
+import java.util.*;
+
+/**
+ * An index from the k-grams (substrings of k characters) of the tokens in
+ * a TermDictionary to the ids of the tokens containing them, for finding
+ * the tokens within a small edit distance of a misspelled word.  Tokens are
+ * padded with "$" at both ends, so a token of n characters has n+1-k+2
+ * k-grams including ones for its first and last characters.
+ *
+ * Each insertion, deletion or substitution changes at most k of the k-grams
+ * of a word, so a token within edit distance d of a word must contain all
+ * but k*d of the word's distinct k-grams and differ from it in length by at
+ * most d.  The ids of the tokens containing each k-gram are kept separately
+ * for each token length, so only the lists for lengths within d of the
+ * word are read.  They are merged with a heap, and only tokens sharing
+ * enough k-grams are checked by computing their edit distance, which stops
+ * as soon as it must exceed d.  A word too short for its k-grams to rule
+ * out any token is allowed only the largest distance at which they do, so
+ * the whole dictionary is never scanned.
+ */
+
+public class KGramIndex {
+
+    /** The default length of k-grams */
+    public static final int DEFAULT_K = 2;
+
+    /** The largest edit distance allowed in fuzzy queries */
+    public static final int MAX_DISTANCE = 2;
+
+    /** Tokens at least this long share the list of this length */
+    public static final int MAX_LENGTH = Byte.MAX_VALUE;
+
+    /** The dictionary of tokens */
+    protected TermDictionary dictionary;
+
+    /** The length of k-grams */
+    protected int k;
+
+    /** A HashMap mapping each k-gram to an int[][] giving, for each token
+     * length up to MAX_LENGTH, the ids of the tokens of that length
+     * containing it in increasing order, or null if there are none */
+    protected HashMap gramHash = new HashMap();
+
+    /** Index the k-grams of the tokens in a dictionary */
+    public KGramIndex(TermDictionary dictionary, int k) {
+	this.dictionary = dictionary;
+	this.k = k;
+	int size = dictionary.size();
+	// Collect the ids for each k-gram and length in growable arrays, with
+	// their sizes by length in gramSizes
+	HashMap gramSizes = new HashMap();
+	int blockSize = 4096;
+	for(int start = 0; start < size; start = start + blockSize) {
+	    String[] tokens = dictionary.terms(start, Math.min(size, start + blockSize));
+	    for(int i = 0; i < tokens.length; i++) {
+		int id = start + i;
+		int length = Math.min(tokens[i].length(), MAX_LENGTH);
+		String[] grams = grams(tokens[i], k);
+		for(int j = 0; j < grams.length; j++) {
+		    int[][] lists = (int[][])gramHash.get(grams[j]);
+		    int[] sizes = (int[])gramSizes.get(grams[j]);
+		    if (lists == null || lists.length <= length) {
+			int[][] newLists = new int[length + 1][];
+			int[] newSizes = new int[length + 1];
+			if (lists != null) {
+			    System.arraycopy(lists, 0, newLists, 0, lists.length);
+			    System.arraycopy(sizes, 0, newSizes, 0, sizes.length);
+			}
+			lists = newLists;
+			sizes = newSizes;
+			gramHash.put(grams[j], lists);
+			gramSizes.put(grams[j], sizes);
+		    }
+		    int[] ids = lists[length];
+		    if (ids == null)
+			ids = new int[4];
+		    else if (sizes[length] == ids.length) {
+			int[] newIds = new int[2 * ids.length];
+			System.arraycopy(ids, 0, newIds, 0, ids.length);
+			ids = newIds;
+		    }
+		    ids[sizes[length]++] = id;
+		    lists[length] = ids;
+		}
+	    }
+	}
+	// Trim the arrays to size
+	Iterator mapEntries = gramHash.entrySet().iterator();
+	while (mapEntries.hasNext()) {
+	    Map.Entry entry = (Map.Entry)mapEntries.next();
+	    int[][] lists = (int[][])entry.getValue();
+	    int[] sizes = (int[])gramSizes.get(entry.getKey());
+	    for(int length = 0; length < lists.length; length++) {
+		if (lists[length] != null && sizes[length] < lists[length].length) {
+		    int[] trimmed = new int[sizes[length]];
+		    System.arraycopy(lists[length], 0, trimmed, 0, sizes[length]);
+		    lists[length] = trimmed;
+		}
+	    }
+	}
+    }
+
+    /** Return the distinct k-grams of a token padded with "$" at both ends */
+    public static String[] grams(String token, int k) {
+	String padded = "$" + token + "$";
+	LinkedHashSet grams = new LinkedHashSet();
+	for(int i = 0; i + k <= padded.length(); i++)
+	    grams.add(padded.substring(i, i + k));
+	return (String[])grams.toArray(new String[grams.size()]);
+    }
+
+    /** Return the tokens within an edit distance of maxDistance of a word,
+     * as a HashMap mapping each token to its (Integer) edit distance.  A word
+     * with so few k-grams that a token sharing none of them could be within
+     * maxDistance is only matched within the largest distance at which it
+     * must share one. */
+    public HashMap expandFuzzy(String word, int maxDistance) {
+	HashMap matches = new HashMap();
+	String[] grams = grams(word, k);
+	maxDistance = Math.min(maxDistance, (grams.length - 1) / k);
+	int minShared = grams.length - k * maxDistance;
+	// A token has one length, so the lists of each length are merged separately
+	int low = Math.min(MAX_LENGTH, Math.max(0, word.length() - maxDistance));
+	int high = Math.min(MAX_LENGTH, word.length() + maxDistance);
+	for(int length = low; length <= high; length++) {
+	    ArrayList lists = new ArrayList();
+	    for(int i = 0; i < grams.length; i++) {
+		int[][] gramLists = (int[][])gramHash.get(grams[i]);
+		if (gramLists != null && length < gramLists.length && gramLists[length] != null)
+		    lists.add(gramLists[length]);
+	    }
+	    if (minShared > 0 && lists.size() >= minShared)
+		mergeLists((int[][])lists.toArray(new int[lists.size()][]), minShared, word, maxDistance, matches);
+	}
+	return matches;
+    }
+
+    /** Add to matches the tokens within maxDistance of the word among those
+     * in at least minShared of the lists.  Such a token must be in one of
+     * the shortest lists.size()-minShared+1 lists, so only those are merged,
+     * with a heap of list numbers ordered by the id at their cursors, and
+     * each id is looked up in the longer lists by binary search. */
+    void mergeLists(int[][] lists, int minShared, String word, int maxDistance, HashMap matches) {
+	Arrays.sort(lists, new Comparator() {
+		public int compare(Object o1, Object o2) {
+		    return ((int[])o1).length - ((int[])o2).length;
+		}
+	    });
+	int numShort = lists.length - minShared + 1;
+	int[] cursors = new int[lists.length];
+	int[] heap = new int[numShort];
+	int heapSize = numShort;
+	for(int i = 0; i < numShort; i++)
+	    heap[i] = i;
+	for(int i = heapSize / 2 - 1; i >= 0; i--)
+	    siftDown(heap, heapSize, i, lists, cursors);
+	while (heapSize > 0) {
+	    int id = lists[heap[0]][cursors[heap[0]]];
+	    int shared = 0;
+	    while (heapSize > 0 && lists[heap[0]][cursors[heap[0]]] == id) {
+		shared++;
+		if (++cursors[heap[0]] == lists[heap[0]].length)
+		    heap[0] = heap[--heapSize];
+		if (heapSize > 0)
+		    siftDown(heap, heapSize, 0, lists, cursors);
+	    }
+	    // Ids come in increasing order, so each search starts at the last
+	    for(int j = numShort; j < lists.length && shared < minShared; j++) {
+		if (shared + lists.length - j < minShared)
+		    break;
+		int pos = Arrays.binarySearch(lists[j], cursors[j], lists[j].length, id);
+		if (pos >= 0) {
+		    shared++;
+		    cursors[j] = pos + 1;
+		}
+		else
+		    cursors[j] = -pos - 1;
+	    }
+	    if (shared >= minShared)
+		addIfClose(matches, word, dictionary.term(id), maxDistance);
+	}
+    }
+
+    /** Move the list number at position i of the heap down to its place
+     * among the first size, ordered by the id at each list's cursor */
+    static void siftDown(int[] heap, int size, int i, int[][] lists, int[] cursors) {
+	int list = heap[i];
+	int id = lists[list][cursors[list]];
+	while (2 * i + 1 < size) {
+	    int child = 2 * i + 1;
+	    if (child + 1 < size && lists[heap[child + 1]][cursors[heap[child + 1]]] < lists[heap[child]][cursors[heap[child]]])
+		child++;
+	    if (lists[heap[child]][cursors[heap[child]]] >= id)
+		break;
+	    heap[i] = heap[child];
+	    i = child;
+	}
+	heap[i] = list;
+    }
+
+    /** Add the token to matches if it is within maxDistance of the word */
+    void addIfClose(HashMap matches, String word, String token, int maxDistance) {
+	if (Math.abs(token.length() - word.length()) > maxDistance)
+	    return;
+	int distance = editDistance(word, token, maxDistance);
+	if (distance <= maxDistance)
+	    matches.put(token, new Integer(distance));
+    }
+
+    /** Return the Levenshtein edit distance between two strings, or
+     * maxDistance+1 if it is greater than maxDistance.  Only the band of the
+     * dynamic programming table within maxDistance of the diagonal is
+     * computed, and computation stops once a whole row exceeds maxDistance. */
+    public static int editDistance(String a, String b, int maxDistance) {
+	int n = a.length(), m = b.length();
+	if (Math.abs(n - m) > maxDistance)
+	    return maxDistance + 1;
+	int infinity = maxDistance + 1;
+	int[] previous = new int[m + 1];
+	int[] current = new int[m + 1];
+	for(int j = 0; j <= m; j++)
+	    previous[j] = Math.min(j, infinity);
+	for(int i = 1; i <= n; i++) {
+	    int low = Math.max(1, i - maxDistance), high = Math.min(m, i + maxDistance);
+	    current[0] = Math.min(i, infinity);
+	    if (low > 1)
+		current[low - 1] = infinity;
+	    int rowMin = current[0];
+	    for(int j = low; j <= high; j++) {
+		int cost = (a.charAt(i - 1) == b.charAt(j - 1)) ? 0 : 1;
+		int distance = previous[j - 1] + cost;
+		distance = Math.min(distance, previous[j] + 1);
+		distance = Math.min(distance, current[j - 1] + 1);
+		current[j] = Math.min(distance, infinity);
+		rowMin = Math.min(rowMin, current[j]);
+	    }
+	    if (high < m)
+		current[high + 1] = infinity;
+	    if (rowMin > maxDistance)
+		return infinity;
+	    int[] swap = previous;
+	    previous = current;
+	    current = swap;
+	}
+	return previous[m];
+    }
+
+    /** Return the edit distance to allow for a misspelled token of this
+     * length: none below 3 characters, 1 up to 5 and 2 beyond */
+    public static int autoDistance(String token) {
+	if (token.length() < 3)
+	    return 0;
+	return (token.length() <= 5) ? 1 : 2;
+    }
+}
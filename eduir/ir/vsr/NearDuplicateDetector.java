@@ -0,0 +1,220 @@
+package eduir.ir.vsr;
+
+import java.util.*;
+
+/**
+ * Finds documents that nearly duplicate documents already indexed, such as
+ * crawled copies of a page that differ only in a date or a menu, so they can
+ * be left out of the index or grouped together and collapsed into one
+ * result (see InvertedIndex.indexDocument and collapseDuplicates).
+ *
+ * Each document is summarized by a MinHash signature of the set of its
+ * tokens: for each of NUM_HASHES hash functions, the smallest hash of any
+ * of its tokens.  Two documents have the same minimum for a hash function
+ * with probability equal to the Jaccard similarity of their token sets
+ * (the size of the intersection over the size of the union), so the
+ * fraction of equal minimums estimates their similarity.  Documents are
+ * near-duplicates if the estimate is at least minSimilarity.
+ *
+ * To find them without comparing every pair, the signature is split into
+ * BANDS bands of ROWS minimums and each band is indexed in a hashtable
+ * (locality-sensitive hashing).  Only documents sharing a whole band are
+ * compared.  Documents with similarity s share some band with probability
+ * 1-(1-s^ROWS)^BANDS: about 0.985 for s=0.8 but under 0.07 for s=0.3.
+ */
+
+public class NearDuplicateDetector {
+
+    /** The number of hash functions in a signature */
+    public static final int NUM_HASHES = 32;
+    /** The number of bands of a signature indexed for lookup */
+    public static final int BANDS = 8;
+    /** The number of minimums in a band */
+    public static final int ROWS = NUM_HASHES / BANDS;
+    /** The default minimum estimated similarity of near-duplicates */
+    public static final double DEFAULT_MIN_SIMILARITY = 0.8;
+
+    /** The seeds distinguishing the hash functions */
+    static final long[] SEEDS = new long[NUM_HASHES];
+    static {
+	Random random = new Random(NUM_HASHES);
+	for(int i = 0; i < NUM_HASHES; i++)
+	    SEEDS[i] = random.nextLong();
+    }
+
+    /** The minimum estimated Jaccard similarity of near-duplicates */
+    public double minSimilarity;
+
+    /** Whether near-duplicates are left out of the index, rather than indexed
+     * in the cluster of the document they duplicate and collapsed in results */
+    public boolean skip;
+
+    /** The signatures of the indexed documents, NUM_HASHES values for each
+     * document in order of document id */
+    protected int[] signatures = new int[1024 * NUM_HASHES];
+
+    /** The id of the first document of the cluster of each indexed document */
+    protected int[] clusters = new int[1024];
+
+    /** The number of indexed documents */
+    protected int numDocs = 0;
+
+    /** For each band, a HashMap from the (Long) hash of the values of the band
+     * to an int[] whose first element is the number of ids that follow it,
+     * the ids of the documents with those values */
+    protected HashMap[] bandTables = new HashMap[BANDS];
+
+    /** The files of the documents left out as near-duplicates */
+    public ArrayList skippedFiles = new ArrayList();
+
+    /** The number of documents indexed in the cluster of an earlier document */
+    public int numClustered = 0;
+
+    /** Create a detector.
+     * @param minSimilarity The minimum estimated Jaccard similarity of near-duplicates.
+     * @param skip Whether to leave near-duplicates out of the index rather than cluster them.
+     */
+    public NearDuplicateDetector(double minSimilarity, boolean skip) {
+	this.minSimilarity = minSimilarity;
+	this.skip = skip;
+	for(int b = 0; b < BANDS; b++)
+	    bandTables[b] = new HashMap();
+    }
+
+    /** Return the MinHash signature of the set of tokens of a document vector */
+    public static int[] minHash(HashMapVector vector) {
+	int[] signature = new int[NUM_HASHES];
+	Arrays.fill(signature, Integer.MAX_VALUE);
+	Iterator tokens = vector.hashMap.keySet().iterator();
+	while (tokens.hasNext()) {
+	    long hash = hash((String)tokens.next());
+	    for(int i = 0; i < NUM_HASHES; i++) {
+		int value = (int)(mix(hash ^ SEEDS[i]) >>> 33);
+		if (value < signature[i])
+		    signature[i] = value;
+	    }
+	}
+	return signature;
+    }
+
+    /** Return a 64-bit FNV-1a hash of a token */
+    public static long hash(String token) {
+	long hash = 0xcbf29ce484222325L;
+	for(int i = 0; i < token.length(); i++) {
+	    hash = hash ^ token.charAt(i);
+	    hash = hash * 0x100000001b3L;
+	}
+	return hash;
+    }
+
+    /** The final mixing step of MurmurHash3, so that every bit of the
+     * result depends on every bit of the value */
+    static long mix(long value) {
+	value = value ^ (value >>> 33);
+	value = value * 0xff51afd7ed558ccdL;
+	value = value ^ (value >>> 33);
+	value = value * 0xc4ceb9fe1a85ec53L;
+	return value ^ (value >>> 33);
+    }
+
+    /** Return the key of a band of a signature starting at offset */
+    static Long bandKey(int[] signatures, int offset, int b) {
+	long key = b;
+	for(int i = b * ROWS; i < (b + 1) * ROWS; i++)
+	    key = mix(key * 31 + signatures[offset + i]);
+	return new Long(key);
+    }
+
+    /** Return the estimated similarity of a signature to that of a document */
+    public double similarity(int[] signature, int docId) {
+	int equal = 0;
+	for(int i = 0; i < NUM_HASHES; i++) {
+	    if (signature[i] == signatures[docId * NUM_HASHES + i])
+		equal++;
+	}
+	return (double)equal / NUM_HASHES;
+    }
+
+    /** Return the id of the indexed document most similar to one with this
+     * signature, if their estimated similarity is at least minSimilarity,
+     * and otherwise -1 */
+    public int findDuplicate(int[] signature) {
+	int best = -1;
+	double bestSimilarity = minSimilarity;
+	for(int b = 0; b < BANDS; b++) {
+	    int[] ids = (int[])bandTables[b].get(bandKey(signature, 0, b));
+	    if (ids == null)
+		continue;
+	    for(int i = 1; i <= ids[0]; i++) {
+		double similarity = similarity(signature, ids[i]);
+		if (similarity > bestSimilarity || (similarity == bestSimilarity && (best < 0 || ids[i] < best))) {
+		    best = ids[i];
+		    bestSimilarity = similarity;
+		}
+	    }
+	}
+	return best;
+    }
+
+    /** Add the next indexed document, whose id must be the number of documents
+     * added before it, in the cluster of the document it duplicates
+     * @param signature The signature of the document.
+     * @param original The id of the document it nearly duplicates, or -1 if none.
+     */
+    public void add(int[] signature, int original) {
+	if (numDocs == clusters.length) {
+	    int[] newSignatures = new int[2 * signatures.length];
+	    System.arraycopy(signatures, 0, newSignatures, 0, signatures.length);
+	    signatures = newSignatures;
+	    int[] newClusters = new int[2 * numDocs];
+	    System.arraycopy(clusters, 0, newClusters, 0, numDocs);
+	    clusters = newClusters;
+	}
+	System.arraycopy(signature, 0, signatures, numDocs * NUM_HASHES, NUM_HASHES);
+	if (original >= 0) {
+	    clusters[numDocs] = clusters[original];
+	    numClustered++;
+	}
+	else
+	    clusters[numDocs] = numDocs;
+	for(int b = 0; b < BANDS; b++) {
+	    Long key = bandKey(signature, 0, b);
+	    int[] ids = (int[])bandTables[b].get(key);
+	    if (ids == null)
+		ids = new int[4];
+	    else if (ids[0] == ids.length - 1) {
+		int[] newIds = new int[2 * ids.length];
+		System.arraycopy(ids, 0, newIds, 0, ids.length);
+		ids = newIds;
+	    }
+	    ids[++ids[0]] = numDocs;
+	    bandTables[b].put(key, ids);
+	}
+	numDocs++;
+    }
+
+    /** Return the id of the first document of the cluster of a document */
+    public int cluster(int docId) {
+	return clusters[docId];
+    }
+
+    /** Return the retrievals, in the same order, without any document in
+     * the same cluster as a document ranked above it */
+    public Retrieval[] collapse(Retrieval[] retrievals) {
+	HashSet seen = new HashSet();
+	ArrayList kept = new ArrayList();
+	for(int i = 0; i < retrievals.length; i++) {
+	    DocumentReference docRef = retrievals[i].docRef;
+	    if (docRef.id < 0 || docRef.id >= numDocs || seen.add(new Integer(clusters[docRef.id])))
+		kept.add(retrievals[i]);
+	}
+	if (kept.size() == retrievals.length)
+	    return retrievals;
+	return (Retrieval[])kept.toArray(new Retrieval[kept.size()]);
+    }
+
+    public String toString() {
+	return "NearDuplicateDetector: " + numDocs + " documents indexed, " +
+	    (skip ? skippedFiles.size() + " near-duplicates skipped" : numClustered + " near-duplicates clustered");
+    }
+}
@@ -0,0 +1,181 @@
+package eduir.ir.vsr;
+
+import java.util.*;
+import eduir.ir.utilities.*;
+
+/** A phrase or proximity query evaluated against a positional InvertedIndex.
+ * An exact phrase query matches documents where the query tokens occur
+ * consecutively in the given order.  A proximity query matches documents where
+ * every query token occurs within a window of the given number of positions,
+ * in any order.  Positions count tokens remaining after stop-word removal, so
+ * stopwords in a phrase are skipped as they are in the documents.
+ *
+ * Candidate documents are found by intersecting the postings of the query
+ * tokens, starting from the rarest token and using the skip pointers of the
+ * other postings to jump to each candidate, so positions are only decoded
+ * for documents containing every token.  Matching documents are ranked by
+ * their usual cosine similarity to the query tokens.
+ */
+
+public class PhraseQuery {
+
+    /** The index to search */
+    protected InvertedIndex index;
+
+    /** The tokens of the query in order, including repeats */
+    protected ArrayList tokens = new ArrayList();
+
+    /** The size of the window within which all tokens must occur, or 0 for an exact phrase */
+    protected int window;
+
+    /** Create a query for these tokens
+     * @param index The positional index to search.
+     * @param input The text of the phrase.
+     * @param window The number of positions within which all tokens must occur, or 0 for an exact phrase.
+     */
+    public PhraseQuery(InvertedIndex index, String input, int window) {
+	this.index = index;
+	this.window = window;
+	Document doc = new TextStringDocument(input, index.stem, index.language);
+	while (doc.hasMoreTokens())
+	    tokens.add(doc.nextToken());
+    }
+
+    /** Return the ranked retrievals of documents matching the query, or null
+     * if the index has no positions */
+    public Retrieval[] retrieve() {
+	int numTokens = tokens.size();
+	if (numTokens == 0)
+	    return new Retrieval[0];
+	// Get the postings for each query token in order
+	TokenInfo[] tokenInfos = new TokenInfo[numTokens];
+	for(int i = 0; i < numTokens; i++) {
+	    tokenInfos[i] = index.getTokenInfo((String)tokens.get(i));
+	    // A token that is not indexed cannot be matched
+	    if (tokenInfos[i] == null)
+		return new Retrieval[0];
+	    if (tokenInfos[i].posList == null)
+		return null;
+	}
+	// Intersect in order of increasing postings length, so the rarest
+	// token proposes the candidate documents
+	Integer[] order = new Integer[numTokens];
+	for(int i = 0; i < numTokens; i++)
+	    order[i] = new Integer(i);
+	final TokenInfo[] infos = tokenInfos;
+	Arrays.sort(order, new Comparator() {
+		public int compare(Object o1, Object o2) {
+		    return infos[((Integer)o1).intValue()].occList.size() -
+			infos[((Integer)o2).intValue()].occList.size();
+		}
+	    });
+	// Weights of the query tokens and the length of the query vector
+	double[] weights = new double[numTokens];
+	HashMapVector queryVector = new HashMapVector();
+	for(int i = 0; i < numTokens; i++)
+	    queryVector.increment((String)tokens.get(i));
+	double queryLength = 0.0;
+	for(int i = 0; i < numTokens; i++) {
+	    weights[i] = tokenInfos[i].idf * queryVector.getWeight((String)tokens.get(i));
+	    // Only count each distinct token once in the query length
+	    if (tokens.indexOf(tokens.get(i)) == i)
+		queryLength = queryLength + weights[i] * weights[i];
+	}
+	queryLength = Math.sqrt(queryLength);
+	ArrayList retrievals = new ArrayList();
+	// Current index into the postings of each token
+	int[] cursors = new int[numTokens];
+	TokenInfo rarest = tokenInfos[order[0].intValue()];
+	while (cursors[order[0].intValue()] < rarest.occList.size()) {
+	    int candidate = ((TokenOccurrence)rarest.occList.get(cursors[order[0].intValue()])).docRef.id;
+	    // Skip every other list forward to the candidate document
+	    int next = candidate;
+	    for(int j = 1; j < numTokens && next == candidate; j++) {
+		int t = order[j].intValue();
+		cursors[t] = tokenInfos[t].skipTo(cursors[t], candidate);
+		if (cursors[t] >= tokenInfos[t].occList.size())
+		    return rankedRetrievals(retrievals);
+		next = ((TokenOccurrence)tokenInfos[t].occList.get(cursors[t])).docRef.id;
+	    }
+	    if (next != candidate) {
+		// Some token does not occur in the candidate, so move the rarest token to the next possibility
+		cursors[order[0].intValue()] = rarest.skipTo(cursors[order[0].intValue()], next);
+		continue;
+	    }
+	    // Every token occurs in the candidate, so check their positions
+	    int[][] positions = new int[numTokens][];
+	    for(int i = 0; i < numTokens; i++)
+		positions[i] = tokenInfos[i].positions(cursors[i]);
+	    if (window == 0 ? phraseMatch(positions) : proximityMatch(positions, window)) {
+		DocumentReference docRef = ((TokenOccurrence)rarest.occList.get(cursors[order[0].intValue()])).docRef;
+		double score = 0.0;
+		for(int i = 0; i < numTokens; i++) {
+		    if (tokens.indexOf(tokens.get(i)) == i) {
+			TokenOccurrence occ = (TokenOccurrence)tokenInfos[i].occList.get(cursors[i]);
+			score = score + weights[i] * tokenInfos[i].idf * occ.count;
+		    }
+		}
+		// Tokens in every document have no weight, so the phrase may score 0
+		retrievals.add(new Retrieval(docRef, (score == 0.0) ? 0.0 : score / (queryLength * docRef.length)));
+	    }
+	    cursors[order[0].intValue()]++;
+	}
+	return index.collapseDuplicates(rankedRetrievals(retrievals));
+    }
+
+    /** Return true if there is a position p in positions[0] such that p+i
+     * occurs in positions[i] for every token i */
+    public static boolean phraseMatch(int[][] positions) {
+	for(int j = 0; j < positions[0].length; j++) {
+	    int start = positions[0][j];
+	    boolean match = true;
+	    for(int i = 1; i < positions.length && match; i++)
+		match = Arrays.binarySearch(positions[i], start + i) >= 0;
+	    if (match)
+		return true;
+	}
+	return false;
+    }
+
+    /** Return true if some position of every token occurs within a span of
+     * at most window positions (so adjacent tokens are within a window of 1) */
+    public static boolean proximityMatch(int[][] positions, int window) {
+	// Sweep through the merged positions keeping the next unused position of
+	// each token; the smallest span covering one position of each token is
+	// always formed by the current positions when the smallest one is advanced
+	int[] next = new int[positions.length];
+	while (true) {
+	    int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE, minToken = 0;
+	    for(int i = 0; i < positions.length; i++) {
+		int position = positions[i][next[i]];
+		if (position < min) {
+		    min = position;
+		    minToken = i;
+		}
+		if (position > max)
+		    max = position;
+	    }
+	    if (max - min <= window && allDistinct(positions, next))
+		return true;
+	    if (++next[minToken] >= positions[minToken].length)
+		return false;
+	}
+    }
+
+    /** Return true unless two tokens are at the same position, which only happens
+     * when a token is repeated in the query and both copies use one occurrence */
+    static boolean allDistinct(int[][] positions, int[] next) {
+	for(int i = 0; i < positions.length; i++)
+	    for(int j = i + 1; j < positions.length; j++)
+		if (positions[i][next[i]] == positions[j][next[j]])
+		    return false;
+	return true;
+    }
+
+    /** Sort a list of Retrievals into a ranked array */
+    protected static Retrieval[] rankedRetrievals(ArrayList retrievals) {
+	Retrieval[] ranked = (Retrieval[])retrievals.toArray(new Retrieval[retrievals.size()]);
+	Arrays.sort(ranked);
+	return ranked;
+    }
+}
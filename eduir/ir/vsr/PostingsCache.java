@@ -0,0 +1,319 @@
+package eduir.ir.vsr;
+
+import java.util.*;
+import eduir.ir.utilities.*;
+
+/** A cache of decoded postings lists (TokenInfo's) for an index whose
+ * postings are stored on disk, so that the postings of frequent query
+ * terms do not have to be read and decoded again for every query.
+ *
+ * Entries are weighted by the estimated memory used by their decoded
+ * postings and the cache is bounded by a total memory budget.  Eviction
+ * follows the W-TinyLFU policy: new entries enter a small LRU "window";
+ * an entry leaving the window is only admitted to the main segmented LRU
+ * (probation and protected segments) if it has been requested more often
+ * than the entries it would displace, as estimated by a compact
+ * count-min sketch of recent access frequencies.  This keeps one-off
+ * terms from flushing out the postings of the hot terms.
+ */
+
+public class PostingsCache {
+
+    /** The default memory budget in bytes */
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    /** Fraction of the budget given to the admission window */
+    public static final double WINDOW_FRACTION = 0.01;
+
+    /** Fraction of the main space given to the protected segment */
+    public static final double PROTECTED_FRACTION = 0.8;
+
+    /** Estimated bytes used by a TokenInfo besides its occurrences */
+    static final int TOKEN_INFO_BYTES = 64;
+
+    /** Estimated bytes used by each TokenOccurrence and its reference in the occList */
+    static final int OCCURRENCE_BYTES = 32;
+
+    /** The memory budget in bytes */
+    protected long maxBytes;
+    /** The memory budget of the window segment */
+    protected long windowMax;
+    /** The memory budget of the protected segment */
+    protected long protectedMax;
+
+    /** Recently added entries in LRU order; maps tokens to Entry's */
+    protected LinkedHashMap window = new LinkedHashMap(16, 0.75f, true);
+    /** Main entries accessed once since being admitted, in LRU order */
+    protected LinkedHashMap probation = new LinkedHashMap(16, 0.75f, true);
+    /** Main entries accessed more than once since being admitted, in LRU order */
+    protected LinkedHashMap protectedSegment = new LinkedHashMap(16, 0.75f, true);
+
+    /** Bytes used by each of the segments */
+    protected long windowBytes = 0, probationBytes = 0, protectedBytes = 0;
+
+    /** Estimates of how often each token has been requested recently */
+    protected FrequencySketch sketch;
+
+    /** Number of requests served from the cache */
+    protected long hits = 0;
+    /** Number of requests that had to be read from disk */
+    protected long misses = 0;
+    /** Number of entries evicted from the cache */
+    protected long evictions = 0;
+    /** Number of entries refused admission to the main segments */
+    protected long rejections = 0;
+    /** Number of compressed postings bytes whose decoding was avoided by a hit */
+    protected long bytesSaved = 0;
+    /** Number of compressed postings bytes decoded on a miss */
+    protected long bytesDecoded = 0;
+    /** Number of queries that used the cache */
+    protected long queries = 0;
+
+    /** A cached postings list with its weight and compressed size */
+    static class Entry {
+	TokenInfo tokenInfo;
+	long weight;
+	int encodedBytes;
+
+	Entry(TokenInfo tokenInfo, long weight, int encodedBytes) {
+	    this.tokenInfo = tokenInfo;
+	    this.weight = weight;
+	    this.encodedBytes = encodedBytes;
+	}
+    }
+
+    /** Create a cache with the given memory budget in bytes */
+    public PostingsCache(long maxBytes) {
+	this.maxBytes = maxBytes;
+	windowMax = Math.max(1, (long)(WINDOW_FRACTION * maxBytes));
+	protectedMax = (long)(PROTECTED_FRACTION * (maxBytes - windowMax));
+	// Size the sketch for roughly the number of average-sized lists that fit
+	sketch = new FrequencySketch((int)Math.min(1 << 20, Math.max(256, maxBytes / 1024)));
+    }
+
+    /** Estimate the memory used by a decoded postings list */
+    public static long weight(TokenInfo tokenInfo) {
+	return TOKEN_INFO_BYTES + (long)OCCURRENCE_BYTES * tokenInfo.occList.size();
+    }
+
+    /** Return the cached postings for this token, or null if not cached */
+    public synchronized TokenInfo get(String token) {
+	sketch.increment(token);
+	Entry entry = (Entry)window.get(token);
+	if (entry == null) {
+	    entry = (Entry)probation.remove(token);
+	    if (entry != null) {
+		// A second access while on probation promotes the entry
+		probationBytes = probationBytes - entry.weight;
+		protectedSegment.put(token, entry);
+		protectedBytes = protectedBytes + entry.weight;
+		demoteProtected();
+	    }
+	    else
+		entry = (Entry)protectedSegment.get(token);
+	}
+	if (entry == null) {
+	    misses++;
+	    return null;
+	}
+	hits++;
+	bytesSaved = bytesSaved + entry.encodedBytes;
+	return entry.tokenInfo;
+    }
+
+    /** Add the postings for this token just decoded from encodedBytes bytes on disk */
+    public synchronized void put(String token, TokenInfo tokenInfo, int encodedBytes) {
+	bytesDecoded = bytesDecoded + encodedBytes;
+	if (window.containsKey(token) || probation.containsKey(token) || protectedSegment.containsKey(token))
+	    return;
+	Entry entry = new Entry(tokenInfo, weight(tokenInfo), encodedBytes);
+	window.put(token, entry);
+	windowBytes = windowBytes + entry.weight;
+	// Entries pushed out of the window compete for admission to the main segments
+	while (windowBytes > windowMax && !window.isEmpty()) {
+	    Iterator entries = window.entrySet().iterator();
+	    Map.Entry candidate = (Map.Entry)entries.next();
+	    entries.remove();
+	    Entry candidateEntry = (Entry)candidate.getValue();
+	    windowBytes = windowBytes - candidateEntry.weight;
+	    admit((String)candidate.getKey(), candidateEntry);
+	}
+    }
+
+    /** Admit this candidate leaving the window to the probation segment if it is
+     * more frequently used than the least recently used entries it would evict. */
+    protected void admit(String token, Entry candidate) {
+	long mainMax = maxBytes - windowMax;
+	if (candidate.weight > mainMax) {
+	    rejections++;
+	    return;
+	}
+	long needed = probationBytes + protectedBytes + candidate.weight - mainMax;
+	if (needed > 0) {
+	    // Find the victims, first from probation and then from protected
+	    int candidateFrequency = sketch.frequency(token);
+	    ArrayList victims = new ArrayList();
+	    long freed = 0;
+	    Iterator entries = probation.entrySet().iterator();
+	    boolean inProtected = false;
+	    while (freed < needed) {
+		if (!inProtected && !entries.hasNext()) {
+		    entries = protectedSegment.entrySet().iterator();
+		    inProtected = true;
+		}
+		Map.Entry victim = (Map.Entry)entries.next();
+		if (sketch.frequency((String)victim.getKey()) >= candidateFrequency) {
+		    // The cached entries are at least as popular, so reject the candidate
+		    rejections++;
+		    return;
+		}
+		victims.add(victim.getKey());
+		freed = freed + ((Entry)victim.getValue()).weight;
+	    }
+	    for(int i = 0; i < victims.size(); i++)
+		remove(victims.get(i));
+	}
+	probation.put(token, candidate);
+	probationBytes = probationBytes + candidate.weight;
+    }
+
+    /** Move least recently used protected entries back to probation until the
+     * protected segment is within its budget */
+    protected void demoteProtected() {
+	Iterator entries = protectedSegment.entrySet().iterator();
+	while (protectedBytes > protectedMax && entries.hasNext()) {
+	    Map.Entry mapEntry = (Map.Entry)entries.next();
+	    Entry entry = (Entry)mapEntry.getValue();
+	    entries.remove();
+	    protectedBytes = protectedBytes - entry.weight;
+	    probation.put(mapEntry.getKey(), entry);
+	    probationBytes = probationBytes + entry.weight;
+	}
+    }
+
+    /** Evict the entry for this token from the main segments */
+    protected void remove(Object token) {
+	Entry entry = (Entry)probation.remove(token);
+	if (entry != null)
+	    probationBytes = probationBytes - entry.weight;
+	else {
+	    entry = (Entry)protectedSegment.remove(token);
+	    protectedBytes = protectedBytes - entry.weight;
+	}
+	evictions++;
+    }
+
+    /** Record that a query has been processed using this cache */
+    public synchronized void recordQuery() {
+	queries++;
+    }
+
+    /** Remove all cached postings */
+    public synchronized void clear() {
+	window.clear();
+	probation.clear();
+	protectedSegment.clear();
+	windowBytes = probationBytes = protectedBytes = 0;
+    }
+
+    /** Return the number of cached postings lists */
+    public synchronized int size() {
+	return window.size() + probation.size() + protectedSegment.size();
+    }
+
+    /** Return the estimated number of bytes used by cached postings */
+    public synchronized long bytes() {
+	return windowBytes + probationBytes + protectedBytes;
+    }
+
+    /** Return the fraction of requests served from the cache */
+    public synchronized double hitRate() {
+	if (hits + misses == 0)
+	    return 0.0;
+	return (double)hits / (hits + misses);
+    }
+
+    /** Return the average number of compressed postings bytes per query whose
+     * decoding was avoided by the cache */
+    public synchronized double bytesSavedPerQuery() {
+	if (queries == 0)
+	    return 0.0;
+	return (double)bytesSaved / queries;
+    }
+
+    /** Return the average number of compressed postings bytes per query that
+     * still had to be decoded */
+    public synchronized double bytesDecodedPerQuery() {
+	if (queries == 0)
+	    return 0.0;
+	return (double)bytesDecoded / queries;
+    }
+
+    /** Return a summary of the cache metrics */
+    public synchronized String toString() {
+	return "Postings cache: " + size() + " lists, " + bytes() + " of " + maxBytes + " bytes; " +
+	    hits + " hits, " + misses + " misses (hit rate " + MoreMath.roundTo(100*hitRate(), 2) + "%), " +
+	    evictions + " evictions, " + rejections + " rejections; " + queries + " queries, " +
+	    MoreMath.roundTo(bytesSavedPerQuery(), 1) + " decode bytes saved and " +
+	    MoreMath.roundTo(bytesDecodedPerQuery(), 1) + " decoded per query";
+    }
+
+    /** A count-min sketch of 4-bit access counters used to estimate how often a
+     * token has been requested.  All counters are halved periodically so that
+     * the estimates favor recent requests. */
+    static class FrequencySketch {
+	/** Number of hash functions (rows) */
+	static final int DEPTH = 4;
+	/** Largest value of a counter */
+	static final int MAX_COUNT = 15;
+	/** Seeds for the hash functions of each row */
+	static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+	/** The counters, DEPTH rows of width counters */
+	byte[] table;
+	/** Number of counters in each row, a power of two */
+	int width;
+	/** Number of increments before all counters are halved */
+	int sampleSize;
+	/** Number of increments since the last halving */
+	int additions = 0;
+
+	FrequencySketch(int expectedEntries) {
+	    width = 1;
+	    while (width < expectedEntries)
+		width = width * 2;
+	    table = new byte[DEPTH * width];
+	    sampleSize = 10 * width;
+	}
+
+	/** Return the counter index in the given row for this token */
+	int index(String token, int row) {
+	    int hash = token.hashCode() * SEEDS[row];
+	    hash = hash ^ (hash >>> 16);
+	    return row * width + (hash & (width - 1));
+	}
+
+	/** Record a request for this token */
+	void increment(String token) {
+	    for(int row = 0; row < DEPTH; row++) {
+		int i = index(token, row);
+		if (table[i] < MAX_COUNT)
+		    table[i]++;
+	    }
+	    if (++additions >= sampleSize) {
+		// Age all counts so that old popularity fades away
+		for(int i = 0; i < table.length; i++)
+		    table[i] = (byte)(table[i] >> 1);
+		additions = additions / 2;
+	    }
+	}
+
+	/** Return the estimated number of recent requests for this token */
+	int frequency(String token) {
+	    int min = MAX_COUNT;
+	    for(int row = 0; row < DEPTH; row++)
+		min = Math.min(min, table[index(token, row)]);
+	    return min;
+	}
+    }
+}
@@ -0,0 +1,137 @@
+package eduir.ir.vsr;
+
+import java.util.*;
+import eduir.ir.utilities.*;
+
+/**
+ * Pseudo-relevance feedback: automatic query expansion that assumes the top
+ * retrievals of a query are relevant, without asking the user (compare
+ * Feedback).  A query is answered in two passes.  The first pass scores the
+ * query as usual.  The vectors of the top numDocs documents (from the
+ * ForwardIndex if the index has one) are combined by the Rocchio formula,
+ * and the numTerms tokens not in the query with the largest weight in the
+ * combination, multiplied by their IDF, are added to the query.  The second
+ * pass scores only the added tokens: since the expanded query is the
+ * original query times ALPHA/maxWeight plus the added tokens, the scores of
+ * the first pass are scaled by ALPHA/maxWeight and the postings of the added
+ * tokens are added to them, so no posting is scored twice.
+ *
+ * Both passes and the feedback between them share one QueryBudget.  If the
+ * budget runs out during the first pass the query is not expanded, and if it
+ * runs out while reading document vectors only the documents read are used.
+ * Requires an index that scores postings through InvertedIndex.accumulate,
+ * such as InvertedIndex or DiskInvertedIndex.
+ */
+
+public class PseudoFeedback {
+
+    /** The default number of top documents assumed relevant */
+    public static final int DEFAULT_DOCS = 10;
+    /** The default number of tokens added to a query */
+    public static final int DEFAULT_TERMS = 20;
+
+    /** The Rocchio weight of the original query */
+    public static double ALPHA = 1;
+    /** The Rocchio weight of the average of the feedback documents */
+    public static double BETA = 0.5;
+
+    /** The index searched */
+    protected InvertedIndex index;
+
+    /** The number of top documents assumed relevant */
+    public int numDocs;
+
+    /** The number of tokens added to a query */
+    public int numTerms;
+
+    /** Create pseudo-relevance feedback for queries to this index.
+     * @param index The index to search.
+     * @param numDocs The number of top documents assumed relevant.
+     * @param numTerms The number of tokens added to a query.
+     */
+    public PseudoFeedback(InvertedIndex index, int numDocs, int numTerms) {
+	this.index = index;
+	this.numDocs = numDocs;
+	this.numTerms = numTerms;
+    }
+
+    /** Retrieve the top k documents (or all of them if k is not positive)
+     * for the expansion of this query within a budget.
+     * @param query The vector of the original query.
+     * @param k The number of retrievals to return.
+     * @param budget The limits on answering the query, or null for none.
+     */
+    public SearchResult retrieve(HashMapVector query, int k, QueryBudget budget) {
+	long start = System.nanoTime();
+	SearchResult result = new SearchResult(null, false, 0);
+	HashMap retrievalHash = new HashMap();
+	double queryLength = index.accumulate(query, retrievalHash, budget, start, result);
+	if (result.truncated || retrievalHash.isEmpty() || (budget != null && budget.outOfTime(start))) {
+	    result.retrievals = index.topRetrievals(retrievalHash, Math.sqrt(queryLength), k);
+	    return result;
+	}
+	Retrieval[] top = index.topRetrievals(retrievalHash, Math.sqrt(queryLength), numDocs);
+	HashMapVector expansion = expansion(query, top, budget, start);
+	// Scale the scores of the first pass to the weight of the query in the expansion
+	double scale = ALPHA / query.maxWeight();
+	Iterator values = retrievalHash.values().iterator();
+	while (values.hasNext()) {
+	    DoubleValue val = (DoubleValue)values.next();
+	    val.value = val.value * scale;
+	}
+	// The added tokens are not in the query, so the squared lengths add
+	queryLength = scale * scale * queryLength + index.accumulate(expansion, retrievalHash, budget, start, result);
+	result.retrievals = index.topRetrievals(retrievalHash, Math.sqrt(queryLength), k);
+	return result;
+    }
+
+    /** Return the numTerms tokens that are not in the query with the largest
+     * Rocchio weights, times IDF, in the vectors of these documents, with
+     * their Rocchio weights.  Stops reading vectors if the budget runs out. */
+    protected HashMapVector expansion(HashMapVector query, Retrieval[] top, QueryBudget budget, long start) {
+	HashMapVector sum = new HashMapVector();
+	int numRead = 0;
+	for(int i = 0; i < top.length; i++) {
+	    if (budget != null && budget.outOfTime(start))
+		break;
+	    HashMapVector vector = index.documentVector(top[i].docRef);
+	    if (vector.size() == 0)
+		continue;
+	    // Normalize each document by its maximum token frequency as in Feedback
+	    sum.addScaled(vector, 1.0 / vector.maxWeight());
+	    numRead++;
+	}
+	// Rank the candidate tokens by the weight they would have in the query
+	final String[] tokens = new String[sum.size()];
+	final double[] weights = new double[sum.size()];
+	final double[] scores = new double[sum.size()];
+	int numCandidates = 0;
+	Iterator mapEntries = sum.iterator();
+	while (mapEntries.hasNext()) {
+	    Map.Entry entry = (Map.Entry)mapEntries.next();
+	    String token = (String)entry.getKey();
+	    double idf = index.idf(token);
+	    if (query.getWeight(token) != 0.0 || idf == 0.0)
+		continue;
+	    tokens[numCandidates] = token;
+	    weights[numCandidates] = BETA * ((Weight)entry.getValue()).getValue() / numRead;
+	    scores[numCandidates] = weights[numCandidates] * idf;
+	    numCandidates++;
+	}
+	Integer[] order = new Integer[numCandidates];
+	for(int i = 0; i < numCandidates; i++)
+	    order[i] = new Integer(i);
+	Arrays.sort(order, new Comparator() {
+		public int compare(Object o1, Object o2) {
+		    int i1 = ((Integer)o1).intValue(), i2 = ((Integer)o2).intValue();
+		    if (scores[i1] != scores[i2])
+			return (scores[i1] > scores[i2]) ? -1 : 1;
+		    return tokens[i1].compareTo(tokens[i2]);
+		}
+	    });
+	HashMapVector expansion = new HashMapVector();
+	for(int i = 0; i < Math.min(numTerms, numCandidates); i++)
+	    expansion.increment(tokens[order[i].intValue()], weights[order[i].intValue()]);
+	return expansion;
+    }
+}
@@ -0,0 +1,53 @@
+package eduir.ir.vsr;
+
+/** Limits on the work done to answer one ranked query, so that a query of
+ * very common tokens cannot hold up others by scoring nearly every posting
+ * in the index.  A budget limits the elapsed time and the number of postings
+ * scored; when either limit is reached scoring stops and the best of the
+ * documents scored so far are returned, marked as truncated (see
+ * SearchResult).  Budgets hold no state, so one can be shared by any
+ * number of queries.
+ */
+
+public class QueryBudget {
+
+    /** The number of postings scored between checks of the time */
+    public static final int CHECK_INTERVAL = 1024;
+
+    /** The maximum time for scoring in nanoseconds, or 0 for no limit */
+    public long maxNanos;
+
+    /** The maximum number of postings to score, or 0 for no limit */
+    public long maxPostings;
+
+    /** Create a budget with these limits
+     * @param maxMillis The maximum time for scoring in milliseconds, or 0 for no limit.
+     * @param maxPostings The maximum number of postings to score, or 0 for no limit.
+     */
+    public QueryBudget(long maxMillis, long maxPostings) {
+	this.maxNanos = maxMillis * 1000000;
+	this.maxPostings = maxPostings;
+    }
+
+    /** Return true if a query that started scoring at startNanos (from
+     * System.nanoTime()) and has scored this many postings must stop.
+     * The time is only checked every CHECK_INTERVAL postings. */
+    public boolean exceeded(long startNanos, long postings) {
+	if (maxPostings > 0 && postings >= maxPostings)
+	    return true;
+	if (maxNanos > 0 && postings % CHECK_INTERVAL == 0)
+	    return System.nanoTime() - startNanos >= maxNanos;
+	return false;
+    }
+
+    /** Return true if a query that started at startNanos (from
+     * System.nanoTime()) has used up its time, for checking between stages
+     * of work other than scoring postings */
+    public boolean outOfTime(long startNanos) {
+	return maxNanos > 0 && System.nanoTime() - startNanos >= maxNanos;
+    }
+
+    public String toString() {
+	return "QueryBudget: maxMillis=" + maxNanos / 1000000 + " maxPostings=" + maxPostings;
+    }
+}
@@ -0,0 +1,193 @@
+package eduir.ir.vsr;
+
+import java.util.*;
+import eduir.ir.utilities.*;
+
+/** A cache of ranked retrievals for recently executed queries, so that
+ * frequently repeated queries do not have to be re-scored against the
+ * inverted index.  Queries are keyed by their length-normalized query
+ * vector (since cosine similarity does not depend on the length of the
+ * query, queries that only differ by a scaling factor share an entry)
+ * together with the number of retrievals requested.
+ *
+ * The least recently used entry is evicted whenever either the number of
+ * entries or the estimated memory used by the cached results exceeds its
+ * bound.  Each cache remembers the version of the index its entries were
+ * computed from and discards all of them as soon as the index changes.
+ */
+
+public class QueryCache {
+
+    /** The default maximum number of cached queries */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /** The default maximum number of bytes used by cached results */
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    /** Estimated number of bytes used by a cache entry besides its key and results */
+    static final int ENTRY_OVERHEAD = 64;
+
+    /** Estimated number of bytes used by each cached Retrieval */
+    static final int RETRIEVAL_BYTES = 40;
+
+    /** The maximum number of queries to cache */
+    protected int maxEntries;
+
+    /** The maximum estimated number of bytes of cached results */
+    protected long maxBytes;
+
+    /** The estimated number of bytes currently used by cached results */
+    protected long bytes = 0;
+
+    /** A LinkedHashMap in access order, mapping query keys to Retrieval[]'s, so that
+     * iteration starts with the least recently used query */
+    protected LinkedHashMap cache = new LinkedHashMap(16, 0.75f, true);
+
+    /** The version of the index from which the cached retrievals were computed */
+    protected long indexVersion = -1;
+
+    /** Number of lookups that found a cached result */
+    protected long hits = 0;
+    /** Number of lookups that did not find a cached result */
+    protected long misses = 0;
+    /** Number of entries evicted to stay within the size bounds */
+    protected long evictions = 0;
+    /** Number of times the whole cache was cleared because the index changed */
+    protected long invalidations = 0;
+
+    /** Create a cache with these bounds
+     * @param maxEntries The maximum number of queries to cache.
+     * @param maxBytes The maximum estimated number of bytes of cached results.
+     */
+    public QueryCache(int maxEntries, long maxBytes) {
+	this.maxEntries = maxEntries;
+	this.maxBytes = maxBytes;
+    }
+
+    /** Create a cache with the default bounds */
+    public QueryCache() {
+	this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    /** Return the cache key for this query vector and number of retrievals.
+     * The tokens are sorted and their weights normalized by the length of the
+     * vector so that equivalent queries produce the same key. */
+    public static String makeKey(HashMapVector vector, int k) {
+	double length = vector.length();
+	// Sort the tokens so the key does not depend on HashMap order
+	Object[] tokens = vector.hashMap.keySet().toArray();
+	Arrays.sort(tokens);
+	StringBuffer key = new StringBuffer();
+	key.append(k);
+	for(int i = 0; i < tokens.length; i++) {
+	    double weight = vector.getWeight((String)tokens[i]);
+	    // Tokens with zero weight do not affect retrieval
+	    if (weight == 0.0)
+		continue;
+	    key.append(' ').append(tokens[i]).append(':').append(weight / length);
+	}
+	return key.toString();
+    }
+
+    /** Return a copy of the cached retrievals for this key, or null if they
+     * are not cached for the given version of the index. */
+    public synchronized Retrieval[] get(String key, long version) {
+	checkVersion(version);
+	Retrieval[] retrievals = (Retrieval[])cache.get(key);
+	if (retrievals == null) {
+	    misses++;
+	    return null;
+	}
+	hits++;
+	// Return a copy so the caller cannot reorder the cached array
+	return (Retrieval[])retrievals.clone();
+    }
+
+    /** Store the retrievals for this key computed from the given version of the index,
+     * evicting least recently used entries as needed to stay within the bounds. */
+    public synchronized void put(String key, long version, Retrieval[] retrievals) {
+	checkVersion(version);
+	long entryBytes = entryBytes(key, retrievals);
+	// Do not let one huge result flush the entire cache
+	if (entryBytes > maxBytes)
+	    return;
+	Retrieval[] old = (Retrieval[])cache.put(key, retrievals.clone());
+	if (old != null)
+	    bytes = bytes - entryBytes(key, old);
+	bytes = bytes + entryBytes;
+	// Evict from the least recently used end until within both bounds
+	Iterator entries = cache.entrySet().iterator();
+	while ((cache.size() > maxEntries || bytes > maxBytes) && entries.hasNext()) {
+	    Map.Entry entry = (Map.Entry)entries.next();
+	    bytes = bytes - entryBytes((String)entry.getKey(), (Retrieval[])entry.getValue());
+	    entries.remove();
+	    evictions++;
+	}
+    }
+
+    /** Clear the cache if it holds retrievals from a different version of the index */
+    protected void checkVersion(long version) {
+	if (version != indexVersion) {
+	    if (!cache.isEmpty())
+		invalidations++;
+	    cache.clear();
+	    bytes = 0;
+	    indexVersion = version;
+	}
+    }
+
+    /** Estimate the number of bytes used by a cache entry */
+    protected static long entryBytes(String key, Retrieval[] retrievals) {
+	return ENTRY_OVERHEAD + 2L * key.length() + (long)RETRIEVAL_BYTES * retrievals.length;
+    }
+
+    /** Remove all cached retrievals */
+    public synchronized void clear() {
+	cache.clear();
+	bytes = 0;
+    }
+
+    /** Return the number of cached queries */
+    public synchronized int size() {
+	return cache.size();
+    }
+
+    /** Return the estimated number of bytes used by cached results */
+    public synchronized long bytes() {
+	return bytes;
+    }
+
+    /** Return the number of lookups that found a cached result */
+    public synchronized long getHits() {
+	return hits;
+    }
+
+    /** Return the number of lookups that did not find a cached result */
+    public synchronized long getMisses() {
+	return misses;
+    }
+
+    /** Return the number of entries evicted to stay within the bounds */
+    public synchronized long getEvictions() {
+	return evictions;
+    }
+
+    /** Return the number of times the cache was cleared due to an index change */
+    public synchronized long getInvalidations() {
+	return invalidations;
+    }
+
+    /** Return the fraction of lookups that found a cached result */
+    public synchronized double hitRate() {
+	if (hits + misses == 0)
+	    return 0.0;
+	return (double)hits / (hits + misses);
+    }
+
+    /** Return a summary of the cache metrics */
+    public synchronized String toString() {
+	return "Query cache: " + cache.size() + " queries, " + bytes + " bytes; " +
+	    hits + " hits, " + misses + " misses (hit rate " + MoreMath.roundTo(100*hitRate(), 2) + "%), " +
+	    evictions + " evictions, " + invalidations + " invalidations";
+    }
+}
@@ -0,0 +1,335 @@
+package eduir.ir.vsr;
+
+import java.io.*;
+import java.util.*;
+import eduir.ir.utilities.*;
+
+/**
+ * Builds an on-disk index (see DiskInvertedIndex) with single-pass
+ * in-memory indexing (SPIMI), for corpora whose postings do not fit in
+ * memory.  Documents are indexed into an in-memory dictionary until its
+ * estimated size reaches a memory budget; the dictionary is then sorted
+ * by token and spilled to a run file on disk and indexing continues with
+ * an empty dictionary.  Finally the runs are merged with a k-way merge
+ * into the postings format of DiskInvertedIndex, computing IDF weights
+ * and document vector lengths as each token is merged.
+ *
+ * Memory use is bounded by the budget plus the postings of one token in
+ * one run and a length for each document, however large the corpus.
+ */
+
+public class SPIMIIndexer {
+
+    /** The default memory budget for the in-memory dictionary, in bytes */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /** Estimated bytes for a token in the dictionary, besides its characters */
+    static final int TOKEN_OVERHEAD = 96;
+    /** Estimated bytes for each posting, allowing for the growth of its array */
+    static final int POSTING_BYTES = 12;
+
+    /** The directory of files to index */
+    protected File dirFile;
+    /** The type of documents to index (see DocumentIterator) */
+    protected short docType;
+    /** Whether tokens are stemmed */
+    protected boolean stem;
+    /** The language of the documents */
+    protected String language;
+    /** The directory to write the index to */
+    protected File indexDir;
+    /** The memory budget for the in-memory dictionary, in bytes */
+    protected long maxBytes;
+
+    /** The dictionary of the current run, mapping each token to its RunPostings */
+    protected HashMap runHash = new HashMap();
+    /** The estimated number of bytes used by runHash */
+    protected long runBytes = 0;
+    /** The run files written so far */
+    protected ArrayList runFiles = new ArrayList();
+    /** The number of documents indexed so far, which is the id of the next one */
+    protected int numDocs = 0;
+    /** The file the names of indexed documents are written to, in order */
+    protected File namesFile;
+
+    /** The postings of a token in the current run, as pairs of document id and count */
+    static class RunPostings {
+	int[] values = new int[4];
+	int size = 0;
+
+	void add(int docId, int count) {
+	    if (size + 2 > values.length) {
+		int[] newValues = new int[2 * values.length];
+		System.arraycopy(values, 0, newValues, 0, size);
+		values = newValues;
+	    }
+	    values[size++] = docId;
+	    values[size++] = count;
+	}
+    }
+
+    /** Create a builder for an index of the documents in a directory.
+     * @param dirFile The directory of files to index.
+     * @param docType The type of documents to index (see DocumentIterator).
+     * @param stem Whether tokens should be stemmed with Porter stemmer.
+     * @param language The language of the documents.
+     * @param indexDir The directory to write the index to.
+     * @param maxBytes The memory budget for postings before they are spilled to disk.
+     */
+    public SPIMIIndexer(File dirFile, short docType, boolean stem, String language,
+			File indexDir, long maxBytes) {
+	this.dirFile = dirFile;
+	this.docType = docType;
+	this.stem = stem;
+	this.language = language;
+	this.indexDir = indexDir;
+	this.maxBytes = maxBytes;
+    }
+
+    /** Index the documents and write the index to indexDir */
+    public void build() throws IOException {
+	indexDir.mkdirs();
+	namesFile = new File(indexDir, "names.tmp");
+	DataOutputStream namesOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(namesFile)));
+	DocumentIterator docIter = new DocumentIterator(dirFile, docType, stem, language);
+	System.out.println("Indexing documents in " + dirFile);
+	while (docIter.hasMoreDocuments()) {
+	    FileDocument doc = docIter.nextDocument();
+	    namesOut.writeUTF(doc.file.getPath());
+	    addDocument(numDocs, doc.hashMapVector());
+	    numDocs++;
+	    if (runBytes >= maxBytes)
+		spillRun();
+	}
+	namesOut.close();
+	if (!runHash.isEmpty())
+	    spillRun();
+	System.out.println("Merging " + runFiles.size() + " runs of postings for " + numDocs + " documents");
+	mergeRuns();
+	namesFile.delete();
+	for(int i = 0; i < runFiles.size(); i++)
+	    ((File)runFiles.get(i)).delete();
+    }
+
+    /** Add the tokens of a document vector to the dictionary of the current run */
+    protected void addDocument(int docId, HashMapVector vector) {
+	Iterator mapEntries = vector.iterator();
+	while (mapEntries.hasNext()) {
+	    Map.Entry entry = (Map.Entry)mapEntries.next();
+	    String token = (String)entry.getKey();
+	    int count = (int)((Weight)entry.getValue()).getValue();
+	    RunPostings postings = (RunPostings)runHash.get(token);
+	    if (postings == null) {
+		postings = new RunPostings();
+		runHash.put(token, postings);
+		runBytes = runBytes + TOKEN_OVERHEAD + 2 * token.length();
+	    }
+	    postings.add(docId, count);
+	    runBytes = runBytes + POSTING_BYTES;
+	}
+    }
+
+    /** Write the current run to disk in order of token and empty the dictionary.
+     * Each token is written with its document frequency in the run and its
+     * postings compressed as in DiskInvertedIndex, with gaps from document 0. */
+    protected void spillRun() throws IOException {
+	File runFile = new File(indexDir, "run" + runFiles.size() + ".tmp");
+	runFiles.add(runFile);
+	System.out.println("Writing run of " + runHash.size() + " tokens to " + runFile);
+	String[] tokens = (String[])runHash.keySet().toArray(new String[runHash.size()]);
+	Arrays.sort(tokens);
+	DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile)));
+	out.writeInt(tokens.length);
+	for(int i = 0; i < tokens.length; i++) {
+	    RunPostings postings = (RunPostings)runHash.get(tokens[i]);
+	    int[] values = new int[postings.size];
+	    int lastId = 0;
+	    for(int j = 0; j < postings.size; j = j + 2) {
+		values[j] = postings.values[j] - lastId;
+		values[j + 1] = postings.values[j + 1];
+		lastId = postings.values[j];
+	    }
+	    byte[] bytes = VByte.encode(values);
+	    out.writeUTF(tokens[i]);
+	    out.writeInt(postings.size / 2);
+	    out.writeInt(bytes.length);
+	    out.write(bytes);
+	}
+	out.close();
+	runHash = new HashMap();
+	runBytes = 0;
+    }
+
+    /** Reads the tokens of one run in order during the merge */
+    static class RunReader {
+	DataInputStream in;
+	int number;
+	int tokensLeft;
+	String token;
+	int df;
+
+	RunReader(File file, int number) throws IOException {
+	    in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+	    this.number = number;
+	    tokensLeft = in.readInt();
+	}
+
+	/** Move to the next token of the run, returning false at the end of the run */
+	boolean next() throws IOException {
+	    if (tokensLeft == 0) {
+		in.close();
+		return false;
+	    }
+	    tokensLeft--;
+	    token = in.readUTF();
+	    df = in.readInt();
+	    return true;
+	}
+
+	/** Return the document ids and counts of the current token */
+	int[] postings() throws IOException {
+	    byte[] bytes = new byte[in.readInt()];
+	    in.readFully(bytes);
+	    int[] values = VByte.decode(bytes, 2 * df);
+	    int docId = 0;
+	    for(int i = 0; i < values.length; i = i + 2) {
+		docId = docId + values[i];
+		values[i] = docId;
+	    }
+	    return values;
+	}
+    }
+
+    /** Merge the runs into the dictionary and postings files of the index,
+     * and then write the document list with the resulting vector lengths */
+    protected void mergeRuns() throws IOException {
+	// Order runs by their current token, then by run so documents stay in order
+	PriorityQueue queue = new PriorityQueue(Math.max(1, runFiles.size()), new Comparator() {
+		public int compare(Object o1, Object o2) {
+		    RunReader r1 = (RunReader)o1;
+		    RunReader r2 = (RunReader)o2;
+		    int result = r1.token.compareTo(r2.token);
+		    return (result != 0) ? result : r1.number - r2.number;
+		}
+	    });
+	for(int i = 0; i < runFiles.size(); i++) {
+	    RunReader reader = new RunReader((File)runFiles.get(i), i);
+	    if (reader.next())
+		queue.add(reader);
+	}
+	double N = numDocs;
+	double[] lengths = new double[numDocs];
+	File termsFile = new File(indexDir, DiskInvertedIndex.TERMS_FILE);
+	DataOutputStream termsOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(termsFile)));
+	BufferedOutputStream postingsOut = new BufferedOutputStream(
+	    new FileOutputStream(new File(indexDir, DiskInvertedIndex.POSTINGS_FILE)));
+	// The number of tokens is filled in once the merge is done
+	termsOut.writeInt(0);
+	int numTerms = 0;
+	long offset = 0;
+	ArrayList readers = new ArrayList();
+	ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	while (!queue.isEmpty()) {
+	    // Take every run containing the smallest token, in order of run
+	    readers.clear();
+	    String token = ((RunReader)queue.peek()).token;
+	    int df = 0;
+	    while (!queue.isEmpty() && ((RunReader)queue.peek()).token.equals(token)) {
+		RunReader reader = (RunReader)queue.poll();
+		readers.add(reader);
+		df = df + reader.df;
+	    }
+	    double idf = Math.log(N/df);
+	    // Copy the postings of each run in turn, so only one is in memory at a time
+	    int numBytes = 0;
+	    int lastId = 0;
+	    for(int i = 0; i < readers.size(); i++) {
+		RunReader reader = (RunReader)readers.get(i);
+		int[] values = reader.postings();
+		buffer.reset();
+		for(int j = 0; j < values.length; j = j + 2) {
+		    VByte.write(buffer, values[j] - lastId);
+		    VByte.write(buffer, values[j + 1]);
+		    lastId = values[j];
+		    // A token with an IDF of 0 adds nothing to document lengths
+		    if (idf != 0.0)
+			lengths[values[j]] = lengths[values[j]] + Math.pow(idf * values[j + 1], 2);
+		}
+		buffer.writeTo(postingsOut);
+		numBytes = numBytes + buffer.size();
+		if (reader.next())
+		    queue.add(reader);
+	    }
+	    termsOut.writeUTF(token);
+	    termsOut.writeDouble(idf);
+	    termsOut.writeInt(df);
+	    termsOut.writeLong(offset);
+	    termsOut.writeInt(numBytes);
+	    offset = offset + numBytes;
+	    numTerms++;
+	}
+	termsOut.close();
+	postingsOut.close();
+	RandomAccessFile terms = new RandomAccessFile(termsFile, "rw");
+	terms.writeInt(numTerms);
+	terms.close();
+	writeDocuments(lengths);
+	System.out.println("Indexed " + numDocs + " documents with " + numTerms + " unique terms.");
+    }
+
+    /** Write the document list of the index from the saved document names
+     * and the sums of their squared token weights */
+    protected void writeDocuments(double[] lengths) throws IOException {
+	DataInputStream namesIn = new DataInputStream(new BufferedInputStream(new FileInputStream(namesFile)));
+	DataOutputStream docsOut = new DataOutputStream(new BufferedOutputStream(
+	    new FileOutputStream(new File(indexDir, DiskInvertedIndex.DOCS_FILE))));
+	docsOut.writeShort(docType);
+	docsOut.writeBoolean(stem);
+	docsOut.writeUTF(language);
+	docsOut.writeInt(numDocs);
+	for(int i = 0; i < numDocs; i++) {
+	    docsOut.writeUTF(namesIn.readUTF());
+	    docsOut.writeDouble(Math.sqrt(lengths[i]));
+	}
+	docsOut.close();
+	namesIn.close();
+    }
+
+    /** Build an on-disk index with bounded memory.
+     * Command format: "SPIMIIndexer [-html] [-stem] [-memory BYTES] [DIR] [LANGUAGE] [INDEXDIR]"
+     * indexes the files in DIR and writes an index readable by DiskInvertedIndex
+     * to INDEXDIR, spilling postings to disk whenever they reach BYTES bytes
+     * (default 64MB).
+     */
+    public static void main(String[] args) {
+	String dirName = args[args.length - 3];
+	String language = args[args.length - 2];
+	String indexDirName = args[args.length - 1];
+	short docType = DocumentIterator.TYPE_TEXT;
+	boolean stem = false;
+	long maxBytes = DEFAULT_MAX_BYTES;
+	for(int i = 0; i < args.length - 3; i++) {
+	    String flag = args[i];
+	    if (flag.equals("-html"))
+		docType = DocumentIterator.TYPE_HTML;
+	    else if (flag.equals("-stem"))
+		stem = true;
+	    else if (flag.equals("-memory"))
+		maxBytes = Long.parseLong(args[++i]);
+	    else {
+		System.out.println("\nUnknown flag: " + flag);
+		System.exit(1);
+	    }
+	}
+	SPIMIIndexer indexer = new SPIMIIndexer(new File(dirName), docType, stem, language,
+						new File(indexDirName), maxBytes);
+	try {
+	    indexer.build();
+	}
+	catch (IOException e) {
+	    System.out.println("\nCould not write index: " + e);
+	    System.exit(1);
+	}
+	System.out.println("Wrote index to " + indexDirName);
+    }
+}
@@ -0,0 +1,26 @@
+package eduir.ir.vsr;
+
+/** The ranked retrievals for a query answered within a QueryBudget,
+ * recording whether scoring stopped early because the budget ran out.
+ * The retrievals of a truncated result are the best of the documents
+ * scored before scoring stopped, and their scores may be too low.
+ */
+
+public class SearchResult {
+
+    /** The retrievals in ranked order */
+    public Retrieval[] retrievals;
+
+    /** Whether scoring stopped before every posting of the query was scored */
+    public boolean truncated;
+
+    /** The number of postings scored */
+    public long postingsScored;
+
+    /** Create a result with these values */
+    public SearchResult(Retrieval[] retrievals, boolean truncated, long postingsScored) {
+	this.retrievals = retrievals;
+	this.truncated = truncated;
+	this.postingsScored = postingsScored;
+    }
+}
@@ -0,0 +1,384 @@
+package eduir.ir.vsr;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import com.sun.net.httpserver.*;
+import eduir.ir.utilities.*;
+
+/**
+ * An HTTP server that answers queries to an InvertedIndex, using the HTTP
+ * server built into the JDK.  Serves two endpoints:
+ * "/search?q=QUERY&k=K" returns the top K retrievals for QUERY as JSON,
+ * with their number as "total", accepting the same query syntax as the
+ * interactive query loop;
+ * "/suggest?q=PREFIX&k=K" returns as JSON at most K completions of the
+ * last word of PREFIX by the indexed tokens, most frequent first (see Suggester);
+ * "/metrics" returns as JSON the number of queries answered, the queries
+ * per second over the life of the server and over the last minute, and a
+ * histogram of query latencies.
+ * Requests are handled by a fixed pool of threads, which all share the index.
+ */
+
+public class SearchServer {
+
+    /** The default port to listen on */
+    public static final int DEFAULT_PORT = 8080;
+    /** The default number of threads answering requests */
+    public static final int DEFAULT_THREADS = 16;
+    /** The default number of retrievals returned for a query */
+    public static final int DEFAULT_K = InvertedIndex.MAX_RETRIEVALS;
+
+    /** The index being searched */
+    protected InvertedIndex index;
+
+    /** The underlying HTTP server */
+    protected HttpServer server;
+
+    /** The threads answering requests */
+    protected ExecutorService executor;
+
+    /** The default limits on scoring each ranked query, or null for none */
+    protected QueryBudget budget = null;
+
+    /** Pseudo-relevance feedback applied to every ranked query, or null for none */
+    protected PseudoFeedback pseudoFeedback = null;
+
+    /** The number of queries whose scoring was stopped by their budget */
+    protected long truncatedQueries = 0;
+
+    /** The latencies of answered queries */
+    protected LatencyHistogram latencies = new LatencyHistogram();
+
+    /** The time the server started, in milliseconds */
+    protected long startTime;
+
+    /** The number of queries answered in each of the last 60 seconds, indexed by
+     * the time in seconds modulo 60, with the second each count is for */
+    protected long[] secondCounts = new long[60];
+    protected long[] seconds = new long[60];
+
+    /** Create a server for this index.
+     * @param index The index to search.
+     * @param port The port to listen on.
+     * @param numThreads The number of threads answering requests.
+     */
+    public SearchServer(InvertedIndex index, int port, int numThreads) throws IOException {
+	this.index = index;
+	server = HttpServer.create(new InetSocketAddress(port), 0);
+	executor = Executors.newFixedThreadPool(numThreads);
+	server.setExecutor(executor);
+	server.createContext("/search", new HttpHandler() {
+		public void handle(HttpExchange exchange) throws IOException {
+		    handleSearch(exchange);
+		}
+	    });
+	server.createContext("/suggest", new HttpHandler() {
+		public void handle(HttpExchange exchange) throws IOException {
+		    handleSuggest(exchange);
+		}
+	    });
+	server.createContext("/metrics", new HttpHandler() {
+		public void handle(HttpExchange exchange) throws IOException {
+		    handleMetrics(exchange);
+		}
+	    });
+    }
+
+    /** Set the default limits on scoring each ranked query, or null for none */
+    public void setBudget(QueryBudget budget) {
+	this.budget = budget;
+    }
+
+    /** Expand every ranked query by pseudo-relevance feedback, or not if null.
+     * Enables the forward index of the index searched, so the vectors of
+     * the top documents are not read from their files on every query. */
+    public void setPseudoFeedback(PseudoFeedback pseudoFeedback) {
+	this.pseudoFeedback = pseudoFeedback;
+	if (pseudoFeedback != null && index.forwardIndex() == null)
+	    index.enableForwardIndex();
+    }
+
+    /** Start answering requests */
+    public void start() {
+	startTime = System.currentTimeMillis();
+	server.start();
+    }
+
+    /** Stop answering requests, waiting at most the given number of seconds
+     * for requests in progress */
+    public void stop(int delay) {
+	server.stop(delay);
+	executor.shutdown();
+    }
+
+    /** Answer a query given by the parameters q and k, and optionally
+     * timeoutMs and maxPostings to override the default budget */
+    protected void handleSearch(HttpExchange exchange) throws IOException {
+	long start = System.nanoTime();
+	HashMap params = parseParameters(exchange.getRequestURI().getRawQuery());
+	String query = (String)params.get("q");
+	if (query == null || query.trim().equals("")) {
+	    sendJSON(exchange, 400, "{\"error\":\"missing parameter q\"}");
+	    return;
+	}
+	int k = DEFAULT_K;
+	if (params.get("k") != null) {
+	    try {
+		k = Integer.parseInt((String)params.get("k"));
+	    }
+	    catch (NumberFormatException e) {
+		sendJSON(exchange, 400, "{\"error\":\"k must be a number\"}");
+		return;
+	    }
+	}
+	QueryBudget queryBudget = budget;
+	if (params.get("timeoutMs") != null || params.get("maxPostings") != null) {
+	    try {
+		queryBudget = new QueryBudget(parseLong((String)params.get("timeoutMs")),
+					      parseLong((String)params.get("maxPostings")));
+	    }
+	    catch (NumberFormatException e) {
+		sendJSON(exchange, 400, "{\"error\":\"timeoutMs and maxPostings must be numbers\"}");
+		return;
+	    }
+	}
+	SearchResult result;
+	try {
+	    // Only the top k are ranked, and cached, rather than every match
+	    if (pseudoFeedback != null && index.isRankedQuery(query))
+		result = pseudoFeedback.retrieve(index.queryVector(query), k, queryBudget);
+	    else
+		result = index.retrieveQuery(query, index.queryVector(query), k, queryBudget);
+	}
+	catch (RuntimeException e) {
+	    // Such as postings a DiskInvertedIndex could not read
+	    sendJSON(exchange, 500, "{\"error\":" + jsonString(e.toString()) + "}");
+	    return;
+	}
+	if (result == null) {
+	    sendJSON(exchange, 400, "{\"error\":\"malformed query\"}");
+	    return;
+	}
+	Retrieval[] retrievals = result.retrievals;
+	long elapsed = System.nanoTime() - start;
+	recordQuery(elapsed, result.truncated);
+	StringBuffer json = new StringBuffer();
+	json.append("{\"query\":" + jsonString(query) + ",\"total\":" + retrievals.length +
+		    ",\"truncated\":" + result.truncated + ",\"tookMicros\":" + elapsed / 1000 +
+		    ",\"results\":[");
+	for(int i = 0; i < retrievals.length; i++) {
+	    if (i > 0)
+		json.append(",");
+	    json.append("{\"rank\":" + (i + 1) + ",\"file\":" + jsonString(retrievals[i].docRef.file.getPath()) +
+			",\"score\":" + retrievals[i].score + "}");
+	}
+	json.append("]}");
+	sendJSON(exchange, 200, json.toString());
+    }
+
+    /** Suggest completions of the last word of the parameter q, at most k of them */
+    protected void handleSuggest(HttpExchange exchange) throws IOException {
+	long start = System.nanoTime();
+	HashMap params = parseParameters(exchange.getRequestURI().getRawQuery());
+	String query = (String)params.get("q");
+	if (query == null) {
+	    sendJSON(exchange, 400, "{\"error\":\"missing parameter q\"}");
+	    return;
+	}
+	int k = Suggester.DEFAULT_K;
+	if (params.get("k") != null) {
+	    try {
+		k = Integer.parseInt((String)params.get("k"));
+	    }
+	    catch (NumberFormatException e) {
+		sendJSON(exchange, 400, "{\"error\":\"k must be a number\"}");
+		return;
+	    }
+	}
+	// Complete the last word, keeping the words before it
+	int space = query.lastIndexOf(' ');
+	String prefix = query.substring(space + 1);
+	String[] suggestions = (prefix.equals("")) ? new String[0] : index.suggest(prefix, k);
+	Suggester suggester = index.suggester();
+	StringBuffer json = new StringBuffer();
+	json.append("{\"query\":" + jsonString(query) + ",\"tookMicros\":" + (System.nanoTime() - start) / 1000 +
+		    ",\"suggestions\":[");
+	for(int i = 0; i < suggestions.length; i++) {
+	    if (i > 0)
+		json.append(",");
+	    json.append("{\"text\":" + jsonString(query.substring(0, space + 1) + suggestions[i]) +
+			",\"token\":" + jsonString(suggestions[i]) + ",\"df\":" + suggester.weight(suggestions[i]) + "}");
+	}
+	json.append("]}");
+	sendJSON(exchange, 200, json.toString());
+    }
+
+    /** Report the query rate and latencies */
+    protected void handleMetrics(HttpExchange exchange) throws IOException {
+	double uptime = (System.currentTimeMillis() - startTime) / 1000.0;
+	String json = "{\"queries\":" + latencies.count() +
+	    ",\"uptimeSeconds\":" + uptime +
+	    ",\"qps\":" + (uptime > 0 ? latencies.count() / uptime : 0.0) +
+	    ",\"qpsLastMinute\":" + recentQueries() / 60.0 +
+	    ",\"truncatedQueries\":" + truncatedQueries() +
+	    ",\"latency\":" + latencies.toJSON();
+	if (index.queryCache != null)
+	    json = json + ",\"cacheHitRate\":" + index.queryCache.hitRate();
+	sendJSON(exchange, 200, json + "}");
+    }
+
+    /** Count a query answered in this many nanoseconds */
+    protected synchronized void recordQuery(long nanos, boolean truncated) {
+	latencies.record(nanos);
+	if (truncated)
+	    truncatedQueries++;
+	long second = System.currentTimeMillis() / 1000;
+	int slot = (int)(second % 60);
+	if (seconds[slot] != second) {
+	    seconds[slot] = second;
+	    secondCounts[slot] = 0;
+	}
+	secondCounts[slot]++;
+    }
+
+    /** Return the number of queries whose scoring was stopped by their budget */
+    protected synchronized long truncatedQueries() {
+	return truncatedQueries;
+    }
+
+    /** Parse a number that may be missing, giving 0 */
+    static long parseLong(String s) {
+	return (s == null) ? 0 : Long.parseLong(s);
+    }
+
+    /** Return the number of queries answered in the last 60 seconds */
+    protected synchronized long recentQueries() {
+	long now = System.currentTimeMillis() / 1000;
+	long total = 0;
+	for(int i = 0; i < 60; i++) {
+	    if (now - seconds[i] < 60)
+		total = total + secondCounts[i];
+	}
+	return total;
+    }
+
+    /** Send a JSON response with this status code */
+    protected static void sendJSON(HttpExchange exchange, int status, String json) throws IOException {
+	byte[] bytes = json.getBytes("UTF-8");
+	exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+	exchange.sendResponseHeaders(status, bytes.length);
+	OutputStream out = exchange.getResponseBody();
+	out.write(bytes);
+	out.close();
+    }
+
+    /** Return a HashMap of the decoded parameters of a URL query string */
+    public static HashMap parseParameters(String rawQuery) throws UnsupportedEncodingException {
+	HashMap params = new HashMap();
+	if (rawQuery == null)
+	    return params;
+	StringTokenizer pairs = new StringTokenizer(rawQuery, "&");
+	while (pairs.hasMoreTokens()) {
+	    String pair = pairs.nextToken();
+	    int equals = pair.indexOf('=');
+	    if (equals < 0)
+		params.put(URLDecoder.decode(pair, "UTF-8"), "");
+	    else
+		params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+			   URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+	}
+	return params;
+    }
+
+    /** Return a string as a quoted JSON string */
+    public static String jsonString(String s) {
+	StringBuffer json = new StringBuffer("\"");
+	for(int i = 0; i < s.length(); i++) {
+	    char c = s.charAt(i);
+	    if (c == '"' || c == '\\')
+		json.append("\\" + c);
+	    else if (c < ' ')
+		json.append("\\u" + Integer.toHexString(0x10000 | c).substring(1));
+	    else
+		json.append(c);
+	}
+	return json.append("\"").toString();
+    }
+
+    /** Serve queries to an index over HTTP.
+     * Command format: "SearchServer [OPTION]* [DIR] [LANGUAGE]" indexes the files in DIR.
+     * Command format: "SearchServer [OPTION]* -disk [INDEXDIR]" opens the on-disk index in INDEXDIR.
+     * OPTIONs can be "-port P" for the port to listen on (default 8080),
+     * "-threads T" for the number of threads answering requests (default 16),
+     * "-html" for HTML files, "-stem" to stem tokens, "-positional" to allow
+     * phrase queries, "-cache" to cache the results of recent queries,
+     * "-fuzzy" to match misspelled query words to nearby indexed tokens, and
+     * "-timeout MS" and "-maxPostings N" to limit the time and the number of
+     * postings scored for each ranked query, and "-pseudoFeedback DOCS TERMS"
+     * to expand ranked queries with TERMS tokens from their top DOCS
+     * retrievals (see PseudoFeedback), within the same limits, using the
+     * forward index of document vectors.
+     */
+    public static void main(String[] args) {
+	int port = DEFAULT_PORT, numThreads = DEFAULT_THREADS;
+	short docType = DocumentIterator.TYPE_TEXT;
+	boolean stem = false, positional = false, cache = false, fuzzy = false;
+	long timeout = 0, maxPostings = 0;
+	int feedbackDocs = 0, feedbackTerms = 0;
+	for(int i = 0; i < args.length - 2; i++) {
+	    String flag = args[i];
+	    if (flag.equals("-port"))
+		port = Integer.parseInt(args[++i]);
+	    else if (flag.equals("-threads"))
+		numThreads = Integer.parseInt(args[++i]);
+	    else if (flag.equals("-html"))
+		docType = DocumentIterator.TYPE_HTML;
+	    else if (flag.equals("-stem"))
+		stem = true;
+	    else if (flag.equals("-positional"))
+		positional = true;
+	    else if (flag.equals("-cache"))
+		cache = true;
+	    else if (flag.equals("-fuzzy"))
+		fuzzy = true;
+	    else if (flag.equals("-timeout"))
+		timeout = Long.parseLong(args[++i]);
+	    else if (flag.equals("-maxPostings"))
+		maxPostings = Long.parseLong(args[++i]);
+	    else if (flag.equals("-pseudoFeedback")) {
+		feedbackDocs = Integer.parseInt(args[++i]);
+		feedbackTerms = Integer.parseInt(args[++i]);
+	    }
+	    else {
+		System.out.println("\nUnknown flag: " + flag);
+		System.exit(1);
+	    }
+	}
+	try {
+	    InvertedIndex index;
+	    if (args[args.length - 2].equals("-disk"))
+		index = new DiskInvertedIndex(new File(args[args.length - 1]), PostingsCache.DEFAULT_MAX_BYTES);
+	    else
+		index = new InvertedIndex(new File(args[args.length - 2]), docType, stem, false,
+					  args[args.length - 1], positional);
+	    index.fuzzy = fuzzy;
+	    // Build the suggestions before the first keystroke arrives
+	    index.suggester();
+	    if (cache)
+		index.enableQueryCache(QueryCache.DEFAULT_MAX_ENTRIES, QueryCache.DEFAULT_MAX_BYTES);
+	    SearchServer searchServer = new SearchServer(index, port, numThreads);
+	    if (timeout > 0 || maxPostings > 0)
+		searchServer.setBudget(new QueryBudget(timeout, maxPostings));
+	    if (feedbackDocs > 0)
+		searchServer.setPseudoFeedback(new PseudoFeedback(index, feedbackDocs, feedbackTerms));
+	    searchServer.start();
+	    System.out.println("Serving queries on port " + port);
+	}
+	catch (IOException e) {
+	    System.out.println("\nCould not start server: " + e);
+	    System.exit(1);
+	}
+    }
+}
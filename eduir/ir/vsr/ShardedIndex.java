@@ -0,0 +1,340 @@
+package eduir.ir.vsr;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * An index of the documents in a directory that is split into a number of
+ * independent shards, each an InvertedIndex of part of the documents.
+ * Documents are assigned to shards by a hash of their file name or by
+ * ranges of file names.  Shards are built and searched in parallel, each
+ * on its own thread, and the top retrievals of every shard are merged.
+ *
+ * So that the scores of different shards are comparable, the document
+ * frequency of each token is summed over all shards once they are built,
+ * and every shard weights tokens by the resulting global IDF.  Scores are
+ * then the same as those of a single index of all the documents.
+ *
+ * Documents are numbered across the whole collection, those of each shard
+ * following those of the shards before it, so a document's id is its
+ * position in docRefs here as in any other index, and the forward index
+ * of the collection is kept here rather than in the shards.
+ */
+
+public class ShardedIndex extends InvertedIndex {
+
+    /** The default number of shards */
+    public static final int DEFAULT_NUM_SHARDS = 4;
+
+    /** The shards */
+    protected Shard[] shards;
+
+    /** The threads that build and search the shards */
+    protected ExecutorService executor;
+
+    /** The document frequencies of tokens over all the shards */
+    protected TermStatistics statistics = new TermStatistics();
+
+    /** Selects the files of one shard from a directory, either by a hash of
+     * their names or by splitting the sorted names into contiguous ranges */
+    public static class PartitionFilter implements FilenameFilter {
+	int numShards;
+	int shard;
+	/** For range partitioning, the first name in the shard and the first
+	 * name in the next shard (null for the first and last shards) */
+	String low = null, high = null;
+	boolean range;
+
+	/** Create a filter for the files of this shard
+	 * @param dirFile The directory being partitioned.
+	 * @param numShards The number of shards.
+	 * @param shard The number of this shard, from 0 to numShards-1.
+	 * @param range Whether to partition by ranges of names instead of by hash.
+	 */
+	public PartitionFilter(File dirFile, int numShards, int shard, boolean range) {
+	    this.numShards = numShards;
+	    this.shard = shard;
+	    this.range = range;
+	    if (range) {
+		String[] names = dirFile.list();
+		Arrays.sort(names);
+		int start = shard * names.length / numShards;
+		int end = (shard + 1) * names.length / numShards;
+		if (shard > 0 && start < names.length)
+		    low = names[start];
+		if (shard < numShards - 1 && end < names.length)
+		    high = names[end];
+	    }
+	}
+
+	public boolean accept(File dir, String name) {
+	    if (range)
+		return (low == null || name.compareTo(low) >= 0) && (high == null || name.compareTo(high) < 0);
+	    return (name.hashCode() & Integer.MAX_VALUE) % numShards == shard;
+	}
+    }
+
+    /** An InvertedIndex of the documents of one shard, whose ids are
+     * renumbered by the ShardedIndex once every shard is built */
+    protected static class Shard extends InvertedIndex {
+	/** Index the documents accepted by the filter, leaving IDF to be computed
+	 * from global statistics */
+	Shard(File dirFile, short docType, boolean stem, String language, FilenameFilter filter) {
+	    super();
+	    this.dirFile = dirFile;
+	    this.docType = docType;
+	    this.stem = stem;
+	    this.language = language;
+	    DocumentIterator docIter = new DocumentIterator(dirFile, docType, stem, filter, language);
+	    while (docIter.hasMoreDocuments()) {
+		FileDocument doc = docIter.nextDocument();
+		indexDocument(doc, doc.hashMapVector());
+	    }
+	}
+    }
+
+    /** Create a sharded index of the documents in a directory.
+     * @param dirFile The directory of files to index.
+     * @param docType The type of documents to index (See docType in DocumentIterator)
+     * @param stem Whether tokens should be stemmed with Porter stemmer.
+     * @param feedback Whether relevance feedback should be used.
+     * @param numShards The number of shards to split the documents into.
+     * @param range Whether to partition documents by ranges of file names instead of by hash.
+     */
+    public ShardedIndex(File dirFile, short docType, boolean stem, boolean feedback, String language,
+			int numShards, boolean range) {
+	super();
+	this.dirFile = dirFile;
+	this.docType = docType;
+	this.stem = stem;
+	this.feedback = feedback;
+	this.language = language;
+	executor = Executors.newFixedThreadPool(numShards);
+	System.out.println("Indexing documents in " + dirFile + " in " + numShards + " shards");
+	shards = new Shard[numShards];
+	ArrayList tasks = new ArrayList();
+	for(int s = 0; s < numShards; s++) {
+	    final FilenameFilter filter = new PartitionFilter(dirFile, numShards, s, range);
+	    tasks.add(new Callable() {
+		    public Object call() {
+			return new Shard(ShardedIndex.this.dirFile, ShardedIndex.this.docType,
+					 ShardedIndex.this.stem, ShardedIndex.this.language, filter);
+		    }
+		});
+	}
+	List results = invokeAll(tasks);
+	for(int s = 0; s < numShards; s++) {
+	    shards[s] = (Shard)getResult((Future)results.get(s));
+	    // Number the documents across the collection, which keeps the
+	    // postings of each shard in increasing order of id
+	    for(int i = 0; i < shards[s].docRefs.size(); i++) {
+		DocumentReference docRef = (DocumentReference)shards[s].docRefs.get(i);
+		docRef.id = docRefs.size();
+		docRefs.add(docRef);
+	    }
+	}
+	// Also builds the skip pointers of the shards for the new ids
+	computeGlobalIDF();
+	System.out.println("Indexed " +  docRefs.size() + " documents with " + size() + " unique terms.");
+    }
+
+    /** Sum the document frequency of each token over all the shards and give
+     * every shard the resulting IDF weights */
+    protected void computeGlobalIDF() {
+	version++;
+	statistics = new TermStatistics();
+	for(int s = 0; s < shards.length; s++)
+	    statistics.add(shards[s].termStatistics());
+	for(int s = 0; s < shards.length; s++)
+	    shards[s].applyStatistics(statistics);
+    }
+
+    /** Return the number of tokens indexed in any shard. */
+    public int size() {
+	return statistics.size();
+    }
+
+    /** Return the IDF weight of a token over every shard */
+    public double idf(String token) {
+	return statistics.idf(token);
+    }
+
+    /** Return the document frequencies summed over every shard */
+    public TermStatistics termStatistics() {
+	TermStatistics total = new TermStatistics();
+	total.add(statistics);
+	return total;
+    }
+
+    /** Keep the term vectors of the documents of every shard in one
+     * ForwardIndex of the collection */
+    public void enableForwardIndex() {
+	forwardIndex = new ForwardIndex(termDictionary(), docRefs.size(), shards);
+	forwardIndexVersion = version;
+    }
+
+    /** Return the forward index, rebuilding it from the shards if they have
+     * changed since it was built, or null if it is not enabled */
+    public synchronized ForwardIndex forwardIndex() {
+	if (forwardIndex != null && forwardIndexVersion != version)
+	    enableForwardIndex();
+	return forwardIndex;
+    }
+
+    /** Return a sorted dictionary of the tokens of every shard */
+    public synchronized TermDictionary termDictionary() {
+	if (termDictionary == null || termDictionaryVersion != version) {
+	    String[] tokens = (String[])statistics.dfHash.keySet().toArray(new String[statistics.size()]);
+	    Arrays.sort(tokens);
+	    termDictionary = new TermDictionary(tokens);
+	    termDictionaryVersion = version;
+	}
+	return termDictionary;
+    }
+
+    /** Search every shard in parallel and merge their top k retrievals */
+    protected Retrieval[] rankRetrievals(final HashMapVector vector, final int k) {
+	ArrayList tasks = new ArrayList();
+	for(int s = 0; s < shards.length; s++) {
+	    final Shard shard = shards[s];
+	    tasks.add(new Callable() {
+		    public Object call() {
+			return shard.retrieve(vector, k);
+		    }
+		});
+	}
+	List results = invokeAll(tasks);
+	ArrayList merged = new ArrayList();
+	for(int s = 0; s < shards.length; s++)
+	    merged.addAll(Arrays.asList((Retrieval[])getResult((Future)results.get(s))));
+	return topK(merged, k);
+    }
+
+    /** Search every shard in parallel, each within the budget, and merge their
+     * top k retrievals.  The result is truncated if any shard's is. */
+    public SearchResult retrieve(final HashMapVector vector, final int k, final QueryBudget budget) {
+	ArrayList tasks = new ArrayList();
+	for(int s = 0; s < shards.length; s++) {
+	    final Shard shard = shards[s];
+	    tasks.add(new Callable() {
+		    public Object call() {
+			return shard.retrieve(vector, k, budget);
+		    }
+		});
+	}
+	List results = invokeAll(tasks);
+	ArrayList merged = new ArrayList();
+	boolean truncated = false;
+	long postings = 0;
+	for(int s = 0; s < shards.length; s++) {
+	    SearchResult result = (SearchResult)getResult((Future)results.get(s));
+	    merged.addAll(Arrays.asList(result.retrievals));
+	    truncated = truncated || result.truncated;
+	    postings = postings + result.postingsScored;
+	}
+	return new SearchResult(topK(merged, k), truncated, postings);
+    }
+
+    /** Return the top k of a list of Retrievals in ranked order (or all of
+     * them if k is not positive) */
+    protected static Retrieval[] topK(ArrayList merged, int k) {
+	Retrieval[] retrievals = (Retrieval[])merged.toArray(new Retrieval[merged.size()]);
+	Arrays.sort(retrievals);
+	if (k > 0 && k < retrievals.length) {
+	    Retrieval[] topK = new Retrieval[k];
+	    System.arraycopy(retrievals, 0, topK, 0, k);
+	    return topK;
+	}
+	return retrievals;
+    }
+
+    /** Perform ranked retrieval on a batch of query vectors, searching the
+     * shards in parallel for each query */
+    public Retrieval[][] retrieveBatch(List queryVectors, int k) {
+	Retrieval[][] results = new Retrieval[queryVectors.size()][];
+	for(int q = 0; q < results.length; q++)
+	    results[q] = retrieve((HashMapVector)queryVectors.get(q), k);
+	return results;
+    }
+
+    /** Only ranked queries are supported across shards */
+    protected Retrieval[] retrieveQuery(String query, HashMapVector queryVector) {
+	return retrieve(queryVector);
+    }
+
+    /** Every query is treated as a ranked query across shards */
+    protected boolean isRankedQuery(String query) {
+	return true;
+    }
+
+    /** Stop the threads searching the shards */
+    public void shutdown() {
+	executor.shutdown();
+    }
+
+    /** Run the tasks on the executor and wait for all of them to finish */
+    protected List invokeAll(List tasks) {
+	try {
+	    return executor.invokeAll(tasks);
+	}
+	catch (InterruptedException e) {
+	    System.out.println("\nInterrupted while waiting for shards");
+	    System.exit(1);
+	    return null;
+	}
+    }
+
+    /** Return the result of a finished task */
+    protected static Object getResult(Future future) {
+	try {
+	    return future.get();
+	}
+	catch (Exception e) {
+	    System.out.println("\nShard failed: " + e);
+	    System.exit(1);
+	    return null;
+	}
+    }
+
+    /** Index a directory of files in shards and then interactively accept
+     * retrieval queries.
+     * Command format: "ShardedIndex [OPTION]* [DIR] [LANGUAGE]" where OPTIONs can be
+     * "-shards N" for the number of shards (default 4), "-range" to partition
+     * files by ranges of names instead of by hash, "-html" for HTML files,
+     * "-stem" to stem tokens, "-feedback" to allow relevance feedback and
+     * "-forward" to keep document vectors in memory for feedback.
+     */
+    public static void main(String[] args) {
+	String dirName = args[args.length - 2];
+	String language = args[args.length - 1];
+	short docType = DocumentIterator.TYPE_TEXT;
+	boolean stem = false, feedback = false, range = false, forward = false;
+	int numShards = DEFAULT_NUM_SHARDS;
+	for(int i = 0; i < args.length - 2; i++) {
+	    String flag = args[i];
+	    if (flag.equals("-shards"))
+		numShards = Integer.parseInt(args[++i]);
+	    else if (flag.equals("-range"))
+		range = true;
+	    else if (flag.equals("-html"))
+		docType = DocumentIterator.TYPE_HTML;
+	    else if (flag.equals("-stem"))
+		stem = true;
+	    else if (flag.equals("-feedback"))
+		feedback = true;
+	    else if (flag.equals("-forward"))
+		forward = true;
+	    else {
+		System.out.println("\nUnknown flag: " + flag);
+		System.exit(1);
+	    }
+	}
+	ShardedIndex index = new ShardedIndex(new File(dirName), docType, stem, feedback, language,
+					      numShards, range);
+	if (forward)
+	    index.enableForwardIndex();
+	index.processQueries();
+	index.shutdown();
+    }
+}
@@ -0,0 +1,235 @@
+package eduir.ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Static pruning of an inverted index: removing, once and offline, the
+ * postings least likely to affect the top retrievals of any query, to get
+ * a smaller index that can be kept in memory.  The impact of a posting is
+ * its normalized weight in the document vector (IDF * count / length).
+ * Two criteria are supported:
+ *
+ * Term-centric: for each token, keep the postings whose impact is at
+ * least epsilon times the k-th largest impact of the token, so the top k
+ * documents for any one-token query are unchanged.
+ *
+ * Document-centric: for each document, keep the postings of the given
+ * fraction of its tokens with the largest impacts.
+ *
+ * The pruned index shares its documents with the original and keeps the
+ * original IDF weights and document lengths, so the scores of the postings
+ * that remain do not change.
+ */
+
+public class StaticPruner {
+
+    /** Return a copy of the index keeping, for each token, only the postings
+     * with an impact of at least epsilon times its k-th largest impact.
+     * @param index The index to prune, which is left unchanged.
+     * @param k The number of top postings of each token to keep for certain.
+     * @param epsilon The fraction of the k-th largest impact a posting needs to be kept.
+     */
+    public static InvertedIndex pruneTermCentric(InvertedIndex index, int k, double epsilon) {
+	InvertedIndex pruned = emptyCopy(index);
+	Iterator mapEntries = index.tokenHash.entrySet().iterator();
+	while (mapEntries.hasNext()) {
+	    Map.Entry entry = (Map.Entry)mapEntries.next();
+	    TokenInfo tokenInfo = (TokenInfo)entry.getValue();
+	    int size = tokenInfo.occList.size();
+	    double threshold = 0.0;
+	    if (size > k) {
+		double[] impacts = new double[size];
+		for(int i = 0; i < size; i++)
+		    impacts[i] = impact(tokenInfo, (TokenOccurrence)tokenInfo.occList.get(i));
+		Arrays.sort(impacts);
+		threshold = epsilon * impacts[size - k];
+	    }
+	    copyPostings(pruned, (String)entry.getKey(), tokenInfo, threshold, null);
+	}
+	return pruned;
+    }
+
+    /** Return a copy of the index keeping, for each document, only the
+     * postings of the given fraction of its tokens with the largest impacts.
+     * @param index The index to prune, which is left unchanged.
+     * @param fraction The fraction of the tokens of each document to keep.
+     */
+    public static InvertedIndex pruneDocumentCentric(InvertedIndex index, double fraction) {
+	// Gather the impacts of the tokens of each document, by document id
+	int numDocs = index.docRefs.size();
+	ArrayList[] docImpacts = new ArrayList[numDocs];
+	for(int d = 0; d < numDocs; d++)
+	    docImpacts[d] = new ArrayList();
+	Iterator tokenInfos = index.tokenHash.values().iterator();
+	while (tokenInfos.hasNext()) {
+	    TokenInfo tokenInfo = (TokenInfo)tokenInfos.next();
+	    for(int i = 0; i < tokenInfo.occList.size(); i++) {
+		TokenOccurrence occ = (TokenOccurrence)tokenInfo.occList.get(i);
+		docImpacts[occ.docRef.id].add(new Double(impact(tokenInfo, occ)));
+	    }
+	}
+	// The smallest impact kept in each document
+	double[] thresholds = new double[numDocs];
+	for(int d = 0; d < numDocs; d++) {
+	    int size = docImpacts[d].size();
+	    if (size == 0)
+		continue;
+	    double[] impacts = new double[size];
+	    for(int i = 0; i < size; i++)
+		impacts[i] = ((Double)docImpacts[d].get(i)).doubleValue();
+	    Arrays.sort(impacts);
+	    int keep = Math.max(1, (int)Math.ceil(fraction * size));
+	    thresholds[d] = impacts[size - Math.min(keep, size)];
+	    docImpacts[d] = null;
+	}
+	InvertedIndex pruned = emptyCopy(index);
+	Iterator mapEntries = index.tokenHash.entrySet().iterator();
+	while (mapEntries.hasNext()) {
+	    Map.Entry entry = (Map.Entry)mapEntries.next();
+	    copyPostings(pruned, (String)entry.getKey(), (TokenInfo)entry.getValue(), 0.0, thresholds);
+	}
+	return pruned;
+    }
+
+    /** Return the impact of an occurrence of a token */
+    public static double impact(TokenInfo tokenInfo, TokenOccurrence occ) {
+	if (occ.docRef.length == 0.0)
+	    return 0.0;
+	return tokenInfo.idf * occ.count / occ.docRef.length;
+    }
+
+    /** Return an empty index with the same documents and settings */
+    static InvertedIndex emptyCopy(InvertedIndex index) {
+	InvertedIndex pruned = new InvertedIndex();
+	pruned.dirFile = index.dirFile;
+	pruned.docType = index.docType;
+	pruned.stem = index.stem;
+	pruned.language = index.language;
+	pruned.feedback = index.feedback;
+	pruned.positional = index.positional;
+	pruned.docRefs.addAll(index.docRefs);
+	return pruned;
+    }
+
+    /** Copy to the pruned index the postings of a token with an impact of at
+     * least threshold and, if docThresholds is not null, at least the
+     * threshold of their document.  The token is left out if no postings remain. */
+    static void copyPostings(InvertedIndex pruned, String token, TokenInfo tokenInfo,
+			     double threshold, double[] docThresholds) {
+	TokenInfo prunedInfo = new TokenInfo();
+	prunedInfo.idf = tokenInfo.idf;
+	for(int i = 0; i < tokenInfo.occList.size(); i++) {
+	    TokenOccurrence occ = (TokenOccurrence)tokenInfo.occList.get(i);
+	    double impact = impact(tokenInfo, occ);
+	    if (impact < threshold || (docThresholds != null && impact < docThresholds[occ.docRef.id]))
+		continue;
+	    prunedInfo.occList.add(occ);
+	    if (tokenInfo.posList != null) {
+		if (prunedInfo.posList == null)
+		    prunedInfo.posList = new ArrayList();
+		prunedInfo.posList.add(tokenInfo.posList.get(i));
+	    }
+	}
+	if (prunedInfo.occList.isEmpty())
+	    return;
+	prunedInfo.buildSkips();
+	pruned.tokenHash.put(token, prunedInfo);
+    }
+
+    /** Return the total number of postings in an index */
+    public static long numPostings(InvertedIndex index) {
+	long total = 0;
+	Iterator tokenInfos = index.tokenHash.values().iterator();
+	while (tokenInfos.hasNext())
+	    total = total + ((TokenInfo)tokenInfos.next()).occList.size();
+	return total;
+    }
+
+    /** Return the number of bytes the postings of an index take when
+     * compressed as in DiskInvertedIndex */
+    public static long postingsBytes(InvertedIndex index) {
+	long total = 0;
+	Iterator tokenInfos = index.tokenHash.values().iterator();
+	while (tokenInfos.hasNext())
+	    total = total + DiskInvertedIndex.encodePostings(((TokenInfo)tokenInfos.next()).occList).length;
+	return total;
+    }
+
+    /** Print the sizes of an index before and after pruning */
+    public static void printSizes(InvertedIndex index, InvertedIndex pruned) {
+	long postings = numPostings(index), prunedPostings = numPostings(pruned);
+	long bytes = postingsBytes(index), prunedBytes = postingsBytes(pruned);
+	System.out.println("Tokens:   " + index.size() + " -> " + pruned.size());
+	System.out.println("Postings: " + postings + " -> " + prunedPostings + " (" +
+			   percent(prunedPostings, postings) + "% kept)");
+	System.out.println("Bytes:    " + bytes + " -> " + prunedBytes + " (" +
+			   percent(prunedBytes, bytes) + "% kept)");
+    }
+
+    /** Return part as a percentage of whole, rounded to one decimal place */
+    static double percent(long part, long whole) {
+	return (whole == 0) ? 100.0 : Math.round(1000.0 * part / whole) / 10.0;
+    }
+
+    /** Return the pruned index for the criterion given by the arguments
+     * starting at args[i], either "-term K EPSILON" or "-document FRACTION",
+     * or null if args[i] is neither */
+    public static InvertedIndex prune(InvertedIndex index, String[] args, int i) {
+	if (args[i].equals("-term"))
+	    return pruneTermCentric(index, Integer.parseInt(args[i + 1]), Double.parseDouble(args[i + 2]));
+	if (args[i].equals("-document"))
+	    return pruneDocumentCentric(index, Double.parseDouble(args[i + 1]));
+	return null;
+    }
+
+    /** Index a directory of files, prune the index and write it to disk.
+     * Command format: "StaticPruner [-term K EPSILON | -document FRACTION] [-html] [-stem] [DIR] [LANGUAGE] [INDEXDIR]"
+     * prunes term-centrically, keeping postings with at least EPSILON times the
+     * K-th largest impact of their token, or document-centrically, keeping the
+     * FRACTION of the tokens of each document with the largest impacts.  The
+     * pruned index is written to INDEXDIR in the format read by DiskInvertedIndex.
+     */
+    public static void main(String[] args) {
+	String dirName = args[args.length - 3];
+	String language = args[args.length - 2];
+	String indexDirName = args[args.length - 1];
+	short docType = DocumentIterator.TYPE_TEXT;
+	boolean stem = false;
+	int criterion = -1;
+	for(int i = 0; i < args.length - 3; i++) {
+	    String flag = args[i];
+	    if (flag.equals("-term")) {
+		criterion = i;
+		i = i + 2;
+	    }
+	    else if (flag.equals("-document")) {
+		criterion = i;
+		i = i + 1;
+	    }
+	    else if (flag.equals("-html"))
+		docType = DocumentIterator.TYPE_HTML;
+	    else if (flag.equals("-stem"))
+		stem = true;
+	    else {
+		System.out.println("\nUnknown flag: " + flag);
+		System.exit(1);
+	    }
+	}
+	if (criterion < 0) {
+	    System.out.println("\nGive a pruning criterion: -term K EPSILON or -document FRACTION");
+	    System.exit(1);
+	}
+	InvertedIndex index = new InvertedIndex(new File(dirName), docType, stem, false, language);
+	InvertedIndex pruned = prune(index, args, criterion);
+	printSizes(index, pruned);
+	try {
+	    DiskInvertedIndex.write(pruned, new File(indexDirName));
+	}
+	catch (IOException e) {
+	    System.out.println("\nCould not write index: " + e);
+	    System.exit(1);
+	}
+	System.out.println("Wrote pruned index to " + indexDirName);
+    }
+}
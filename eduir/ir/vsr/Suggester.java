@@ -0,0 +1,213 @@
+package eduir.ir.vsr;
+
+import java.io.*;
+import java.util.*;
+import eduir.ir.utilities.*;
+
+/**
+ * Type-ahead suggestions: the indexed tokens starting with a prefix, most
+ * frequent first.  The tokens are stored in a trie whose every node holds
+ * the ids of the k tokens below it with the largest document frequencies,
+ * computed when the trie is built, so answering a prefix only walks down
+ * one node per character and copies out its list, independent of how many
+ * tokens share the prefix.  A node with a single child and no token of its
+ * own shares the list of its child.
+ */
+
+public class Suggester {
+
+    /** The default number of suggestions kept for each prefix */
+    public static final int DEFAULT_K = 10;
+
+    /** The number of suggestions kept for each prefix */
+    protected int k;
+
+    /** The tokens, in sorted order, identified by their position */
+    protected String[] tokens;
+
+    /** The document frequency of each token, by id */
+    protected int[] weights;
+
+    /** The root of the trie, for the empty prefix */
+    protected Node root = new Node();
+
+    static final char[] NO_LABELS = new char[0];
+    static final Node[] NO_CHILDREN = new Node[0];
+
+    /** A node of the trie */
+    static class Node {
+	/** The characters leading to the children, in increasing order */
+	char[] labels = NO_LABELS;
+	/** The children, in the order of their labels */
+	Node[] children = NO_CHILDREN;
+	/** The id of the token ending at this node, or -1 if there is none */
+	int token = -1;
+	/** The ids of the k most frequent tokens below this node, most frequent first */
+	int[] top;
+
+	/** Return the child for this character, or null if there is none */
+	Node child(char c) {
+	    int low = 0, high = labels.length - 1;
+	    while (low <= high) {
+		int middle = (low + high) / 2;
+		if (labels[middle] < c)
+		    low = middle + 1;
+		else if (labels[middle] > c)
+		    high = middle - 1;
+		else
+		    return children[middle];
+	    }
+	    return null;
+	}
+    }
+
+    /** Build the suggestions for the tokens of these statistics, weighted
+     * by their document frequencies, keeping k suggestions for each prefix */
+    public Suggester(TermStatistics statistics, int k) {
+	this.k = k;
+	tokens = (String[])statistics.dfHash.keySet().toArray(new String[statistics.size()]);
+	Arrays.sort(tokens);
+	weights = new int[tokens.length];
+	for(int id = 0; id < tokens.length; id++) {
+	    weights[id] = statistics.df(tokens[id]);
+	    insert(id);
+	}
+	computeTop(root);
+    }
+
+    /** Add a token to the trie.  Since tokens are added in sorted order, a
+     * new child always goes after the existing children of its parent. */
+    void insert(int id) {
+	String token = tokens[id];
+	Node node = root;
+	for(int i = 0; i < token.length(); i++) {
+	    char c = token.charAt(i);
+	    int last = node.labels.length - 1;
+	    if (last >= 0 && node.labels[last] == c) {
+		node = node.children[last];
+		continue;
+	    }
+	    char[] labels = new char[last + 2];
+	    Node[] children = new Node[last + 2];
+	    System.arraycopy(node.labels, 0, labels, 0, last + 1);
+	    System.arraycopy(node.children, 0, children, 0, last + 1);
+	    labels[last + 1] = c;
+	    children[last + 1] = new Node();
+	    node.labels = labels;
+	    node.children = children;
+	    node = children[last + 1];
+	}
+	node.token = id;
+    }
+
+    /** Compute the k most frequent tokens below a node and all its descendants */
+    void computeTop(Node node) {
+	for(int i = 0; i < node.children.length; i++)
+	    computeTop(node.children[i]);
+	if (node.token < 0 && node.children.length == 1) {
+	    node.top = node.children[0].top;
+	    return;
+	}
+	int[] best = new int[k];
+	int size = 0;
+	if (node.token >= 0)
+	    size = offer(best, size, node.token);
+	for(int i = 0; i < node.children.length; i++) {
+	    int[] childTop = node.children[i].top;
+	    for(int j = 0; j < childTop.length; j++) {
+		// The rest of the child's list is less frequent, so is not kept either
+		if (size == k && !before(childTop[j], best[k - 1]))
+		    break;
+		size = offer(best, size, childTop[j]);
+	    }
+	}
+	node.top = new int[size];
+	System.arraycopy(best, 0, node.top, 0, size);
+    }
+
+    /** Insert a token into the first size entries of best, which are in order
+     * of decreasing frequency, if it is among the k most frequent, and return
+     * the new number of entries */
+    int offer(int[] best, int size, int id) {
+	if (size == k && !before(id, best[k - 1]))
+	    return size;
+	int i = (size < k) ? size++ : k - 1;
+	while (i > 0 && before(id, best[i - 1])) {
+	    best[i] = best[i - 1];
+	    i--;
+	}
+	best[i] = id;
+	return size;
+    }
+
+    /** Return true if one token should be suggested before another: it is
+     * more frequent or, if equally frequent, first in sorted order */
+    boolean before(int id, int other) {
+	return weights[id] > weights[other] || (weights[id] == weights[other] && id < other);
+    }
+
+    /** Return the number of tokens */
+    public int size() {
+	return tokens.length;
+    }
+
+    /** Return at most n of the tokens starting with a prefix, most frequent
+     * first.  At most k tokens are kept for each prefix. */
+    public String[] suggest(String prefix, int n) {
+	Node node = root;
+	for(int i = 0; i < prefix.length() && node != null; i++)
+	    node = node.child(prefix.charAt(i));
+	if (node == null)
+	    return new String[0];
+	String[] suggestions = new String[Math.min(n, node.top.length)];
+	for(int i = 0; i < suggestions.length; i++)
+	    suggestions[i] = tokens[node.top[i]];
+	return suggestions;
+    }
+
+    /** Return the document frequency of a token, or 0 if it is unknown */
+    public int weight(String token) {
+	int id = Arrays.binarySearch(tokens, token);
+	return (id < 0) ? 0 : weights[id];
+    }
+
+    /** Index a directory of files and then interactively suggest completions
+     * of prefixes.
+     * Command format: "Suggester [-html] [-stem] [DIR] [LANGUAGE]"
+     */
+    public static void main(String[] args) throws IOException {
+	short docType = DocumentIterator.TYPE_TEXT;
+	boolean stem = false;
+	for(int i = 0; i < args.length - 2; i++) {
+	    String flag = args[i];
+	    if (flag.equals("-html"))
+		docType = DocumentIterator.TYPE_HTML;
+	    else if (flag.equals("-stem"))
+		stem = true;
+	    else {
+		System.out.println("\nUnknown flag: " + flag);
+		System.exit(1);
+	    }
+	}
+	InvertedIndex index = new InvertedIndex(new File(args[args.length - 2]), docType, stem, false,
+						args[args.length - 1]);
+	long start = System.nanoTime();
+	Suggester suggester = index.suggester();
+	System.out.println("Built suggestions for " + suggester.size() + " tokens in " +
+			   (System.nanoTime() - start) / 1000000 + " ms");
+	BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+	while (true) {
+	    System.out.print("\nEnter prefix (empty to exit): ");
+	    String prefix = in.readLine();
+	    if (prefix == null || prefix.equals(""))
+		break;
+	    start = System.nanoTime();
+	    String[] suggestions = index.suggest(prefix, DEFAULT_K);
+	    long micros = (System.nanoTime() - start) / 1000;
+	    for(int i = 0; i < suggestions.length; i++)
+		System.out.println(MoreString.padTo((i + 1) + ". ", 4) + MoreString.padTo(suggestions[i], 20) +
+				   " DF: " + suggester.weight(suggestions[i]));
+	    System.out.println("(" + micros + " microseconds)");
+	}
+    }
+}
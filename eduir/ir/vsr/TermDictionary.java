@@ -0,0 +1,292 @@
+package eduir.ir.vsr;
+
+import java.io.*;
+import java.util.*;
+import eduir.ir.utilities.*;
+
+/**
+ * A compact, sorted dictionary of tokens supporting exact lookup and the
+ * expansion of prefix, wildcard and range queries into the matching tokens.
+ * Each token is identified by its rank in sorted order.
+ *
+ * Tokens are front coded in blocks of BLOCK_SIZE: the first token of a
+ * block is stored in full and every other token as the number of leading
+ * bytes it shares with the previous token followed by the rest of its bytes,
+ * all in one byte array with variable-byte lengths (see VByte).  Since
+ * sorted tokens share long prefixes this takes a fraction of the memory of
+ * a HashMap of Strings.  A token is found by binary search on the first
+ * tokens of the blocks followed by a scan of one block, so lookups and the
+ * ranges of tokens matching a prefix are found in time logarithmic in the
+ * number of tokens.
+ */
+
+public class TermDictionary {
+
+    /** The number of tokens in a front-coded block */
+    public static final int BLOCK_SIZE = 16;
+
+    /** The number of tokens */
+    protected int size;
+
+    /** The front-coded blocks of tokens */
+    protected byte[] data;
+
+    /** The offset in data of the start of each block */
+    protected int[] blockOffsets;
+
+    /** Create a dictionary of these tokens, which must be distinct and sorted
+     * in increasing order (as by Arrays.sort) */
+    public TermDictionary(String[] sortedTokens) {
+	size = sortedTokens.length;
+	blockOffsets = new int[(size + BLOCK_SIZE - 1) / BLOCK_SIZE];
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	try {
+	    byte[] previous = null;
+	    for(int i = 0; i < size; i++) {
+		byte[] bytes = sortedTokens[i].getBytes("UTF-8");
+		if (i % BLOCK_SIZE == 0) {
+		    blockOffsets[i / BLOCK_SIZE] = out.size();
+		    VByte.write(out, bytes.length);
+		    out.write(bytes);
+		}
+		else {
+		    int shared = 0;
+		    while (shared < bytes.length && shared < previous.length && bytes[shared] == previous[shared])
+			shared++;
+		    VByte.write(out, shared);
+		    VByte.write(out, bytes.length - shared);
+		    out.write(bytes, shared, bytes.length - shared);
+		}
+		previous = bytes;
+	    }
+	}
+	catch (IOException e) {
+	    // Cannot happen when writing to a byte array
+	}
+	data = out.toByteArray();
+    }
+
+    /** Decodes the tokens of a block in order */
+    class BlockReader {
+	int id;
+	int pos;
+	byte[] bytes = new byte[32];
+	int length = 0;
+
+	/** Position the reader before the first token of a block */
+	BlockReader(int block) {
+	    id = block * BLOCK_SIZE - 1;
+	    pos = blockOffsets[block];
+	}
+
+	/** Decode the next token, returning false if there are no more */
+	boolean next() {
+	    if (id + 1 >= size)
+		return false;
+	    id++;
+	    int shared = (id % BLOCK_SIZE == 0) ? 0 : readInt();
+	    int suffix = readInt();
+	    if (shared + suffix > bytes.length) {
+		byte[] newBytes = new byte[2 * (shared + suffix)];
+		System.arraycopy(bytes, 0, newBytes, 0, shared);
+		bytes = newBytes;
+	    }
+	    System.arraycopy(data, pos, bytes, shared, suffix);
+	    pos = pos + suffix;
+	    length = shared + suffix;
+	    return true;
+	}
+
+	/** Read a variable-byte integer */
+	int readInt() {
+	    int value = 0, shift = 0;
+	    while (true) {
+		int b = data[pos++] & 0xff;
+		value = value | ((b & 127) << shift);
+		if ((b & 128) != 0)
+		    return value;
+		shift = shift + 7;
+	    }
+	}
+
+	/** Return the current token */
+	String token() {
+	    try {
+		return new String(bytes, 0, length, "UTF-8");
+	    }
+	    catch (UnsupportedEncodingException e) {
+		return null;
+	    }
+	}
+    }
+
+    /** Return the number of tokens */
+    public int size() {
+	return size;
+    }
+
+    /** Return the approximate number of bytes used by the dictionary */
+    public long bytes() {
+	return data.length + 4L * blockOffsets.length;
+    }
+
+    /** Return the first token of a block */
+    String firstToken(int block) {
+	BlockReader reader = new BlockReader(block);
+	reader.next();
+	return reader.token();
+    }
+
+    /** Return the number of the last block whose first token is not after
+     * this token, or 0 if there is none */
+    int findBlock(String token) {
+	int low = 0, high = blockOffsets.length - 1;
+	while (low < high) {
+	    int middle = (low + high + 1) / 2;
+	    if (firstToken(middle).compareTo(token) <= 0)
+		low = middle;
+	    else
+		high = middle - 1;
+	}
+	return low;
+    }
+
+    /** Return the id of the first token that is not before this token, or
+     * size() if every token is before it */
+    public int lowerBound(String token) {
+	if (size == 0)
+	    return 0;
+	BlockReader reader = new BlockReader(findBlock(token));
+	while (reader.next()) {
+	    if (reader.token().compareTo(token) >= 0)
+		return reader.id;
+	    if ((reader.id + 1) % BLOCK_SIZE == 0)
+		return reader.id + 1;
+	}
+	return size;
+    }
+
+    /** Return the id of a token, or -1 if it is not in the dictionary */
+    public int find(String token) {
+	int id = lowerBound(token);
+	if (id < size && term(id).equals(token))
+	    return id;
+	return -1;
+    }
+
+    /** Return the token with this id */
+    public String term(int id) {
+	BlockReader reader = new BlockReader(id / BLOCK_SIZE);
+	while (reader.next() && reader.id < id);
+	return reader.token();
+    }
+
+    /** Return the tokens with ids from start up to but not including end */
+    public String[] terms(int start, int end) {
+	String[] tokens = new String[Math.max(0, end - start)];
+	if (tokens.length == 0)
+	    return tokens;
+	BlockReader reader = new BlockReader(start / BLOCK_SIZE);
+	while (reader.next() && reader.id < end) {
+	    if (reader.id >= start)
+		tokens[reader.id - start] = reader.token();
+	}
+	return tokens;
+    }
+
+    /** Return the tokens with the first n of these ids, which must be in
+     * increasing order, decoding each block they fall in only once */
+    public String[] terms(int[] ids, int n) {
+	String[] tokens = new String[n];
+	BlockReader reader = null;
+	int readerBlock = -1;
+	for(int i = 0; i < n; i++) {
+	    int block = ids[i] / BLOCK_SIZE;
+	    if (block != readerBlock) {
+		reader = new BlockReader(block);
+		readerBlock = block;
+	    }
+	    while (reader.id < ids[i])
+		reader.next();
+	    tokens[i] = reader.token();
+	}
+	return tokens;
+    }
+
+    /** Return the range of ids, from the first up to but not including the
+     * second, of the tokens starting with this prefix */
+    public int[] prefixRange(String prefix) {
+	int[] range = new int[2];
+	range[0] = lowerBound(prefix);
+	range[1] = lowerBound(prefix + Character.MAX_VALUE);
+	return range;
+    }
+
+    /** Return the tokens starting with this prefix */
+    public String[] expandPrefix(String prefix) {
+	int[] range = prefixRange(prefix);
+	return terms(range[0], range[1]);
+    }
+
+    /** Return the tokens from low to high inclusive, in order */
+    public String[] expandRange(String low, String high) {
+	int end = lowerBound(high);
+	if (end < size && term(end).equals(high))
+	    end++;
+	return terms(lowerBound(low), end);
+    }
+
+    /** Return the tokens matching a wildcard pattern, where "*" matches any
+     * sequence of characters and "?" matches any one character.  Only the
+     * tokens starting with the part of the pattern before the first wildcard
+     * are examined, so patterns starting with a wildcard scan every token. */
+    public String[] expandWildcard(String pattern) {
+	int wildcard = 0;
+	while (wildcard < pattern.length() && pattern.charAt(wildcard) != '*' && pattern.charAt(wildcard) != '?')
+	    wildcard++;
+	if (wildcard == pattern.length())
+	    return (find(pattern) >= 0) ? new String[] {pattern} : new String[0];
+	String[] candidates = expandPrefix(pattern.substring(0, wildcard));
+	ArrayList matches = new ArrayList();
+	for(int i = 0; i < candidates.length; i++) {
+	    if (matches(pattern, candidates[i]))
+		matches.add(candidates[i]);
+	}
+	return (String[])matches.toArray(new String[matches.size()]);
+    }
+
+    /** Return true if the token matches the wildcard pattern */
+    public static boolean matches(String pattern, String token) {
+	int p = 0, t = 0;
+	// Where to resume after the last "*" if the rest fails to match
+	int star = -1, starToken = 0;
+	while (t < token.length()) {
+	    if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == token.charAt(t))) {
+		p++;
+		t++;
+	    }
+	    else if (p < pattern.length() && pattern.charAt(p) == '*') {
+		star = p++;
+		starToken = t;
+	    }
+	    else if (star >= 0) {
+		// Let the last "*" match one more character
+		p = star + 1;
+		t = ++starToken;
+	    }
+	    else
+		return false;
+	}
+	while (p < pattern.length() && pattern.charAt(p) == '*')
+	    p++;
+	return p == pattern.length();
+    }
+
+    /** Return true if a word of a query is a wildcard pattern: it contains
+     * "*", or "?" anywhere but at its end, where "?" ends a question rather
+     * than standing for a character */
+    public static boolean isWildcard(String word) {
+	int question = word.indexOf('?');
+	return word.indexOf('*') >= 0 || (question >= 0 && question < word.length() - 1);
+    }
+}
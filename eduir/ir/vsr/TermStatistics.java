@@ -0,0 +1,134 @@
+package eduir.ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The collection statistics that determine IDF weights: the number of
+ * documents and the document frequency of each token.  When documents are
+ * split over several indexes, the statistics of every index are collected
+ * and added together, and the global totals are applied back to each index
+ * (see InvertedIndex.applyStatistics) so that every index weights tokens
+ * exactly as a single index of all the documents would.  Statistics can be
+ * written to and read from files so the indexes can be in separate processes.
+ */
+
+public class TermStatistics {
+
+    /** The number of documents */
+    public int numDocs = 0;
+
+    /** A HashMap mapping each token to the (Integer) number of documents it occurs in */
+    public HashMap dfHash = new HashMap();
+
+    /** Create empty statistics */
+    public TermStatistics() {
+    }
+
+    /** Add a number of documents in which a token occurs */
+    public void addDf(String token, int df) {
+	Integer total = (Integer)dfHash.get(token);
+	dfHash.put(token, new Integer(total == null ? df : total.intValue() + df));
+    }
+
+    /** Add the statistics of another set of documents to these */
+    public void add(TermStatistics other) {
+	numDocs = numDocs + other.numDocs;
+	Iterator mapEntries = other.dfHash.entrySet().iterator();
+	while (mapEntries.hasNext()) {
+	    Map.Entry entry = (Map.Entry)mapEntries.next();
+	    addDf((String)entry.getKey(), ((Integer)entry.getValue()).intValue());
+	}
+    }
+
+    /** Return the number of documents a token occurs in, or 0 if it is unknown */
+    public int df(String token) {
+	Integer df = (Integer)dfHash.get(token);
+	return (df == null) ? 0 : df.intValue();
+    }
+
+    /** Return the IDF of a token, or 0 if it is unknown */
+    public double idf(String token) {
+	int df = df(token);
+	return (df == 0) ? 0.0 : Math.log((double)numDocs/df);
+    }
+
+    /** Return the number of distinct tokens */
+    public int size() {
+	return dfHash.size();
+    }
+
+    /** Write the statistics to a file */
+    public void write(File file) throws IOException {
+	DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+	out.writeInt(numDocs);
+	out.writeInt(dfHash.size());
+	Iterator mapEntries = dfHash.entrySet().iterator();
+	while (mapEntries.hasNext()) {
+	    Map.Entry entry = (Map.Entry)mapEntries.next();
+	    out.writeUTF((String)entry.getKey());
+	    out.writeInt(((Integer)entry.getValue()).intValue());
+	}
+	out.close();
+    }
+
+    /** Read statistics written by write() */
+    public static TermStatistics read(File file) throws IOException {
+	DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+	TermStatistics statistics = new TermStatistics();
+	statistics.numDocs = in.readInt();
+	int size = in.readInt();
+	for(int i = 0; i < size; i++) {
+	    String token = in.readUTF();
+	    statistics.dfHash.put(token, new Integer(in.readInt()));
+	}
+	in.close();
+	return statistics;
+    }
+
+    public String toString() {
+	return "TermStatistics: " + numDocs + " documents, " + dfHash.size() + " tokens";
+    }
+
+    /** Exchange statistics between on-disk indexes of parts of a collection.
+     * Command format: "TermStatistics -collect [INDEXDIR] [FILE]" writes the
+     * local statistics of the index in INDEXDIR to FILE.
+     * Command format: "TermStatistics -merge [OUTFILE] [FILE]+" adds together
+     * the statistics in the FILEs and writes the totals to OUTFILE.
+     * Command format: "TermStatistics -apply [FILE] [INDEXDIR]" reweights the
+     * index in INDEXDIR with the statistics in FILE, without rewriting its postings.
+     */
+    public static void main(String[] args) {
+	try {
+	    if (args[0].equals("-collect")) {
+		DiskInvertedIndex index = new DiskInvertedIndex(new File(args[1]), 0);
+		TermStatistics statistics = index.termStatistics();
+		statistics.write(new File(args[2]));
+		index.close();
+		System.out.println("Wrote " + statistics + " to " + args[2]);
+	    }
+	    else if (args[0].equals("-merge")) {
+		TermStatistics statistics = new TermStatistics();
+		for(int i = 2; i < args.length; i++)
+		    statistics.add(read(new File(args[i])));
+		statistics.write(new File(args[1]));
+		System.out.println("Wrote " + statistics + " to " + args[1]);
+	    }
+	    else if (args[0].equals("-apply")) {
+		DiskInvertedIndex index = new DiskInvertedIndex(new File(args[2]), 0);
+		index.applyStatistics(read(new File(args[1])));
+		index.writeDictionary();
+		index.close();
+		System.out.println("Applied statistics in " + args[1] + " to " + args[2]);
+	    }
+	    else {
+		System.out.println("\nUnknown command: " + args[0]);
+		System.exit(1);
+	    }
+	}
+	catch (IOException e) {
+	    System.out.println("\nCould not access statistics: " + e);
+	    System.exit(1);
+	}
+    }
+}
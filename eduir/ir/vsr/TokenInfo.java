@@ -1,6 +1,7 @@
 package eduir.ir.vsr;
 
 import java.util.*;
+import eduir.ir.utilities.*;
 
 /** A lightweight object for storing information about a token (a.k.a word, term)
  * in an inverted index.
@@ -20,9 +21,75 @@ public class TokenInfo
      * token occurs */
     public ArrayList occList;
 
+    /** For a positional index, a list parallel to occList giving the positions
+     * of the token in each document as a byte[] of variable-byte compressed
+     * gaps (see VByte).  Kept apart from the TokenOccurrence's so that
+     * non-positional retrieval never touches them.  Null if not positional. */
+    public ArrayList posList = null;
+
+    /** The number of occurrences between skip pointers, or 0 if there are none */
+    public int skipInterval = 0;
+
+    /** Skip pointers into occList: skipDocIds[i] is the id of the document
+     * of occurrence i*skipInterval, allowing postings to be intersected
+     * without examining every occurrence */
+    public int[] skipDocIds = null;
+
     /** Create an initially empty data structure */
     public TokenInfo() {
 	occList = new ArrayList();
 	idf = 0.0;
     }
+
+    /** Add the compressed positions of the token in the document of the last
+     * occurrence added to occList */
+    public void addPositions(int[] positions) {
+	if (posList == null)
+	    posList = new ArrayList();
+	posList.add(VByte.encodeGaps(positions));
+    }
+
+    /** Return the positions of the token in the document of the ith occurrence,
+     * or null if positions are not stored */
+    public int[] positions(int i) {
+	if (posList == null)
+	    return null;
+	TokenOccurrence occ = (TokenOccurrence)occList.get(i);
+	return VByte.decodeGaps((byte[])posList.get(i), occ.count);
+    }
+
+    /** Build skip pointers every square-root of the number of occurrences,
+     * which must be in increasing order of document id */
+    public void buildSkips() {
+	int size = occList.size();
+	skipInterval = (int)Math.sqrt(size);
+	if (skipInterval < 2) {
+	    // Short lists are faster to scan than to skip
+	    skipInterval = 0;
+	    skipDocIds = null;
+	    return;
+	}
+	skipDocIds = new int[(size + skipInterval - 1) / skipInterval];
+	for(int i = 0; i < skipDocIds.length; i++)
+	    skipDocIds[i] = ((TokenOccurrence)occList.get(i * skipInterval)).docRef.id;
+    }
+
+    /** Return the index of the first occurrence at or after index start whose
+     * document id is at least docId, or occList.size() if there is none.
+     * Follows skip pointers as far as possible before scanning. */
+    public int skipTo(int start, int docId) {
+	int i = start;
+	if (skipDocIds != null) {
+	    // Follow skip pointers past start while they do not overshoot docId
+	    int skip = start / skipInterval + 1;
+	    while (skip < skipDocIds.length && skipDocIds[skip] <= docId) {
+		i = skip * skipInterval;
+		skip++;
+	    }
+	}
+	int size = occList.size();
+	while (i < size && ((TokenOccurrence)occList.get(i)).docRef.id < docId)
+	    i++;
+	return i;
+    }
 }